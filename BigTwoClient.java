@@ -1,42 +1,121 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
 import java.net.Socket;
 import java.util.ArrayList;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
+import javax.swing.SwingUtilities;
 /**
  * The BigTwoClient class implements the CardGame interface 
  * and NetworkGame interface. It is used to model a Big Two
  * card game that supports 4 players playing over the internet. 
+ * The game reports everything that happens to its listeners (see
+ * BigTwoClientListener), so it can run without a display; the Swing
+ * BigTwoTable is the listener of the interactive client.
+ * <p>
+ * By default the messages from the server are applied on the thread
+ * reading them. With setEventExecutor() the reading thread only decodes
+ * them into a single-producer/single-consumer queue, and they are applied
+ * in batches on the executor's thread, e.g. the Event Dispatch Thread, so
+ * that the game is only changed and its listeners only called there.
  * @author michael
  *
  */
 public class BigTwoClient implements CardGame, NetworkGame{
+	private static final HandRankTable rankTable = loadRankTable();	// a table for comparing hands, or null if not generated
+	private static final int EVENT_QUEUE_SIZE = 1024;	// number of messages the reading thread may be ahead of the event thread
+	private static final int MAX_EVENT_BATCH = 256;		// maximum number of messages applied in one batch on the event thread
+	private static final long RESUME_TIMEOUT_MILLIS = 30000;	// how long a lost session is tried to be resumed
+	private static final long MAX_RESUME_DELAY_MILLIS = 4000;	// longest wait between two attempts to resume
+	private static final ConnectionThreads READER_THREADS = new ConnectionThreads("server-handler", true);	// creates the thread reading from the server, virtual where supported
 	private int numOfPlayers;							// an integer specifying the number of players
 	private Deck deck;									// a deck of cards
 	private ArrayList<CardGamePlayer> playerList;		// a list of player
+	private long[] handMasks;							// the cards in each player's hand as a CardSet bitmask (0 if hidden)
+	private int[] numOfCards;							// the number of cards in each player's hand
 	private ArrayList<Hand> handsOnTable;				// a list of hands played on the table
+	private CardTracker tracker;						// the cards played and unseen from the local player's point of view
 	private int playerID;								// an integer specifying the playerID (i.e. index) of the local player
 	private String playerName;							// a string specifying the name of the local player
+	private boolean isNameEntered;						// whether the name of the local player is known, so that it can join
+	private boolean isJoinPending;						// whether the JOIN is waiting for the name of the local player
 	private String serverIP;							// a string specifying the IP address of the game server 
 	private int serverPort;								// an integer specifying the TCP port of the game server
 	private Socket sock;								// a socket connection to the game server
 	private ObjectOutputStream oos;						// an ObjectOutputStream for sending messages to the server
+	private InputStream in;								// a stream for receiving messages from the server
+	private OutputStream out;							// a buffered stream for sending binary messages to the server
+	private int protocolVersion;						// the negotiated protocol version (see CardGameMessageCodec)
+	private volatile String sessionToken;				// the token for resuming the seat if the connection is lost, or null if none
+	private boolean isResumed;							// whether the session has been resumed and the server is sending the table back
 	private int currentIdx;								// an integer specifying the index of the current player
-	private BigTwoTable table;							// a Big Two table which builds the GUI for the game and handles all user actions.
+	private CopyOnWriteArrayList<BigTwoClientListener> listeners;	// the listeners notified of the events of the game
+	private volatile Executor eventExecutor;			// runs the batches of events, or null to apply them on the reading thread
+	private SpscQueue<Runnable> events;					// the events decoded by the reading thread, waiting for the event thread
+	private AtomicBoolean isDrainScheduled;				// whether a batch of events has been handed to the executor and not started yet
+	private Object connectionLock;						// the lock held while connecting, so that one reading thread owns the connection
+	private volatile Thread readerThread;				// the thread reading from the connection or resuming it, or null if none
 
 	
 	/**
 	 * A constructor for creating a Big Two card game. Create 
 	 * 4 players and add them to the player list. Also, create
 	 * a 'console' (a BigTwoConsole object) for providing the
-	 * user interface
+	 * user interface. The frame is shown before the images are loaded
+	 * and the connection to the server is made while the name is being
+	 * entered; the JOIN is sent once both are done.
 	 *
 	 */
 	public BigTwoClient() {
+		this(null);
+		StartupTrace.mark("client created");
+		CardAtlas.loadAsync(CardAtlas.screenScale());
+		BigTwoTable table = new BigTwoTable(this);
+		addListener(table);
+		setEventExecutor(SwingUtilities::invokeLater);
+		StartupTrace.mark("frame shown");
+		READER_THREADS.newThread(this::makeConnection).start();
+		JFrame frameEnterName = new JFrame();
+		String name = JOptionPane.showInputDialog(frameEnterName, "Enter name: ");	
+//		while (playerName == null || playerName == "") {
+//			playerName = JOptionPane.showInputDialog(frameEnterName, "Enter name: ");	
+//		}
+		StartupTrace.mark("name entered");
+		setPlayerName(name);
+		
+	}
+	
+	/**
+	 * A constructor for creating a Big Two card game without a user
+	 * interface. The game connects to 127.0.0.1:2396 when makeConnection()
+	 * is called, unless another server is set with setServerIP() and
+	 * setServerPort(), and reports its events to the listeners added.
+	 * @param playerName name of the local player
+	 */
+	public BigTwoClient(String playerName) {
+		this.playerName = playerName;
+		isNameEntered = (playerName != null);
+		serverIP = "127.0.0.1";
+		serverPort = 2396;
+		listeners = new CopyOnWriteArrayList<BigTwoClientListener>();
+		events = new SpscQueue<Runnable>(EVENT_QUEUE_SIZE);
+		isDrainScheduled = new AtomicBoolean();
+		connectionLock = new Object();
 		handsOnTable = new ArrayList<Hand>();
+		tracker = new CardTracker();
+		handMasks = new long[4];
+		numOfCards = new int[4];
 		
 		playerList = new ArrayList<CardGamePlayer>();
 		CardGamePlayer player1 = new CardGamePlayer();
@@ -51,24 +130,70 @@ public class BigTwoClient implements CardGame, NetworkGame{
 		playerList.add(player2);
 		playerList.add(player3);
 		playerList.add(player4);
-		
-		table = new BigTwoTable(this);
-		JFrame frameEnterName = new JFrame();
-		playerName = new String();
-		playerName = JOptionPane.showInputDialog(frameEnterName, "Enter name: ");	
-//		while (playerName == null || playerName == "") {
-//			playerName = JOptionPane.showInputDialog(frameEnterName, "Enter name: ");	
-//		}
-		makeConnection();
-		
+	}
+	
+	/**
+	 * A method for adding a listener to be notified of the events of the game.
+	 * @param listener listener to be added
+	 */
+	public void addListener(BigTwoClientListener listener) {
+		listeners.add(listener);
+	}
+	
+	/**
+	 * A method for removing a listener.
+	 * @param listener listener to be removed
+	 */
+	public void removeListener(BigTwoClientListener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * A method for setting the thread the messages from the server are
+	 * applied on, and the listeners are called on. It should be set before
+	 * connecting.
+	 * @param executor executor of the thread, e.g. SwingUtilities::invokeLater,
+	 *            or null to apply the messages on the thread reading them
+	 */
+	public void setEventExecutor(Executor executor) {
+		eventExecutor = executor;
 	}
 	/**
 	 * A method for starting a Big Two card game. It should 
 	 * create a Big Two card game, create and shuffle a deck 
 	 * of cards, and start the game with the deck of cards.
+	 * With the option --trace-startup, the time of each step of the
+	 * start of the client is printed (see StartupTrace). With the option
+	 * --log-lines N, the message areas show at most N lines each. With
+	 * the option --replay FILE, the games archived in FILE by the server
+	 * (see ReplayArchive) are shown in a viewer instead, without
+	 * connecting.
 	 * 
 	 */
 	public static void main(String[] args) {
+		String replayFile = null;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--trace-startup")) {
+				StartupTrace.enable();
+			} else if (args[i].equals("--log-lines") && i + 1 < args.length) {
+				BigTwoTable.setMaxLogLines(Integer.parseInt(args[++i]));
+			} else if (args[i].equals("--replay") && i + 1 < args.length) {
+				replayFile = args[++i];
+			}
+		}
+		if (replayFile != null) {
+			try {
+				ReplayArchive archive = new ReplayArchive(new File(replayFile));
+				BigTwoClient viewer = new BigTwoClient((String) null);
+				CardAtlas.loadAsync(CardAtlas.screenScale());
+				BigTwoTable table = new BigTwoTable(viewer);
+				viewer.addListener(table);
+				table.showReplays(archive);
+			} catch (IOException e) {
+				System.out.println("Cannot open " + replayFile + ": " + e.getMessage());
+			}
+			return;
+		}
 		BigTwoClient bigTwoClient = new BigTwoClient();
 	}
 	
@@ -116,6 +241,74 @@ public class BigTwoClient implements CardGame, NetworkGame{
 		return currentIdx;
 	}
 
+	/**
+	 * A method for retrieving the number of cards in a player's hand. This
+	 * is also known for players whose cards are hidden (see BigTwoSnapshot).
+	 * @param playerIdx index of the player
+	 * @return number of cards in the player's hand
+	 */
+	public int getNumOfCards(int playerIdx) {
+		return numOfCards[playerIdx];
+	}
+
+	/**
+	 * A method for retrieving the cards in a player's hand.
+	 * @param playerIdx index of the player
+	 * @return the cards in the player's hand as a CardSet bitmask, 0 if hidden
+	 */
+	public long getHand(int playerIdx) {
+		return handMasks[playerIdx];
+	}
+
+	/**
+	 * A method for listing the hands the current player may play (see
+	 * MoveGenerator), e.g. for the hints of the table.
+	 * @param moves array to be filled with the hands, of at least MoveGenerator.MAX_MOVES elements
+	 * @return the number of hands, 0 if the current player's hand is hidden
+	 */
+	public int getLegalHands(long[] moves) {
+		long lastHand = CardSet.EMPTY;
+		if (!handsOnTable.isEmpty()) {
+			Hand lastHandOnTable = handsOnTable.get(handsOnTable.size() - 1);
+			if (lastHandOnTable.getPlayer() != playerList.get(currentIdx)) {
+				lastHand = CardSet.of(lastHandOnTable);
+			}
+		}
+		long required = handsOnTable.isEmpty() ? CardSet.THREE_OF_DIAMONDS : CardSet.EMPTY;
+		return MoveGenerator.generate(handMasks[currentIdx], lastHand, required, moves);
+	}
+
+	/**
+	 * A method for getting what a player knows about the game, e.g. for a
+	 * bot or the endgame hints of the table to choose a move from.
+	 * @param playerIdx index of the player
+	 * @return a snapshot with the player's hand and the sizes of all hands
+	 */
+	public BigTwoSnapshot snapshot(int playerIdx) {
+		Hand lastHandOnTable = handsOnTable.isEmpty() ? null : handsOnTable.get(handsOnTable.size() - 1);
+		return new BigTwoSnapshot(playerIdx, handMasks[playerIdx], numOfCards.clone(), currentIdx,
+				(lastHandOnTable == null) ? CardSet.EMPTY : CardSet.of(lastHandOnTable),
+				(lastHandOnTable == null) ? -1 : playerList.indexOf(lastHandOnTable.getPlayer()));
+	}
+
+	/**
+	 * A method for getting the cards played so far in the game. After a
+	 * resume only the last hand on table is known.
+	 * @return the cards of the hands on table as a CardSet bitmask
+	 */
+	public long getPlayedCards() {
+		return tracker.getPlayedCards();
+	}
+
+	/**
+	 * A method for getting the tracker of the cards, which is kept up to
+	 * date with every move from the local player's point of view.
+	 * @return the card tracker
+	 */
+	public CardTracker getCardTracker() {
+		return tracker;
+	}
+
 	/**
 	 * A method for dividing cards to 4 players and find which
 	 * player starts first (for getting 3 of Diamonds)
@@ -125,57 +318,69 @@ public class BigTwoClient implements CardGame, NetworkGame{
 	private int divideCards() {
 		int firstPlayerIdx = 0;
 		for (int i = 0; i < 4; i++) {
-			CardGamePlayer playerToGetCard = playerList.get(i);
+			long hand = CardSet.EMPTY;
 			for (int j = 0; j < 13; j++) {
-				BigTwoCard cardToAdd = (BigTwoCard) deck.getCard(j + ((i) * 13));
-				if (cardToAdd.getRank() == 2 && cardToAdd.getSuit() == 0) {
-					firstPlayerIdx = i;	
-				}
-				playerToGetCard.addCard(cardToAdd);
+				hand |= CardSet.of(deck.getCard(j + ((i) * 13)));
 			}
+			if (isContainThreeOfDiamonds(hand)) {
+				firstPlayerIdx = i;
+			}
+			handMasks[i] = hand;
+			numOfCards[i] = 13;
 		}
 		return firstPlayerIdx;
 	}
 	
 	/**
-	 * A method to sort all players' cards according to Big Two rules
-	 * from weakest to strongest
+	 * A method to give all players their cards sorted according to Big Two
+	 * rules from weakest to strongest. The bits of a hand mask are already
+	 * in Big Two order, so iterating over them yields a sorted hand.
 	 */
 	private void sortPlayersCards() {
 		for (int i = 0; i < 4; i++) {
-			playerList.get(i).getCardsInHand().sort();
+			CardSet.addTo(handMasks[i], playerList.get(i));
 		}
 		
 	}
 	/**
 	 * A method for getting the player's selected cards based on
 	 * the selected indices.
-	 * @param player current player that chooses the cards
+	 * @param playerIdx index of the current player that chooses the cards
 	 * @param selectedIndices indices that the player selected
-	 * @return the cards selected by the player
+	 * @return the cards selected by the player, or -1 if an index is out of range
 	 */
-	private CardList getSelectedCards(CardGamePlayer player, int[] selectedIndices) {
-		CardList selectedCards = new CardList();
-		for (int i = 0; i < selectedIndices.length; i++) {
-			int selectedIndex = selectedIndices[i];
-			CardList currentPlayerCards = player.getCardsInHand();
-			Card selectedCard = currentPlayerCards.getCard(selectedIndex);
-			selectedCards.addCard(selectedCard);
-		}	
-		return selectedCards;
+	private long getSelectedCards(int playerIdx, int[] selectedIndices) {
+		return CardSet.select(handMasks[playerIdx], selectedIndices);
 	}
 	
 	/**
-	 * A method for checking if a cardlist contain three of diamonds
-	 * @return true if contain three of diamonds, otherwise false
+	 * A method for removing the specified cards from a player's hand.
+	 * Cards are removed by their position in the sorted hand, strongest
+	 * first, so no card comparisons are needed. Only the number of cards
+	 * changes if the player's hand is hidden.
+	 * @param playerIdx index of the player
+	 * @param cards cards to remove
 	 */
-	private boolean isContainThreeOfDiamonds(CardList selectedCards) {
-		Card threeOfDiamonds = new Card(0, 2);
-		if (selectedCards.contains(threeOfDiamonds)) {
-
-			return true;
+	private void removeCards(int playerIdx, long cards) {
+		numOfCards[playerIdx] -= Long.bitCount(cards);
+		if ((handMasks[playerIdx] & cards) != cards) {
+			return;
 		}
-		return false;
+		CardList cardsInHand = playerList.get(playerIdx).getCardsInHand();
+		for (long remaining = cards; remaining != 0; ) {
+			int bit = CardSet.highest(remaining);
+			cardsInHand.removeCard(CardSet.indexOf(handMasks[playerIdx], bit));
+			remaining &= ~(1L << bit);
+		}
+		handMasks[playerIdx] &= ~cards;
+	}
+	
+	/**
+	 * A method for checking if a set of cards contain three of diamonds
+	 * @return true if contain three of diamonds, otherwise false
+	 */
+	private boolean isContainThreeOfDiamonds(long selectedCards) {
+		return (selectedCards & CardSet.THREE_OF_DIAMONDS) != 0;
 	}
 	
 	/** 
@@ -194,55 +399,42 @@ public class BigTwoClient implements CardGame, NetworkGame{
 	
 	/** 
 	 * A method for returning a valid hand from the specified 
-	 * list of cards of the player.
+	 * list of cards of the player. The cards are classified in a 
+	 * single pass by HandClassifier and only the matching Hand is created.
 	 * @param player player to retrieve the valid hand from
 	 * @param cards cards to retrieve the valid hand from
 	 * @return the valid hand if a valid hand can be composed from the specified list of cards, otherwise null
 	 */
 	public static Hand composeHand(CardGamePlayer player, CardList cards) {
-		if (cards.size() == 1) {
-			Single singleHand = new Single(player, cards);
-			return validHand(singleHand);
-		}
-		else if (cards.size() == 2) {
-			Double doubleHand = new Double(player, cards);
-			return validHand(doubleHand);
-		}
-		else if (cards.size() == 3) {
-			Triple tripleHand = new Triple(player, cards);
-			return validHand(tripleHand);
-		}
-		else if (cards.size() == 5) {
-			StraightFlush straightFlushHand = new StraightFlush(player, cards);
-			if (validHand(straightFlushHand) != null) {
-				return straightFlushHand;
-			}
-			
-			Straight straightHand = new Straight(player, cards);
-			if (validHand(straightHand) != null) {
-				return straightHand;
-			}
-			
-			Flush flushHand = new Flush(player, cards);
-			if (validHand(flushHand) != null) {
-				return flushHand;
-			}
-			
-			FullHouse fullHouseHand = new FullHouse(player, cards);
-			if (validHand(fullHouseHand) != null) {
-				return fullHouseHand;
-			}
-			
-			Quad quadHand = new Quad(player, cards);
-			if (validHand(quadHand) != null) {
-				return quadHand;
-			}
+		int strength = HandClassifier.classify(CardSet.of(cards));
+		return HandClassifier.toHand(player, cards, strength);
+	}	
+	
+	/**
+	 * A method for loading the hand rank table generated by HandRankTableGenerator.
+	 * @return the hand rank table, or null if it has not been generated
+	 */
+	private static HandRankTable loadRankTable() {
+		try {
+			return HandRankTable.load();
+		} catch (IOException e) {
 			return null;
 		}
-		else {
-			return null;
+	}
+	
+	/**
+	 * A method for checking whether a hand beats another hand. The hand
+	 * rank table is used if it is available, otherwise Hand.beats().
+	 * @param hand hand to be played
+	 * @param lastHandOnTable last hand played on the table
+	 * @return true if the hand beats the last hand on table, otherwise false
+	 */
+	public static boolean beats(Hand hand, Hand lastHandOnTable) {
+		if (rankTable != null) {
+			return rankTable.beats(CardSet.of(hand), CardSet.of(lastHandOnTable));
 		}
-	}	
+		return hand.beats(lastHandOnTable);
+	}
 	
 	/**
 	 * A method for making a move by a player with the specified playerID 
@@ -267,7 +459,7 @@ public class BigTwoClient implements CardGame, NetworkGame{
 	 */
 	public void checkMove(int playerID, int[] cardIdx) {
 		CardGamePlayer player = playerList.get(playerID);
-		CardList selectedCards = new CardList();
+		long selectedCards = CardSet.EMPTY;
 		Hand composedHand = null;
 		Hand lastHandOnTable = (handsOnTable.isEmpty()) ? null : handsOnTable
 				.get(handsOnTable.size() - 1);
@@ -288,45 +480,33 @@ public class BigTwoClient implements CardGame, NetworkGame{
 			// Player passes his turn
 			if (isNewRound) {
 //				table.printMsg("{pass} <== Not a legal move!!");
-				table.printMsg("Not a legal move!!");
+				rejectMove(playerID, "Not a legal move!!");
 			}
 			else {
-				table.printMsg("{Pass}");
-				currentIdx = (currentIdx + 1) % 4;
-				table.setActivePlayer(currentIdx);
-				if (currentIdx == this.playerID) {
-					table.printMsg("Your turn:");
-					table.enable();
-				}
-				else {
-					table.printMsg(playerList.get(currentIdx).getName() + "'s turn:");					
-					table.disable();
-				}
+				passTurn();
 			}
-			table.resetSelected();
-			table.repaint();
 			return;
 		}
 		else {
-			selectedCards = getSelectedCards(player, cardIdx);
-			composedHand = composeHand(player, selectedCards);
+			selectedCards = getSelectedCards(playerID, cardIdx);
+			if (selectedCards != -1L) {
+				composedHand = HandClassifier.compose(player, selectedCards);
+			}
 			
 			// Validate chosen cards
 			if (lastHandOnTable == null) {
 				if (composedHand == null) {
-					String msg = "Not a legal move!!";
-					table.printMsg(msg);
+					rejectMove(playerID, "Not a legal move!!");
 					return;
 				}
-				else if (!isContainThreeOfDiamonds(composedHand)) {
-					printTurn(composedHand, false);
+				else if (!isContainThreeOfDiamonds(selectedCards)) {
+					rejectMove(playerID, "Not a legal move!!");
 					return;
 				}
 			}
 			else {
 				if (composedHand == null) {
-					String msg = "Not a legal move!!";
-					table.printMsg(msg);
+					rejectMove(playerID, "Not a legal move!!");
 					return;
 				}
 				else if (isNewRound) {
@@ -335,68 +515,151 @@ public class BigTwoClient implements CardGame, NetworkGame{
 					;
 				}
 				else if (composedHand.size() != lastHandOnTable.size()) {
-					printTurn(composedHand, false);
+					rejectMove(playerID, "Not a legal move!!");
 					return;
 				}
-				else if (!composedHand.beats(lastHandOnTable)) {
-					printTurn(composedHand, false);
+				else if (!beats(composedHand, lastHandOnTable)) {
+					rejectMove(playerID, "Not a legal move!!");
 					return;
 				}
 			}
 		}
 		
-		player.removeCards(composedHand);
+		playHand(playerID, selectedCards, composedHand);
+	}
+	
+	/**
+	 * A method for applying a move that has already been validated by the
+	 * server (see CardGameMessageCodec.AUTHORITATIVE). The move is played
+	 * without being checked again.
+	 * @param playerID id of the player making the move
+	 * @param cardIdx the indices of cards played by the player, empty to pass
+	 */
+	public void applyMove(int playerID, int[] cardIdx) {
+		if (cardIdx.length == 0) {
+			passTurn();
+			return;
+		}
+		applyCards(playerID, getSelectedCards(playerID, cardIdx));
+	}
+	
+	/**
+	 * A method for applying a move that has already been validated by the
+	 * server, given by the cards played (see CardGameMessageCodec.PRIVATE_DEAL).
+	 * @param playerID id of the player making the move
+	 * @param cards the cards played by the player, 0 to pass
+	 */
+	public void applyCards(int playerID, long cards) {
+		if (cards == CardSet.EMPTY) {
+			passTurn();
+			return;
+		}
+		playHand(playerID, cards, HandClassifier.compose(playerList.get(playerID), cards));
+	}
+	
+	/**
+	 * A method for passing the turn of the current player to the next player.
+	 */
+	private void passTurn() {
+		tracker.update(currentIdx, CardSet.EMPTY);
+		fireGameMessage("{Pass}");
+		nextTurn();
+	}
+	
+	/**
+	 * A method for telling the listeners that a move is not legal. Every
+	 * client checks the moves of all players, but only the one who made
+	 * the move is told it was rejected.
+	 * @param playerID id of the player making the move
+	 * @param reason the reason the move is not legal
+	 */
+	private void rejectMove(int playerID, String reason) {
+		if (playerID != this.playerID) {
+			fireGameMessage(reason);
+			return;
+		}
+		for (BigTwoClientListener listener : listeners) {
+			listener.moveRejected(reason);
+		}
+	}
+	
+	/**
+	 * A method for playing a legal hand: the cards are removed from the
+	 * player's hand and put on the table, and either the game ends or the
+	 * turn passes to the next player.
+	 * @param playerID id of the player making the move
+	 * @param selectedCards cards of the hand
+	 * @param composedHand the hand to be played
+	 */
+	private void playHand(int playerID, long selectedCards, Hand composedHand) {
+		removeCards(playerID, selectedCards);
 		handsOnTable.add(composedHand);
-		printTurn(composedHand, true);
+		tracker.update(playerID, selectedCards);
+		fireGameMessage("{" + composedHand.getType() + "} " + composedHand.toString());
 		
 		if (endOfGame()) {
 			String messageDialogBox = "";
 			messageDialogBox += "Game ends\n";
 			for (int i = 0; i < 4; i++) {
 				CardGamePlayer tempPlayer = playerList.get(i);
-				if (tempPlayer.getNumOfCards() == 0) {
+				if (numOfCards[i] == 0) {
 					messageDialogBox = messageDialogBox + tempPlayer.getName() + " wins the game.\n";
 					continue;
 				}
-				messageDialogBox = messageDialogBox + tempPlayer.getName() + " has " + tempPlayer.getNumOfCards() + " in hand.\n";
+				messageDialogBox = messageDialogBox + tempPlayer.getName() + " has " + numOfCards[i] + " in hand.\n";
+			}
+			for (BigTwoClientListener listener : listeners) {
+				listener.gameEnded(messageDialogBox);
 			}
-			table.resetSelected();
-			table.repaint();			
-			
-			JFrame frameEndOfGame = new JFrame();			
-			JOptionPane.showMessageDialog(frameEndOfGame, messageDialogBox);
 			CardGameMessage endOfGameMessage = new CardGameMessage(CardGameMessage.READY, -1, null);
 			sendMessage(endOfGameMessage);
 
 		}
 		else {
-			currentIdx = (currentIdx + 1) % 4;	
-			table.setActivePlayer(currentIdx);
-			if (currentIdx == this.playerID) {
-				table.printMsg("Your turn:");
-				table.enable();
-			}
-			else {
-				table.printMsg(playerList.get(currentIdx).getName() + "'s turn:");					
-				table.disable();
-			}
-			table.resetSelected();
-			table.repaint();
+			nextTurn();
 		}
 	}
 	
 	/**
-	 * A method for printing turn to the right console
-	 * @param composedHand
+	 * A method for giving the turn to the next player.
 	 */
-	private void printTurn(Hand composedHand, boolean isValid) {
-		if (isValid) {
-			String msg = "{" + composedHand.getType() + "} " + composedHand.toString();
-			table.printMsg(msg);
+	private void nextTurn() {
+		currentIdx = (currentIdx + 1) % 4;	
+		fireTurnChanged();
+	}
+	
+	/**
+	 * A method for telling the listeners whose turn it is.
+	 */
+	private void fireTurnChanged() {
+		if (currentIdx == this.playerID) {
+			fireGameMessage("Your turn:");
 		}
 		else {
-			String msg = "Not a legal move!!";
-			table.printMsg(msg);
+			fireGameMessage(playerList.get(currentIdx).getName() + "'s turn:");					
+		}
+		for (BigTwoClientListener listener : listeners) {
+			listener.turnChanged(currentIdx, currentIdx == this.playerID);
+		}
+	}
+	
+	/**
+	 * A method for sending a message about the game to the listeners.
+	 * @param msg message to be shown
+	 */
+	private void fireGameMessage(String msg) {
+		for (BigTwoClientListener listener : listeners) {
+			listener.gameMessage(msg);
+		}
+	}
+	
+	/**
+	 * A method for telling the listeners that the players or their cards
+	 * have changed outside a turn.
+	 */
+	private void fireStateChanged() {
+		for (BigTwoClientListener listener : listeners) {
+			listener.stateChanged();
 		}
 	}
 	
@@ -412,7 +675,7 @@ public class BigTwoClient implements CardGame, NetworkGame{
 		if (lastHandOnTable == null) {
 			return false;
 		}
-		else if (lastHandOnTable.getPlayer().getCardsInHand().isEmpty()) {
+		else if (numOfCards[playerList.indexOf(lastHandOnTable.getPlayer())] == 0) {
 				return true;
 		}
 		return false;
@@ -440,20 +703,88 @@ public class BigTwoClient implements CardGame, NetworkGame{
 		
 		currentIdx = divideCards();
 		sortPlayersCards();
+		startTracker(CardSet.EMPTY);
+		showGameStart();
+	}
+	
+	/**
+	 * A method for starting the game with only the local player's hand,
+	 * as dealt by a server speaking version PRIVATE_DEAL of the protocol.
+	 * The hands of the other players are hidden and only their sizes are known.
+	 * @param snapshot the local player's view of the newly dealt game
+	 */
+	public void start(BigTwoSnapshot snapshot) {
+		for (int i = 0; i < 4; i++) {
+			playerList.get(i).removeAllCards();
+			handMasks[i] = CardSet.EMPTY;
+			numOfCards[i] = snapshot.getNumOfCards(i);
+		}
+		handsOnTable.clear();
 		
-		table.disable();
-		table.setActivePlayer(currentIdx);
-		table.reset();		
-		table.printMsg("All players are ready. Game starts.");
-		if (currentIdx == this.playerID) {
-			table.printMsg("Your turn:");
-			table.enable();
+		handMasks[snapshot.getPlayerID()] = snapshot.getHand();
+		CardSet.addTo(snapshot.getHand(), playerList.get(snapshot.getPlayerID()));
+		if (snapshot.getLastHandPlayer() >= 0) {
+			CardGamePlayer lastHandPlayer = playerList.get(snapshot.getLastHandPlayer());
+			handsOnTable.add(HandClassifier.compose(lastHandPlayer, snapshot.getLastHand()));
 		}
-		else {
-			table.printMsg(playerList.get(currentIdx).getName() + "'s turn:");					
-			table.disable();
+		currentIdx = snapshot.getCurrentIdx();
+		startTracker(CardSet.EMPTY);
+		showGameStart();
+	}
+	
+	/**
+	 * A method for showing a state of a game with every hand open, e.g. a
+	 * move of a replay (see GameReplay). The local player takes no part in
+	 * the game shown.
+	 * @param playerNames the name of the player in each seat, "" if empty
+	 * @param state the state of the game
+	 */
+	public void show(String[] playerNames, BigTwoGameState state) {
+		playerID = -1;
+		for (int i = 0; i < 4; i++) {
+			CardGamePlayer player = playerList.get(i);
+			player.setName(playerNames[i].isEmpty() ? "" : playerNames[i]);
+			player.removeAllCards();
+			handMasks[i] = state.getHand(i);
+			numOfCards[i] = state.getNumOfCards(i);
+			CardSet.addTo(handMasks[i], player);
+		}
+		handsOnTable.clear();
+		if (state.getLastHandPlayer() >= 0) {
+			CardGamePlayer lastHandPlayer = playerList.get(state.getLastHandPlayer());
+			handsOnTable.add(HandClassifier.compose(lastHandPlayer, state.getLastHand()));
+		}
+		currentIdx = state.getCurrentIdx();
+		long playedCards = CardSet.ALL;
+		for (int i = 0; i < 4; i++) {
+			playedCards &= ~handMasks[i];
+		}
+		startTracker(playedCards);
+		fireStateChanged();
+	}
+
+	/**
+	 * A method for starting to track the cards of a game from the local
+	 * player's point of view, with the last hand on table counted as played.
+	 * @param playedCards the cards known to have been played before the last hand
+	 */
+	private void startTracker(long playedCards) {
+		Hand lastHandOnTable = handsOnTable.isEmpty() ? null : handsOnTable.get(handsOnTable.size() - 1);
+		tracker.start(playerID, (playerID >= 0) ? handMasks[playerID] : CardSet.EMPTY, playedCards,
+				(lastHandOnTable == null) ? CardSet.EMPTY : CardSet.of(lastHandOnTable),
+				(lastHandOnTable == null) ? -1 : playerList.indexOf(lastHandOnTable.getPlayer()));
+	}
+	
+	/**
+	 * A method for showing a newly started game on the table and telling
+	 * the players whose turn it is.
+	 */
+	private void showGameStart() {
+		for (BigTwoClientListener listener : listeners) {
+			listener.gameStarted(currentIdx);
 		}
-		table.repaint();
+		fireGameMessage(isResumed ? "The game continues." : "All players are ready. Game starts.");
+		fireTurnChanged();
 	}
 	
 	@Override
@@ -470,7 +801,15 @@ public class BigTwoClient implements CardGame, NetworkGame{
 	}
 	@Override
 	public void setPlayerName(String playerName) {
-		this.playerName = playerName;
+		synchronized (this) {
+			this.playerName = playerName;
+			isNameEntered = true;
+			if (!isJoinPending) {
+				return;
+			}
+			isJoinPending = false;
+		}
+		sendMessage(new CardGameMessage(CardGameMessage.JOIN, -1, playerName));
 	}
 	@Override
 	public String getServerIP() {
@@ -488,18 +827,132 @@ public class BigTwoClient implements CardGame, NetworkGame{
 	public void setServerPort(int serverPort) {
 		this.serverPort = serverPort;
 	}
+	/**
+	 * A method for sending a chat message to the other players.
+	 * @param msg chat message to be sent
+	 */
+	public void sendChatMessage(String msg) {
+		sendMessage(new CardGameMessage(CardGameMessage.MSG, -1, msg));
+	}
+	
+	/**
+	 * A method for checking whether the game is connected to the server.
+	 * @return true if connected, otherwise false
+	 */
+	public boolean isConnected() {
+		return sock != null && !sock.isClosed();
+	}
+	
+	/**
+	 * A method for closing the connection to the server. The other
+	 * players are told that the local player has left, and the session
+	 * is not resumed.
+	 */
+	public void disconnect() {
+		String token = sessionToken;
+		sessionToken = null;
+		if (token != null) {
+			sendMessage(new CardGameMessage(BigTwoMessage.TABLE_LEAVE, -1, null));
+		}
+		closeSocket();
+	}
+	
+	/**
+	 * A method for closing the socket without leaving the table, as when
+	 * the connection is lost.
+	 */
+	private void closeSocket() {
+		try {
+			if (sock != null) {
+				sock.close();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
 	@Override
 	public void makeConnection() {
+		boolean isConnected;
+		synchronized (connectionLock) {
+			if (readerThread != null) {
+				// connected, or the reading thread is resuming the session; it must stay the only producer of events
+				return;
+			}
+			isConnected = connect(false);
+		}
+		if (!isConnected) {
+			runOnEventThread(() -> {
+				fireGameMessage("Cannot connect to server at " + serverIP + ":" + serverPort);
+				for (BigTwoClientListener listener : listeners) {
+					listener.disconnected();
+				}
+			});
+		}
+	}
+	
+	/**
+	 * A method for connecting to the server and starting the thread
+	 * reading from it, which then owns the connection. It must be called
+	 * with connectionLock held.
+	 * @param isLobby whether the client will pick its table itself instead
+	 *            of being seated at the first free seat
+	 * @return true if connected, otherwise false
+	 */
+	private boolean connect(boolean isLobby) {
 		try {
-			sock = new Socket("127.0.0.1", 2396);	
-			oos = new ObjectOutputStream(sock.getOutputStream());
-			table.printMsg("Connected to server at /127.0.0.1:2396");
-			Thread readerThread = new Thread(new ServerHandler());
+			sock = new Socket(serverIP, serverPort);	
+			PushbackInputStream pushbackIn = new PushbackInputStream(new BufferedInputStream(sock.getInputStream()), 4);
+			out = new BufferedOutputStream(sock.getOutputStream());
+			protocolVersion = CardGameMessageCodec.clientHandshake(pushbackIn, out, isLobby);
+			in = pushbackIn;
+			if (protocolVersion == CardGameMessageCodec.SERIALIZATION) {
+				oos = new ObjectOutputStream(sock.getOutputStream());
+			}
+			StartupTrace.mark("connected to server");
+			readerThread = READER_THREADS.newThread(new ServerHandler());
 			readerThread.start();
-		} catch (Exception ex) {
-			ex.printStackTrace();
-		}		
-
+			return true;
+		} catch (IOException ex) {
+			return false;
+		}
+	}
+	
+	/**
+	 * A method for resuming the session after the connection has been
+	 * lost, run by the thread that was reading from it. The server is
+	 * asked to RESUME the session from a new connection, which is tried
+	 * again after a growing delay for up to RESUME_TIMEOUT_MILLIS. If the
+	 * seat is no longer held, the server seats the local player as if it
+	 * had just connected.
+	 * @param token the token of the session
+	 */
+	private void resumeSession(String token) {
+		long deadline = System.currentTimeMillis() + RESUME_TIMEOUT_MILLIS;
+		long delay = 250;
+		while (token.equals(sessionToken) && System.currentTimeMillis() < deadline) {
+			try {
+				Thread.sleep(delay);
+			} catch (InterruptedException e) {
+				return;
+			}
+			synchronized (connectionLock) {
+				if (!token.equals(sessionToken)) {
+					return;
+				}
+				if (connect(true)) {
+					// the new reading thread owns the connection from now on
+					if (protocolVersion >= CardGameMessageCodec.RESUMABLE) {
+						sendMessage(new CardGameMessage(BigTwoMessage.RESUME, -1, token));
+						return;
+					}
+					closeSocket();
+					break;
+				}
+			}
+			delay = Math.min(2 * delay, MAX_RESUME_DELAY_MILLIS);
+		}
+		runOnEventThread(() -> fireGameMessage("Cannot resume the game at " + serverIP + ":" + serverPort));
 	}
 	@Override
 	public void parseMessage(GameMessage message) {
@@ -510,7 +963,19 @@ public class BigTwoClient implements CardGame, NetworkGame{
 			case CardGameMessage.MOVE:
 				int movingPlayerID = message.getPlayerID();
 				int[] selectedIndices = (int[]) message.getData();
-				checkMove(movingPlayerID, selectedIndices);
+				if (protocolVersion >= CardGameMessageCodec.PRIVATE_DEAL) {
+					applyCards(movingPlayerID, CardGameMessageCodec.indicesToMask(selectedIndices));
+				}
+				else if (protocolVersion >= CardGameMessageCodec.AUTHORITATIVE) {
+					applyMove(movingPlayerID, selectedIndices);
+				}
+				else {
+					checkMove(movingPlayerID, selectedIndices);
+				}
+				break;
+				
+			case BigTwoMessage.REJECT:
+				rejectMove(this.playerID, (String) message.getData());
 				break;
 				
 			case CardGameMessage.PLAYER_LIST:
@@ -524,10 +989,22 @@ public class BigTwoClient implements CardGame, NetworkGame{
 						playerList.get(i).setName(playerNames[i]);
 					}
 				}
+				if (isResumed) {
+					// the local player is still at the table under its name
+					fireStateChanged();
+					break;
+				}
 
-				// Send join message
-				CardGameMessage joinMessage = new CardGameMessage(CardGameMessage.JOIN, -1, playerName);
-				sendMessage(joinMessage);
+				// Send join message, or leave it to setPlayerName() if the name is still being entered
+				boolean canJoin;
+				synchronized (this) {
+					canJoin = isNameEntered;
+					isJoinPending = !canJoin;
+				}
+				if (canJoin) {
+					CardGameMessage joinMessage = new CardGameMessage(CardGameMessage.JOIN, -1, playerName);
+					sendMessage(joinMessage);
+				}
 
 				break;
 				
@@ -541,45 +1018,77 @@ public class BigTwoClient implements CardGame, NetworkGame{
 					sendMessage(readyMessage);
 				}
 				else {
-					table.printMsg(joiningPlayerName + " joins the game.");					
+					fireGameMessage(joiningPlayerName + " joins the game.");					
 				}
 				break;
 				
 			case CardGameMessage.FULL:
-				table.printMsg("Server is full, cannot join the game.");
+				fireGameMessage("Server is full, cannot join the game.");
 				break;
 				
 			case CardGameMessage.QUIT:
 				int quittingPlayerID = message.getPlayerID();
 				String quittingPlayerName = playerList.get(quittingPlayerID).getName();
-				table.printMsg(quittingPlayerName + " leaves the game.");
+				fireGameMessage(quittingPlayerName + " leaves the game.");
 				playerList.get(quittingPlayerID).setName("");
 				for (int i = 0; i < 4; i++) {
 					if (playerList.get(i).getName() != null && playerList.get(i).getName() != "") {
-						table.printMsg(playerList.get(i).getName() + " is ready.");
+						fireGameMessage(playerList.get(i).getName() + " is ready.");
 					}
 					playerList.get(i).removeAllCards();
+					handMasks[i] = CardSet.EMPTY;
+					numOfCards[i] = 0;
 				}
 				
 				CardGameMessage readyMessage = new CardGameMessage(CardGameMessage.READY, -1, null);
 				sendMessage(readyMessage);
-				table.repaint();
+				fireStateChanged();
 				break;
 				
 			case CardGameMessage.READY:
 				int readyPlayerID = message.getPlayerID();
-				table.printMsg(playerList.get(readyPlayerID).getName() + " is ready.");
-				table.repaint();
+				fireGameMessage(playerList.get(readyPlayerID).getName() + " is ready.");
+				fireStateChanged();
 				break;
 			
 			case CardGameMessage.START:
 				BigTwoDeck playedDeck = (BigTwoDeck) message.getData();
 				start(playedDeck);
 				break;
+				
+			case BigTwoMessage.DEAL:
+				start((BigTwoSnapshot) message.getData());
+				break;
+				
+			case BigTwoMessage.SESSION:
+				sessionToken = (String) message.getData();
+				break;
+				
+			case BigTwoMessage.RESUME:
+				isResumed = true;
+				fireGameMessage("Reconnected to server. Your seat has been kept.");
+				break;
+				
+			case BigTwoMessage.AWAY:
+				String awayPlayerName = playerList.get(message.getPlayerID()).getName();
+				fireGameMessage(awayPlayerName + " has lost the connection. The seat is kept for "
+						+ message.getData() + " seconds.");
+				break;
+				
+			case BigTwoMessage.BACK:
+				if (message.getPlayerID() == playerID) {
+					isResumed = false;
+				}
+				else {
+					fireGameMessage(playerList.get(message.getPlayerID()).getName() + " is back.");
+				}
+				break;
 			
 			case CardGameMessage.MSG:
 				String chatMsg = (String) message.getData();
-				table.printChatMsg(chatMsg);
+				for (BigTwoClientListener listener : listeners) {
+					listener.chatMessage(chatMsg);
+				}
 				break;
 			
 		}
@@ -587,16 +1096,62 @@ public class BigTwoClient implements CardGame, NetworkGame{
 
 	
 	@Override
-	public void sendMessage(GameMessage message) {
+	public synchronized void sendMessage(GameMessage message) {
+		if (!isConnected()) {
+			return;
+		}
 		try {
-			oos.writeObject(message);			
+			if (protocolVersion == CardGameMessageCodec.SERIALIZATION) {
+				oos.writeObject(message);
+			}
+			else {
+				out.write(CardGameMessageCodec.encode(message));
+				out.flush();
+			}
 		} catch (Exception e) {
-			e.printStackTrace();
+			if (isConnected()) {
+				// not just a message racing disconnect()
+				e.printStackTrace();
+			}
 		}
 		
 	}
 
 	
+	/**
+	 * A method run on the event thread for applying the events queued by
+	 * the reading thread, up to MAX_EVENT_BATCH at a time. The listeners
+	 * mark what has changed as they are called and repaint once after the
+	 * batch, instead of once per message.
+	 */
+	private void drainEvents() {
+		isDrainScheduled.set(false);
+		events.drain(event -> {
+			try {
+				event.run();
+			} catch (RuntimeException ex) {
+				ex.printStackTrace();
+			}
+		}, MAX_EVENT_BATCH);
+		if (!events.isEmpty() && isDrainScheduled.compareAndSet(false, true)) {
+			eventExecutor.execute(this::drainEvents);
+		}
+	}
+	
+	/**
+	 * A method for running an event on the event thread, if any, from a
+	 * thread other than the reading thread.
+	 */
+	private void runOnEventThread(Runnable event) {
+		Executor executor = eventExecutor;
+		if (executor == null) {
+			event.run();
+		}
+		else {
+			executor.execute(event);
+		}
+	}
+	
 	public class ServerHandler implements Runnable{
 		private ObjectInputStream ois;
 		
@@ -604,14 +1159,65 @@ public class BigTwoClient implements CardGame, NetworkGame{
 		public void run() {
 			CardGameMessage message;
 			try {
-			ois = new ObjectInputStream(sock.getInputStream());
+				String address = "" + sock.getRemoteSocketAddress();
+				post(() -> fireGameMessage("Connected to server at " + address));
+				if (protocolVersion != CardGameMessageCodec.SERIALIZATION) {
+					while (true) {
+						GameMessage decoded = CardGameMessageCodec.read(in);
+						post(() -> parseMessage(decoded));
+					}
+				}
+				ois = new ObjectInputStream(in);
 				while ((message = (CardGameMessage) ois.readObject()) != null) {
 					System.out.println("read " + message);
-					parseMessage(message);
+					CardGameMessage decoded = message;
+					post(() -> parseMessage(decoded));
 				}
+			} catch (IOException ex) {
+				// the connection has been closed
 			} catch (Exception ex) {
 				ex.printStackTrace();
 			}
+			closeSocket();
+			String token = sessionToken;
+			try {
+				post(() -> {
+					for (BigTwoClientListener listener : listeners) {
+						listener.disconnected();
+					}
+				});
+				if (token != null && protocolVersion >= CardGameMessageCodec.RESUMABLE) {
+					resumeSession(token);
+				}
+			} catch (InterruptedException ex) {
+				// the client is shutting down
+			} finally {
+				synchronized (connectionLock) {
+					if (readerThread == Thread.currentThread()) {
+						readerThread = null;
+					}
+				}
+			}
+		}
+		
+		/**
+		 * A method for applying an event: at once without an event executor,
+		 * or else by queueing it and making sure a batch will be run.
+		 */
+		private void post(Runnable event) throws InterruptedException {
+			if (readerThread != Thread.currentThread()) {
+				// only the thread owning the connection produces events
+				return;
+			}
+			Executor executor = eventExecutor;
+			if (executor == null) {
+				event.run();
+				return;
+			}
+			events.put(event);
+			if (isDrainScheduled.compareAndSet(false, true)) {
+				executor.execute(BigTwoClient.this::drainEvents);
+			}
 		}
 	}
 }
@@ -0,0 +1,64 @@
+/**
+ * The BigTwoClientListener interface receives the events of a BigTwoClient:
+ * what happens in the game and at the table. BigTwoTable is the listener
+ * that shows them in a window; bots, load generators and tests can listen
+ * to a client without any display.
+ * <p>
+ * The methods are called on the thread reading from the server, one at a
+ * time and in the order the events happen.
+ * @author michael
+ *
+ */
+public interface BigTwoClientListener {
+	/**
+	 * A method called for a message about the game, e.g. a hand played or
+	 * a player joining.
+	 * @param msg message to be shown
+	 */
+	void gameMessage(String msg);
+
+	/**
+	 * A method called for a chat message from a player.
+	 * @param msg chat message
+	 */
+	void chatMessage(String msg);
+
+	/**
+	 * A method called when a game starts, before the first turn.
+	 * @param currentIdx index of the player who moves first
+	 */
+	void gameStarted(int currentIdx);
+
+	/**
+	 * A method called when the turn passes to a player, including the
+	 * first turn of a game.
+	 * @param currentIdx index of the current player
+	 * @param isLocalTurn whether the current player is the local player
+	 */
+	void turnChanged(int currentIdx, boolean isLocalTurn);
+
+	/**
+	 * A method called when a move of the local player is not legal. It
+	 * is still the local player's turn.
+	 * @param reason the reason the move is not legal
+	 */
+	void moveRejected(String reason);
+
+	/**
+	 * A method called when the players or their cards have changed
+	 * outside a turn, e.g. a player has joined, is ready or has left.
+	 */
+	void stateChanged();
+
+	/**
+	 * A method called when a game has ended. The local player is made
+	 * ready for the next game when the method returns.
+	 * @param result the result of the game, one line per player
+	 */
+	void gameEnded(String result);
+
+	/**
+	 * A method called when the connection to the server has been lost.
+	 */
+	void disconnected();
+}
@@ -0,0 +1,441 @@
+import java.io.IOException;
+import java.security.SecureRandom;
+
+/**
+ * The BigTwoGameRoom class models one Big Two table on the server: the
+ * four seats, the names of the players and whether they are ready. It
+ * follows the protocol of CardGameServer: a joining client gets a
+ * PLAYER_LIST, and JOIN, READY, MOVE, MSG and QUIT are broadcast to
+ * everyone at the table. A shuffled deck is broadcast in a START once
+ * all four players are ready.
+ * <p>
+ * The room owns the state of the game (see BigTwoGameState). Every MOVE
+ * is validated once here: a legal move is broadcast, and an illegal one
+ * is answered with a REJECT to its player only. Players speaking version
+ * PRIVATE_DEAL of the protocol are dealt only their own hand, and are
+ * told the cards of each move instead of their positions in a hand.
+ * <p>
+ * A room with a GameJournal records every deal, accepted move and end of
+ * a game in it before telling the players, and can be restored from the
+ * journal after a crash (see restore()). A room with a ReplayArchive
+ * records the replay of every game and appends it to the archive when the
+ * game ends, whether finished or abandoned.
+ * <p>
+ * Players speaking version RESUMABLE of the protocol are given a session
+ * token when seated. If such a player loses the connection in the middle
+ * of a game, the seat is held (see hold()) and the game waits, until the
+ * player resumes the session from a new connection (see resume()) or the
+ * seat is given up (see expire()).
+ * <p>
+ * A room is not thread-safe. All calls for a room must be made from
+ * the thread of the transport that owns it.
+ * @author michael
+ *
+ */
+public class BigTwoGameRoom {
+	public static final int NUM_OF_PLAYERS = 4;		// number of seats at a table
+
+	private BigTwoServer server;					// the server for creating decks
+	private ClientConnection[] connections;			// the connection of the player in each seat, or null if empty
+	private String[] playerNames;					// the name of the player in each seat, or null if empty
+	private boolean[] ready;						// whether the player in each seat is ready
+	private BigTwoGameState state;					// the state of the game being played, or null if none
+	private String tableId;							// the id of the table in the journal
+	private GameJournal journal;					// the journal of the games, or null if not journaled
+	private ReplayArchive archive;					// the archive of the replays of the games, or null if not archived
+	private GameReplay replay;						// the replay of the game being played, or null if not archived
+	private String[] sessions;						// the session token of the player in each seat, or null if none
+	private boolean[] isAway;						// whether the seat is held for a player who has lost the connection
+
+	private static final SecureRandom RANDOM = new SecureRandom();	// creates the session tokens
+
+	/**
+	 * Creates and returns an instance of the BigTwoGameRoom class.
+	 * @param server the server for creating decks
+	 */
+	public BigTwoGameRoom(BigTwoServer server) {
+		this(server, null, null);
+	}
+
+	/**
+	 * Creates and returns an instance of the BigTwoGameRoom class that
+	 * records its games in a journal.
+	 * @param server the server for creating decks
+	 * @param tableId the id of the table in the journal
+	 * @param journal the journal of the games, or null if not journaled
+	 */
+	public BigTwoGameRoom(BigTwoServer server, String tableId, GameJournal journal) {
+		this.server = server;
+		this.tableId = tableId;
+		this.journal = journal;
+		connections = new ClientConnection[NUM_OF_PLAYERS];
+		playerNames = new String[NUM_OF_PLAYERS];
+		ready = new boolean[NUM_OF_PLAYERS];
+		sessions = new String[NUM_OF_PLAYERS];
+		isAway = new boolean[NUM_OF_PLAYERS];
+	}
+
+	/**
+	 * A method for restoring a game that had not ended when the server
+	 * stopped. Every seat is held for the session of its player, who gets
+	 * the game back with resume(); the names of the players and the state
+	 * of the game are those in the journal, which gets the game again so
+	 * that the old journal segments are no longer needed. Only a game
+	 * whose players can all resume (see RecoveredGame.isResumable()) may
+	 * be restored.
+	 * @param game the game recovered from the journal
+	 */
+	public void restore(GameJournal.RecoveredGame game) {
+		String[] names = game.getPlayerNames();
+		String[] tokens = game.getSessions();
+		for (int i = 0; i < NUM_OF_PLAYERS; i++) {
+			playerNames[i] = (i >= names.length || names[i].isEmpty()) ? null : names[i];
+			sessions[i] = tokens[i];
+			isAway[i] = true;
+		}
+		state = game.toState();
+		if (archive != null) {
+			replay = game.toReplay();
+		}
+		if (journal != null) {
+			journal.start(tableId, game.toDeck(server.createDeck()), playerNames, sessions);
+			game.forEachMove(journal, tableId);
+		}
+	}
+
+	/**
+	 * A method for setting the archive the replays of the games are
+	 * appended to. It must be set before a game starts or is restored.
+	 * @param archive the archive of the replays, or null if not archived
+	 */
+	public void setArchive(ReplayArchive archive) {
+		this.archive = archive;
+	}
+
+	/**
+	 * A method for getting the state of the game being played.
+	 * @return the state of the game, or null if none
+	 */
+	public BigTwoGameState getState() {
+		return state;
+	}
+
+	/**
+	 * A method for checking whether the room has an empty seat.
+	 * @return true if the room has an empty seat, otherwise false
+	 */
+	public boolean hasEmptySeat() {
+		return findEmptySeat() >= 0;
+	}
+
+	/**
+	 * A method for checking whether the room has no players, neither
+	 * seated nor with a seat held.
+	 * @return true if every seat is empty, otherwise false
+	 */
+	public boolean isEmpty() {
+		for (int i = 0; i < NUM_OF_PLAYERS; i++) {
+			if (connections[i] != null || isAway[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * A method for getting the seat of a client.
+	 * @param connection connection of the client
+	 * @return the seat of the client, or -1 if the client is not in this room
+	 */
+	public int seatOf(ClientConnection connection) {
+		for (int i = 0; i < NUM_OF_PLAYERS; i++) {
+			if (connections[i] == connection) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * A method for seating a newly connected client. The client is sent
+	 * the PLAYER_LIST, or FULL if there is no empty seat.
+	 * @param connection connection of the client
+	 * @return the seat (playerID) of the client, or -1 if the room is full
+	 */
+	public int join(ClientConnection connection) {
+		int seat = findEmptySeat();
+		if (seat < 0) {
+			connection.send(new CardGameMessage(CardGameMessage.FULL, -1, null));
+			return -1;
+		}
+		connections[seat] = connection;
+		connection.send(new CardGameMessage(CardGameMessage.PLAYER_LIST, seat, playerNames.clone()));
+		if (connection.getProtocolVersion() >= CardGameMessageCodec.RESUMABLE) {
+			sessions[seat] = Long.toHexString(RANDOM.nextLong()) + Long.toHexString(RANDOM.nextLong());
+			connection.send(new CardGameMessage(BigTwoMessage.SESSION, seat, sessions[seat]));
+		}
+		return seat;
+	}
+
+	/**
+	 * A method for holding the seat of a player whose connection has been
+	 * lost, if the player can resume the session and a game is in progress.
+	 * The other players are sent an AWAY.
+	 * @param seat seat of the player
+	 * @param graceSeconds number of seconds the seat will be held
+	 * @return the session token of the seat, or null if the seat is not held
+	 */
+	public String hold(int seat, int graceSeconds) {
+		if (state == null || sessions[seat] == null || isAway[seat]) {
+			return null;
+		}
+		isAway[seat] = true;
+		CardGameMessage awayMessage = new CardGameMessage(BigTwoMessage.AWAY, seat, Integer.toString(graceSeconds));
+		for (int i = 0; i < NUM_OF_PLAYERS; i++) {
+			if (i != seat && connections[i] != null
+					&& connections[i].getProtocolVersion() >= CardGameMessageCodec.RESUMABLE) {
+				connections[i].send(awayMessage);
+			}
+		}
+		return sessions[seat];
+	}
+
+	/**
+	 * A method for seating a client back at the seat held for its session.
+	 * The client is sent the RESUME back, the PLAYER_LIST and a DEAL with
+	 * its view of the game in progress; a player resuming between games is
+	 * made ready, as every client gets ready when a game ends. Everyone is
+	 * then sent a BACK.
+	 * @param token the session token of the client
+	 * @param connection the new connection of the client
+	 * @return the seat of the client, or -1 if no seat is held for the session
+	 */
+	public int resume(String token, ClientConnection connection) {
+		int seat = seatOfSession(token);
+		if (seat < 0 || !isAway[seat]) {
+			return -1;
+		}
+		connections[seat] = connection;
+		isAway[seat] = false;
+		connection.send(new CardGameMessage(BigTwoMessage.RESUME, seat, token));
+		connection.send(new CardGameMessage(CardGameMessage.PLAYER_LIST, seat, playerNames.clone()));
+		if (state != null) {
+			connection.send(new CardGameMessage(BigTwoMessage.DEAL, seat, state.snapshot(seat)));
+		}
+		CardGameMessage backMessage = new CardGameMessage(BigTwoMessage.BACK, seat, null);
+		for (int i = 0; i < NUM_OF_PLAYERS; i++) {
+			if (connections[i] != null && connections[i].getProtocolVersion() >= CardGameMessageCodec.RESUMABLE) {
+				connections[i].send(backMessage);
+			}
+		}
+		if (state == null) {
+			receive(seat, new CardGameMessage(CardGameMessage.READY, seat, null));
+		}
+		return seat;
+	}
+
+	/**
+	 * A method for giving up the seat held for a session whose grace period
+	 * is over. The player leaves as if the seat had not been held.
+	 * @param token the session token of the seat
+	 * @return true if the seat was held and has been given up, otherwise false
+	 */
+	public boolean expire(String token) {
+		int seat = seatOfSession(token);
+		if (seat < 0 || !isAway[seat]) {
+			return false;
+		}
+		leave(seat);
+		return true;
+	}
+
+	/**
+	 * A method for checking whether a seat is held for a player who has
+	 * lost the connection.
+	 * @param seat the seat
+	 * @return true if the seat is held, otherwise false
+	 */
+	public boolean isAway(int seat) {
+		return isAway[seat];
+	}
+
+	/**
+	 * A method for getting the seat of a session.
+	 * @param token the session token
+	 * @return the seat, or -1 if no player at the table has the session
+	 */
+	public int seatOfSession(String token) {
+		for (int i = 0; i < NUM_OF_PLAYERS; i++) {
+			if (sessions[i] != null && sessions[i].equals(token)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * A method for handling a message received from the player in a seat.
+	 * @param seat seat of the player
+	 * @param message message received
+	 */
+	public void receive(int seat, CardGameMessage message) {
+		switch (message.getType()) {
+			case CardGameMessage.JOIN:
+				playerNames[seat] = (String) message.getData();
+				broadcast(new CardGameMessage(CardGameMessage.JOIN, seat, playerNames[seat]));
+				break;
+
+			case CardGameMessage.READY:
+				ready[seat] = true;
+				broadcast(new CardGameMessage(CardGameMessage.READY, seat, null));
+				if (isAllReady() && state == null) {
+					for (int i = 0; i < NUM_OF_PLAYERS; i++) {
+						ready[i] = false;
+					}
+					Deck deck = server.createDeck();
+					deck.shuffle();
+					long[] hands = BigTwoGameState.deal(deck);
+					state = new BigTwoGameState(hands);
+					if (journal != null) {
+						journal.start(tableId, deck, playerNames, sessions);
+					}
+					if (archive != null) {
+						replay = new GameReplay(playerNames, hands);
+					}
+					CardGameMessage startMessage = new CardGameMessage(CardGameMessage.START, -1, deck);
+					for (int i = 0; i < NUM_OF_PLAYERS; i++) {
+						if (connections[i].getProtocolVersion() >= CardGameMessageCodec.PRIVATE_DEAL) {
+							connections[i].send(new CardGameMessage(BigTwoMessage.DEAL, i, state.snapshot(i)));
+						}
+						else {
+							connections[i].send(startMessage);
+						}
+					}
+				}
+				break;
+
+			case CardGameMessage.MOVE:
+				move(seat, (int[]) message.getData());
+				break;
+
+			case CardGameMessage.MSG:
+				String chatMsg = playerNames[seat] + " (" + connections[seat].getAddress() + "): " + message.getData();
+				broadcast(new CardGameMessage(CardGameMessage.MSG, seat, chatMsg));
+				break;
+
+			default:
+				break;
+		}
+	}
+
+	/**
+	 * A method for validating and playing a move. The cards are given by
+	 * their indices in the player's sorted hand, as sent by BigTwoClient.
+	 * @param seat seat of the player making the move
+	 * @param cardIdx indices of the cards played, empty to pass
+	 */
+	private void move(int seat, int[] cardIdx) {
+		int result = BigTwoGameState.GAME_OVER;
+		long cards = -1L;
+		if (state != null && cardIdx != null) {
+			cards = CardSet.select(state.getHand(seat), cardIdx);
+			result = (cards == -1L) ? BigTwoGameState.INVALID_HAND : state.play(seat, cards);
+		}
+		if (result != BigTwoGameState.ACCEPTED) {
+			connections[seat].send(new CardGameMessage(BigTwoMessage.REJECT, seat, BigTwoGameState.describe(result)));
+			return;
+		}
+		if (journal != null) {
+			journal.move(tableId, seat, cards);
+			if (state.isGameOver()) {
+				journal.end(tableId);
+			}
+		}
+		if (replay != null) {
+			replay.addMove(seat, cards);
+			if (state.isGameOver()) {
+				archiveReplay();
+			}
+		}
+		CardGameMessage indicesMessage = new CardGameMessage(CardGameMessage.MOVE, seat, cardIdx);
+		CardGameMessage cardsMessage = new CardGameMessage(CardGameMessage.MOVE, seat,
+				CardGameMessageCodec.maskToIndices(cards));
+		for (int i = 0; i < NUM_OF_PLAYERS; i++) {
+			if (connections[i] == null) {
+				continue;
+			}
+			boolean isPrivate = connections[i].getProtocolVersion() >= CardGameMessageCodec.PRIVATE_DEAL;
+			connections[i].send(isPrivate ? cardsMessage : indicesMessage);
+		}
+		if (state.isGameOver()) {
+			state = null;
+		}
+	}
+
+	/**
+	 * A method for removing the player in a seat after his/her connection
+	 * is closed. The other players are sent a QUIT and have to get ready again.
+	 * @param seat seat of the player
+	 */
+	public void leave(int seat) {
+		String address = (connections[seat] == null) ? "" : connections[seat].getAddress();	// none for a restored seat
+		connections[seat] = null;
+		playerNames[seat] = null;
+		sessions[seat] = null;
+		isAway[seat] = false;
+		if (state != null && journal != null) {
+			journal.end(tableId);
+		}
+		archiveReplay();
+		state = null;
+		for (int i = 0; i < NUM_OF_PLAYERS; i++) {
+			ready[i] = false;
+		}
+		broadcast(new CardGameMessage(CardGameMessage.QUIT, seat, address));
+	}
+
+	/**
+	 * A method for sending a message to every player in the room.
+	 * @param message message to be sent
+	 */
+	public void broadcast(CardGameMessage message) {
+		for (int i = 0; i < NUM_OF_PLAYERS; i++) {
+			if (connections[i] != null) {
+				connections[i].send(message);
+			}
+		}
+	}
+
+	/**
+	 * A method for appending the replay of the game that has ended to the
+	 * archive, if it is being recorded.
+	 */
+	private void archiveReplay() {
+		if (replay != null) {
+			try {
+				archive.append(replay);
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			replay = null;
+		}
+	}
+
+	private int findEmptySeat() {
+		for (int i = 0; i < NUM_OF_PLAYERS; i++) {
+			if (connections[i] == null && !isAway[i]) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private boolean isAllReady() {
+		for (int i = 0; i < NUM_OF_PLAYERS; i++) {
+			if (connections[i] == null || !ready[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,280 @@
+/**
+ * The BigTwoGameState class models the state of one Big Two game using
+ * CardSet bitmasks: the hand of each player, whose turn it is and the
+ * last hand played. It enforces the rules that BigTwoClient.checkMove
+ * applies on the client, so that the server, bots and simulations can
+ * validate and play moves without any Card, CardList or Hand objects.
+ * @author michael
+ *
+ */
+public class BigTwoGameState {
+	public static final int NUM_OF_PLAYERS = 4;					// number of players in a game
+
+	public static final int ACCEPTED = 0;						// the move is legal and has been played
+	public static final int NOT_YOUR_TURN = 1;					// it is not the player's turn
+	public static final int INVALID_HAND = 2;					// the cards do not form a valid hand
+	public static final int MISSING_THREE_OF_DIAMONDS = 3;		// the first hand of the game lacks the 3 of Diamonds
+	public static final int CANNOT_BEAT = 4;					// the hand does not beat the last hand on table
+	public static final int CANNOT_PASS = 5;					// the player starts a new round and cannot pass
+	public static final int GAME_OVER = 6;						// the game has ended
+
+	private long[] hands;					// the cards in each player's hand
+	private int currentIdx;					// the index of the current player
+	private long lastHand;					// the cards of the last hand on table, or 0 if none
+	private int lastHandStrength;			// the HandClassifier strength of the last hand on table
+	private int lastHandPlayer;				// the index of the player of the last hand on table, or -1 if none
+	private int numOfMoves;					// the number of moves (plays and passes) made so far
+
+	/**
+	 * Creates and returns an instance of the BigTwoGameState class for a
+	 * newly dealt game. The player holding the 3 of Diamonds starts.
+	 * @param hands the cards dealt to each player
+	 */
+	public BigTwoGameState(long[] hands) {
+		this.hands = hands.clone();
+		lastHandPlayer = -1;
+		for (int i = 0; i < NUM_OF_PLAYERS; i++) {
+			if ((hands[i] & CardSet.THREE_OF_DIAMONDS) != 0) {
+				currentIdx = i;
+			}
+		}
+	}
+
+	/**
+	 * Creates and returns an instance of the BigTwoGameState class for a
+	 * game in progress, e.g. from a keyframe of a GameReplay.
+	 * @param hands the cards in each player's hand
+	 * @param currentIdx index of the current player
+	 * @param lastHand cards of the last hand on table, or 0 if none
+	 * @param lastHandPlayer index of the player of the last hand on table, or -1 if none
+	 * @param numOfMoves number of moves made so far
+	 */
+	public BigTwoGameState(long[] hands, int currentIdx, long lastHand, int lastHandPlayer, int numOfMoves) {
+		this.hands = hands.clone();
+		this.currentIdx = currentIdx;
+		this.lastHand = lastHand;
+		this.lastHandStrength = (lastHand == 0) ? 0 : HandClassifier.classify(lastHand);
+		this.lastHandPlayer = lastHandPlayer;
+		this.numOfMoves = numOfMoves;
+	}
+
+	/**
+	 * Creates and returns a copy of a BigTwoGameState.
+	 * @param other the state to copy
+	 */
+	public BigTwoGameState(BigTwoGameState other) {
+		hands = other.hands.clone();
+		currentIdx = other.currentIdx;
+		lastHand = other.lastHand;
+		lastHandStrength = other.lastHandStrength;
+		lastHandPlayer = other.lastHandPlayer;
+		numOfMoves = other.numOfMoves;
+	}
+
+	/**
+	 * A method for dealing a deck the way BigTwoClient does: 13 consecutive
+	 * cards of the deck to each player in turn.
+	 * @param deck shuffled deck of 52 cards
+	 * @return the cards dealt to each player
+	 */
+	public static long[] deal(Deck deck) {
+		long[] hands = new long[NUM_OF_PLAYERS];
+		for (int i = 0; i < NUM_OF_PLAYERS; i++) {
+			for (int j = 0; j < 13; j++) {
+				hands[i] |= CardSet.of(deck.getCard(j + i * 13));
+			}
+		}
+		return hands;
+	}
+
+	/**
+	 * A method for getting the cards in a player's hand.
+	 * @param playerIdx index of the player
+	 * @return the cards in the player's hand
+	 */
+	public long getHand(int playerIdx) {
+		return hands[playerIdx];
+	}
+
+	/**
+	 * A method for getting the number of cards in a player's hand.
+	 * @param playerIdx index of the player
+	 * @return the number of cards in the player's hand
+	 */
+	public int getNumOfCards(int playerIdx) {
+		return Long.bitCount(hands[playerIdx]);
+	}
+
+	/**
+	 * A method for getting the index of the current player.
+	 * @return index of the current player
+	 */
+	public int getCurrentIdx() {
+		return currentIdx;
+	}
+
+	/**
+	 * A method for getting the cards of the last hand on table.
+	 * @return the cards of the last hand on table, or 0 if none has been played
+	 */
+	public long getLastHand() {
+		return lastHand;
+	}
+
+	/**
+	 * A method for getting the strength of the last hand on table.
+	 * @return HandClassifier strength of the last hand on table
+	 */
+	public int getLastHandStrength() {
+		return lastHandStrength;
+	}
+
+	/**
+	 * A method for getting the player of the last hand on table.
+	 * @return index of the player, or -1 if no hand has been played
+	 */
+	public int getLastHandPlayer() {
+		return lastHandPlayer;
+	}
+
+	/**
+	 * A method for getting the number of moves made so far.
+	 * @return number of plays and passes made
+	 */
+	public int getNumOfMoves() {
+		return numOfMoves;
+	}
+
+	/**
+	 * A method for checking whether the current player starts a new round,
+	 * i.e. may play any hand and may not pass.
+	 * @return true if the current player starts a new round, otherwise false
+	 */
+	public boolean isNewRound() {
+		return lastHandPlayer < 0 || lastHandPlayer == currentIdx;
+	}
+
+	/**
+	 * A method for checking whether the game has ended.
+	 * @return true if a player has no cards left, otherwise false
+	 */
+	public boolean isGameOver() {
+		return lastHandPlayer >= 0 && hands[lastHandPlayer] == 0;
+	}
+
+	/**
+	 * A method for checking a move without playing it.
+	 * @param playerIdx index of the player making the move
+	 * @param cards cards to be played, or 0 to pass
+	 * @return ACCEPTED if the move is legal, otherwise the reason it is not
+	 */
+	public int check(int playerIdx, long cards) {
+		if (isGameOver()) {
+			return GAME_OVER;
+		}
+		if (playerIdx != currentIdx) {
+			return NOT_YOUR_TURN;
+		}
+		if (cards == 0) {
+			return isNewRound() ? CANNOT_PASS : ACCEPTED;
+		}
+		if ((hands[playerIdx] & cards) != cards) {
+			return INVALID_HAND;
+		}
+		int strength = HandClassifier.classify(cards);
+		if (strength == HandClassifier.INVALID) {
+			return INVALID_HAND;
+		}
+		if (lastHandPlayer < 0 && (cards & CardSet.THREE_OF_DIAMONDS) == 0) {
+			return MISSING_THREE_OF_DIAMONDS;
+		}
+		if (!isNewRound() && !HandClassifier.beats(strength, lastHandStrength)) {
+			return CANNOT_BEAT;
+		}
+		return ACCEPTED;
+	}
+
+	/**
+	 * A method for listing the hands the current player may play (see
+	 * MoveGenerator); passing is allowed too unless isNewRound().
+	 * @param moves array to be filled with the hands, of at least MoveGenerator.MAX_MOVES elements
+	 * @return the number of hands, or 0 if the game has ended
+	 */
+	public int generateMoves(long[] moves) {
+		if (isGameOver()) {
+			return 0;
+		}
+		long required = (lastHandPlayer < 0) ? CardSet.THREE_OF_DIAMONDS : 0;
+		return MoveGenerator.generate(hands[currentIdx], isNewRound() ? 0 : lastHand, required, moves);
+	}
+
+	/**
+	 * A method for making a move if it is legal.
+	 * @param playerIdx index of the player making the move
+	 * @param cards cards to be played, or 0 to pass
+	 * @return ACCEPTED if the move has been played, otherwise the reason it is not legal
+	 */
+	public int play(int playerIdx, long cards) {
+		int result = check(playerIdx, cards);
+		if (result == ACCEPTED) {
+			apply(playerIdx, cards);
+		}
+		return result;
+	}
+
+	/**
+	 * A method for making a move that is known to be legal, e.g. one that
+	 * has been accepted by the server.
+	 * @param playerIdx index of the player making the move
+	 * @param cards cards to be played, or 0 to pass
+	 */
+	public void apply(int playerIdx, long cards) {
+		if (cards != 0) {
+			hands[playerIdx] &= ~cards;
+			lastHand = cards;
+			lastHandStrength = HandClassifier.classify(cards);
+			lastHandPlayer = playerIdx;
+		}
+		numOfMoves++;
+		if (!isGameOver()) {
+			currentIdx = (playerIdx + 1) % NUM_OF_PLAYERS;
+		}
+	}
+
+	/**
+	 * A method for getting what a player is allowed to know about the game.
+	 * @param playerIdx index of the player
+	 * @return a snapshot with the player's own hand and the sizes of all hands
+	 */
+	public BigTwoSnapshot snapshot(int playerIdx) {
+		int[] numOfCards = new int[NUM_OF_PLAYERS];
+		for (int i = 0; i < NUM_OF_PLAYERS; i++) {
+			numOfCards[i] = getNumOfCards(i);
+		}
+		return new BigTwoSnapshot(playerIdx, hands[playerIdx], numOfCards, currentIdx, lastHand, lastHandPlayer);
+	}
+
+	/**
+	 * A method for describing the result of a move to a player.
+	 * @param result result returned by check() or play()
+	 * @return a message for the player
+	 */
+	public static String describe(int result) {
+		switch (result) {
+			case ACCEPTED:
+				return "OK";
+			case NOT_YOUR_TURN:
+				return "It is not your turn.";
+			case MISSING_THREE_OF_DIAMONDS:
+				return "The first hand must contain the 3 of Diamonds.";
+			case CANNOT_BEAT:
+				return "The hand does not beat the last hand on table.";
+			case CANNOT_PASS:
+				return "You cannot pass when starting a new round.";
+			case GAME_OVER:
+				return "The game has ended.";
+			default:
+				return "Not a legal move!!";
+		}
+	}
+}
@@ -0,0 +1,78 @@
+/**
+ * The BigTwoMessage class defines the message types that the Big Two
+ * server adds to the CardGameMessage protocol. They are only used over
+ * the binary protocol (see CardGameMessageCodec), and their values are
+ * kept clear of the types defined by CardGameMessage.
+ * @author michael
+ *
+ */
+public final class BigTwoMessage {
+	/**
+	 * Sent by a client to open a new table and take a seat at it. The
+	 * server answers with TABLE_INFO followed by the PLAYER_LIST.
+	 */
+	public static final int TABLE_CREATE = 100;
+
+	/**
+	 * Sent by a client to take a seat at the table whose id is the data.
+	 * The server answers with TABLE_INFO and the PLAYER_LIST, or with FULL.
+	 */
+	public static final int TABLE_JOIN = 101;
+
+	/**
+	 * Sent by a client to leave its table. The other players get a QUIT.
+	 */
+	public static final int TABLE_LEAVE = 102;
+
+	/**
+	 * Sent by the server to tell a client the id (the data) of its table.
+	 */
+	public static final int TABLE_INFO = 103;
+
+	/**
+	 * Sent by the server to a player whose MOVE was not legal. The data is
+	 * the reason, for showing to the player.
+	 */
+	public static final int REJECT = 104;
+
+	/**
+	 * Sent by the server in place of START to a client speaking version
+	 * PRIVATE_DEAL of the protocol. The data is a BigTwoSnapshot with only
+	 * the player's own hand.
+	 */
+	public static final int DEAL = 105;
+
+	/**
+	 * Sent by the server to a client speaking version RESUMABLE of the
+	 * protocol once it has a seat. The data is the token of its session,
+	 * with which it can take the seat back if its connection is lost.
+	 */
+	public static final int SESSION = 106;
+
+	/**
+	 * Sent by a client that has lost its connection, in place of being
+	 * seated at the first free table, with the token of its session as the
+	 * data. If the seat is still held, the server sends it back as an
+	 * acknowledgement, followed by the PLAYER_LIST, a DEAL with the game
+	 * in progress, if any, and a BACK; otherwise the client is seated as
+	 * if it had just connected.
+	 */
+	public static final int RESUME = 107;
+
+	/**
+	 * Sent by the server when the player in a seat (the playerID) has lost
+	 * the connection in the middle of a game. The seat is held for the
+	 * number of seconds in the data, after which the others get a QUIT.
+	 */
+	public static final int AWAY = 108;
+
+	/**
+	 * Sent by the server when the player in a seat (the playerID) has
+	 * resumed the session, to the player too as the last message of the
+	 * resume.
+	 */
+	public static final int BACK = 109;
+
+	private BigTwoMessage() {
+	}
+}
@@ -1,3 +1,7 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
 /**
  * This class is used to model a Big Two card game server.
  * @author Kenneth Wong
@@ -23,15 +27,84 @@ public class BigTwoServer extends CardGameServer {
 	 * main() method for starting the server.
 	 * 
 	 * @param args
-	 *            the port to be used by the server. The default port 5000 will
-	 *            be used if no arguments has been supplied
+	 *            the port to be used by the server. The default port 2396 will
+	 *            be used if no port has been supplied. With the option --nio,
+	 *            the non-blocking transport (NioGameServer) is used instead of
+	 *            CardGameServer, --tables N sets how many tables it hosts and
+	 *            --loops N sets how many event loops run them (one per core
+	 *            by default). With the option --blocking, the
+	 *            thread-per-connection transport (BlockingGameServer) is
+	 *            used, on virtual threads where supported unless
+	 *            --platform-threads is given. With --journal DIR, the
+	 *            games of either transport are journaled in DIR (see
+	 *            GameJournal), and the games that had not ended are
+	 *            restored from it at start-up. With --archive FILE, the
+	 *            replay of every game of either transport is appended to
+	 *            FILE (see ReplayArchive) for BigTwoClient --replay. With
+	 *            --grace S, the seat of a player who loses the connection in
+	 *            the middle of a game is held for S seconds (30 by default,
+	 *            0 to give it up at once) for the player to resume
+	 * @throws IOException if the non-blocking or blocking transport, the
+	 *             journal or the archive cannot be started
 	 */
-	public static void main(String[] args) {
+	public static void main(String[] args) throws IOException {
 		BigTwoServer server = new BigTwoServer();
-		if (args.length > 0) {
-			server.start(Integer.parseInt(args[0]));
+		int port = 2396;
+		boolean useNio = false;
+		boolean useBlocking = false;
+		boolean useVirtual = true;
+		int maxTables = 1;
+		int numOfLoops = Runtime.getRuntime().availableProcessors();
+		File journalDir = null;
+		File archiveFile = null;
+		int graceSeconds = TableHost.DEFAULT_GRACE_SECONDS;
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--nio")) {
+				useNio = true;
+			} else if (args[i].equals("--blocking")) {
+				useBlocking = true;
+			} else if (args[i].equals("--platform-threads")) {
+				useVirtual = false;
+			} else if (args[i].equals("--tables") && i + 1 < args.length) {
+				maxTables = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--loops") && i + 1 < args.length) {
+				numOfLoops = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("--journal") && i + 1 < args.length) {
+				journalDir = new File(args[++i]);
+			} else if (args[i].equals("--archive") && i + 1 < args.length) {
+				archiveFile = new File(args[++i]);
+			} else if (args[i].equals("--grace") && i + 1 < args.length) {
+				graceSeconds = Integer.parseInt(args[++i]);
+			} else {
+				port = Integer.parseInt(args[i]);
+			}
+		}
+		TableHost host = null;
+		if (useNio || useBlocking) {
+			GameJournal journal = null;
+			ReplayArchive archive = (archiveFile != null) ? new ReplayArchive(archiveFile) : null;
+			if (journalDir != null) {
+				long startTime = System.nanoTime();
+				Map<String, GameJournal.RecoveredGame> games = GameJournal.recover(journalDir);
+				journal = new GameJournal(journalDir);
+				host = new TableHost(server, numOfLoops, maxTables, journal);
+				host.setArchive(archive);
+				host.setGracePeriod(graceSeconds);
+				int numOfRecovered = host.recover(games);
+				System.out.printf("Recovered %d games from %s in %.1f ms%n", numOfRecovered, journalDir,
+						(System.nanoTime() - startTime) / 1e6);
+			} else {
+				host = new TableHost(server, numOfLoops, maxTables);
+				host.setArchive(archive);
+				host.setGracePeriod(graceSeconds);
+			}
+		}
+		if (useNio) {
+			new NioGameServer(host).start(port);
+		} else if (useBlocking) {
+			new BlockingGameServer(host, useVirtual).start(port);
 		} else {
-			server.start(2396);
+			server.start(port);
 		}
 	} // main
 }
@@ -0,0 +1,85 @@
+/**
+ * The BigTwoSnapshot class holds what one player is allowed to know about
+ * a game in progress: his/her own hand, the number of cards held by every
+ * player, whose turn it is and the last hand on table. It is sent by the
+ * server in place of the whole deck, so that no client learns the hands
+ * of the other players.
+ * @author michael
+ *
+ */
+public class BigTwoSnapshot {
+	private int playerID;			// the index of the player the snapshot is for
+	private long hand;				// the cards in the player's hand
+	private int[] numOfCards;		// the number of cards held by each player
+	private int currentIdx;			// the index of the current player
+	private long lastHand;			// the cards of the last hand on table, or 0 if none
+	private int lastHandPlayer;		// the index of the player of the last hand on table, or -1 if none
+
+	/**
+	 * Creates and returns an instance of the BigTwoSnapshot class.
+	 * @param playerID the index of the player the snapshot is for
+	 * @param hand the cards in the player's hand
+	 * @param numOfCards the number of cards held by each player
+	 * @param currentIdx the index of the current player
+	 * @param lastHand the cards of the last hand on table, or 0 if none
+	 * @param lastHandPlayer the index of the player of the last hand on table, or -1 if none
+	 */
+	public BigTwoSnapshot(int playerID, long hand, int[] numOfCards, int currentIdx, long lastHand,
+			int lastHandPlayer) {
+		this.playerID = playerID;
+		this.hand = hand;
+		this.numOfCards = numOfCards;
+		this.currentIdx = currentIdx;
+		this.lastHand = lastHand;
+		this.lastHandPlayer = lastHandPlayer;
+	}
+
+	/**
+	 * A method for getting the index of the player the snapshot is for.
+	 * @return index of the player
+	 */
+	public int getPlayerID() {
+		return playerID;
+	}
+
+	/**
+	 * A method for getting the cards in the player's hand.
+	 * @return the cards in the player's hand
+	 */
+	public long getHand() {
+		return hand;
+	}
+
+	/**
+	 * A method for getting the number of cards held by a player.
+	 * @param playerIdx index of the player
+	 * @return the number of cards held by the player
+	 */
+	public int getNumOfCards(int playerIdx) {
+		return numOfCards[playerIdx];
+	}
+
+	/**
+	 * A method for getting the index of the current player.
+	 * @return index of the current player
+	 */
+	public int getCurrentIdx() {
+		return currentIdx;
+	}
+
+	/**
+	 * A method for getting the cards of the last hand on table.
+	 * @return the cards of the last hand on table, or 0 if none
+	 */
+	public long getLastHand() {
+		return lastHand;
+	}
+
+	/**
+	 * A method for getting the player of the last hand on table.
+	 * @return index of the player, or -1 if none
+	 */
+	public int getLastHandPlayer() {
+		return lastHandPlayer;
+	}
+}
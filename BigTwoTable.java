@@ -1,15 +1,21 @@
 import javax.swing.*;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import java.awt.BorderLayout;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
 import java.awt.GridBagConstraints;
+import java.awt.Rectangle;
 import java.awt.event.*;
-import java.awt.image.ImageObserver;
-import java.awt.Image;
+import java.awt.image.BufferedImage;
 
 
 /**
@@ -19,94 +25,42 @@ import java.awt.Image;
 /**
  * The BigTwoTable class implements the CardGameTable
  * interface. It is used to build a GUI for the Big Two
- * card game and handle all user actions.
+ * card game and handle all user actions. It shows the
+ * game as a listener of a BigTwoClient, or the games of a ReplayArchive
+ * in viewer mode (see showReplays()).
  * @author michael
  *
  */
-public class BigTwoTable implements CardGameTable {
+public class BigTwoTable implements CardGameTable, BigTwoClientListener {
+	private static final int HINT_CARDS = 20;			// number of cards left from which the endgame is hinted
+	private static final int HINT_DEALS = 32;			// maximum number of deals solved for an endgame hint
+	private static final long HINT_NODES = 1 << 22;		// maximum number of positions searched for an endgame hint
+	private static int maxLogLines = MessageLog.DEFAULT_MAX_LINES;	// the line cap of the message and chat message areas
+	
 	private BigTwoClient game;				// a card game associated with this table
 	private boolean[] selected;			// a boolean array indicating which cards are being selected
 	private int activePlayer;			// an integer specifying the index of the active player
 	private JFrame frame;				// the main window of the application
-	private JPanel bigTwoPanel;			// a panel for showing the cards of each player and the cards played on the table
+	private BigTwoPanel bigTwoPanel;	// a panel for showing the cards of each player and the cards played on the table
+	private boolean isInteractive;		// whether the local player may select cards and play
+	private boolean isViewer;			// whether the table shows replays, with every hand open
+	private JPanel bottomPanel;			// a panel for the buttons and the message field
 	private JButton playButton;			// a "Play" button for the active player to play the selected cards
 	private JButton passButton;			// a "Pass" button for the active player to pass his/her turn to the next player
+	private JCheckBox hintBox;			// a "Hints" check box for dimming the cards that cannot be played with the selected cards
+	private long[] legalHands = new long[MoveGenerator.MAX_MOVES];	// the hands the local player may play this turn
+	private int numOfLegalHands;		// the number of hands in legalHands
+	private long hintCards;				// the cards of the legal hands that contain the selected cards
+	private int hintTurn;				// counts the turns, so that an endgame hint found too late is dropped
+	private EndgameSolver solver;		// the solver of the endgame hints, used on the hint thread only
+	private ExecutorService hintThread;	// the thread solving the endgame hints
+	private SplittableRandom hintRandom;	// the source of the random deals of the endgame hints
 	private JTextArea msgArea;			// a text area for showing the current game status
 	private JTextArea chatMsgArea;      // a text area for showing the game messages by players 
 	private JTextField chatMsgField;	// a text field for receiving player's messages
-	private Image[][] cardImages;		// a 2D array storing the images for the faces of the cards
-	private Image cardBackImage;		// an image for the backs of the cards
-	private Image[] avatars;			// an array storing the images for the avatars
-	
+	private MessageLog msgLog;			// keeps the lines of the message area bounded
+	private MessageLog chatMsgLog;		// keeps the lines of the chat message area bounded
 	
-	/**
-	 * A method to assign images to avatars
-	 */
-	private void assignAvatars() {
-		avatars = new Image[4];
-		ImageIcon imageIcon0 = new ImageIcon("images/captain_america.jpg");
-		ImageIcon imageIcon1 = new ImageIcon("images/iron_man.jpg");
-		ImageIcon imageIcon2 = new ImageIcon("images/black_widow.jpg");
-		ImageIcon imageIcon3 = new ImageIcon("images/thor.jpg");
-		
-		Image scaledImage0 = imageIcon0.getImage().getScaledInstance(90, 90, Image.SCALE_SMOOTH);
-		Image scaledImage1 = imageIcon1.getImage().getScaledInstance(90, 90, Image.SCALE_SMOOTH);
-		Image scaledImage2 = imageIcon2.getImage().getScaledInstance(90, 90, Image.SCALE_SMOOTH);
-		Image scaledImage3 = imageIcon3.getImage().getScaledInstance(90, 90, Image.SCALE_SMOOTH);
-		
-		avatars[0] = scaledImage0;
-		avatars[1] = scaledImage1;
-		avatars[2] = scaledImage2;
-		avatars[3] = scaledImage3;
-	}
-	
-	/**
-	 * A method to assign images to card images
-	 */
-	private void assignCardImages() {
-		cardImages = new Image[4][13];
-		for (int i = 0; i < 4; i++) {
-			for (int j = 0; j < 13; j++) {
-				String suit = new String();
-				String rank = new String();
-				if (i == 0) {
-					suit = "d";
-				}
-				else if (i == 1) {
-					suit = "c";
-				}
-				else if (i == 2) {
-					suit = "h";
-				}
-				else if (i == 3) {
-					suit = "s";
-				}
-				
-				if (j == 0) {
-					rank = "a"; 
-				}
-				else if (j >= 1 && j <= 8) {
-					rank = Integer.toString(j+1);
-				}
-				else if (j == 9) {
-					rank = "t";
-				}
-				else if (j == 10) {
-					rank = "j";
-				}
-				else if (j == 11) {
-					rank = "q";
-				}
-				else if (j == 12) {
-					rank = "k";
-				}
-				
-				ImageIcon imageIcon = new ImageIcon("images/" + rank + suit + ".gif");
-				Image scaledImage = imageIcon.getImage().getScaledInstance(50, 70, Image.SCALE_SMOOTH);
-				cardImages[i][j] = scaledImage;
-			}
-		}		
-	}
 	
 	/**
 	 * A constructor for creating a BigTwoTable. The parameter
@@ -118,13 +72,6 @@ public class BigTwoTable implements CardGameTable {
 		frame = new JFrame();
 		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
 		
-		// Assign Images
-		assignAvatars();
-		assignCardImages();
-		ImageIcon cardBackImageIcon = new ImageIcon("images/b.gif");
-		Image scaledCardBackImage = cardBackImageIcon.getImage().getScaledInstance(50, 70, Image.SCALE_SMOOTH);
-		cardBackImage = scaledCardBackImage;
-		
 		// Set Menu Bar
 		JMenuBar menuBar = new JMenuBar();
 		JMenu gameMenu = new JMenu("Game");
@@ -138,14 +85,19 @@ public class BigTwoTable implements CardGameTable {
 		frame.setJMenuBar(menuBar);
 		
 		// Set Bottom Panel
-		JPanel bottomPanel = new JPanel();
+		bottomPanel = new JPanel();
 		JLabel messageFieldLabel = new JLabel("Message: ");
 		chatMsgField = new JTextField(20);
 		chatMsgField.addActionListener(new ChatMsgFieldListener());
 		playButton = new JButton("Play");
 		passButton = new JButton("Pass");
+		playButton.addActionListener(new PlayButtonListener());
+		passButton.addActionListener(new PassButtonListener());
 		bottomPanel.add(playButton);
 		bottomPanel.add(passButton);
+		hintBox = new JCheckBox("Hints");
+		hintBox.addActionListener(new HintBoxListener());
+		bottomPanel.add(hintBox);
 		bottomPanel.add(messageFieldLabel);
 		bottomPanel.add(chatMsgField);
 		frame.add(bottomPanel, BorderLayout.SOUTH);
@@ -159,21 +111,56 @@ public class BigTwoTable implements CardGameTable {
 		chatMsgArea = new JTextArea(6,27);
 		chatMsgArea.setLineWrap(true);
 		JScrollPane chatMsgAreaScroller = new JScrollPane(chatMsgArea);
+		msgLog = new MessageLog(msgArea, msgAreaScroller, maxLogLines);
+		chatMsgLog = new MessageLog(chatMsgArea, chatMsgAreaScroller, maxLogLines);
 		rightPanel.add(msgAreaScroller);
 		rightPanel.add(chatMsgAreaScroller);
 		frame.add(rightPanel, BorderLayout.EAST);	
 		
 
-//		// Set BigTwoPanel
-//		bigTwoPanel = new BigTwoPanel();
-//		frame.add(bigTwoPanel);
-//		
-//		bigTwoPanel.setSize(600, 700);
+		// Set BigTwoPanel, which lives as long as the table and only redraws what has changed
+		bigTwoPanel = new BigTwoPanel();
+		bigTwoPanel.addMouseListener(bigTwoPanel);
+		frame.add(bigTwoPanel);
+		disable();
 		
-		frame.setSize(800, 700);
+		frame.setSize(900, 700);
 		frame.setVisible(true);
 	}
 	
+	/**
+	 * A method for setting the line cap of the message and chat message
+	 * areas of the tables created afterwards. Older lines are kept in a
+	 * transcript on disk (see MessageLog).
+	 * @param maxLines maximum number of lines shown in each area
+	 */
+	public static void setMaxLogLines(int maxLines) {
+		maxLogLines = maxLines;
+	}
+	
+	/**
+	 * A method for switching the table to viewer mode, showing the games
+	 * of an archive with every hand open. The controls for playing and
+	 * chatting are replaced by a game spinner and a move slider, and the
+	 * first game is shown.
+	 * @param archive the archive of the replays to be shown
+	 */
+	public void showReplays(ReplayArchive archive) {
+		isViewer = true;
+		disable();
+		frame.remove(bottomPanel);
+		ReplayPanel replayPanel = new ReplayPanel(archive);
+		frame.add(replayPanel, BorderLayout.SOUTH);
+		frame.setTitle("Big Two Replays (" + archive.size() + " games)");
+		frame.validate();
+		if (archive.size() > 0) {
+			replayPanel.showGame(0);
+		}
+		else {
+			printMsg("No games have been archived.");
+		}
+	}
+	
 	/**
 	 * A method for setting the index of the active 
 	 * player (i.e., the current player).
@@ -188,6 +175,15 @@ public class BigTwoTable implements CardGameTable {
 	 * @return an array indices of the cards selected
 	 */
 	public int[] getSelected() {
+		return getSelected(selected);
+	}
+	
+	/**
+	 * A method for getting an array of indices of the cards selected.
+	 * @param selected whether each card in the hand is selected
+	 * @return an array indices of the cards selected
+	 */
+	static int[] getSelected(boolean[] selected) {
 		ArrayList<Integer> selectedIndices = new ArrayList<Integer>();
 	
 		for (int i = 0; i < selected.length; i++) {
@@ -209,27 +205,34 @@ public class BigTwoTable implements CardGameTable {
 	 * A method for resetting the list of selected cards.
 	 */
 	public void resetSelected() {
-		int currentPlayerNumOfCards = game.getPlayerList().get(activePlayer).getNumOfCards();
+		int currentPlayerNumOfCards = game.getNumOfCards(activePlayer);
 		selected = new boolean[currentPlayerNumOfCards];
 		for (int i = 0; i < currentPlayerNumOfCards; i++) {
 			selected[i] = false;
 		}
+		updateHints();
+	}
+	
+	/**
+	 * A method for working out which cards are hinted: those of the legal
+	 * hands (see MoveGenerator) that contain every selected card. It is
+	 * called whenever the selection changes, so the hints follow each click.
+	 */
+	private void updateHints() {
+		long selectedCards = CardSet.select(game.getHand(activePlayer), getSelected());
+		hintCards = CardSet.EMPTY;
+		for (int i = 0; i < numOfLegalHands; i++) {
+			if ((legalHands[i] & selectedCards) == selectedCards) {
+				hintCards |= legalHands[i];
+			}
+		}
 	}
 	
 	/**
 	 * A method for repainting the GUI
 	 */
 	public void repaint() {
-		frame.removeMouseListener((MouseListener) bigTwoPanel);
-		for (MouseListener ml : frame.getMouseListeners()) {
-			frame.removeMouseListener(ml);
-		}
-		bigTwoPanel = new BigTwoPanel();
-//		bigTwoPanel.setPreferredSize(new Dimension(600, 700));
-		frame.addMouseListener((MouseListener) bigTwoPanel);
-		frame.add(bigTwoPanel);
-		frame.setSize(900, 700);
-		frame.setVisible(true);
+		bigTwoPanel.repaintAll();
 	}
 	
 	/**
@@ -238,15 +241,14 @@ public class BigTwoTable implements CardGameTable {
 	 * @param msg string to be printed
 	 */
 	public void printMsg(String msg) {
-		msgArea.append(msg);
-		msgArea.append("\n");
+		msgLog.append(msg);
 	}
 	
 	/**
 	 * A method for clearing the message area of the GUI
 	 */
 	public void clearMsgArea() {
-		msgArea.setText("");
+		msgLog.clear();
 	}
 	
 	/**
@@ -255,15 +257,14 @@ public class BigTwoTable implements CardGameTable {
 	 * @param msg string to be printed
 	 */
 	public void printChatMsg(String msg) {
-		chatMsgArea.append(msg);
-		chatMsgArea.append("\n");
+		chatMsgLog.append(msg);
 	}
 	
 	/**
 	 * A method for clearing the c=hat message area of the GUI
 	 */
 	public void clearChatMsgArea() {
-		chatMsgArea.setText("");
+		chatMsgLog.clear();
 	}
 	
 	/**
@@ -282,17 +283,9 @@ public class BigTwoTable implements CardGameTable {
 	 * for selection of cards through mouse clicks
 	 */
 	public void enable() {
-		for (ActionListener al : playButton.getActionListeners()) {
-			playButton.removeActionListener(al);
-		}
-		for (ActionListener al : passButton.getActionListeners()) {
-			passButton.removeActionListener(al);
-		}
-		frame.removeMouseListener((MouseListener) bigTwoPanel);
-		
-		playButton.addActionListener(new PlayButtonListener());
-		passButton.addActionListener(new PassButtonListener());
-		frame.addMouseListener((MouseListener) bigTwoPanel);
+		playButton.setEnabled(true);
+		passButton.setEnabled(true);
+		isInteractive = true;
 		//TODO: PERLU ADD ACTION LISTENER BUAT CHATMSGAREA GAK?
 	}
 	
@@ -302,16 +295,176 @@ public class BigTwoTable implements CardGameTable {
 	 * for selection of cards through mouse clicks
 	 */
 	public void disable() {
-		for (ActionListener al : playButton.getActionListeners()) {
-			playButton.removeActionListener(al);
+		playButton.setEnabled(false);
+		passButton.setEnabled(false);
+		isInteractive = false;
+	
+		//TODO: PERLU REMOVE ACTION LISTENER BUAT CHATMSGAREA GAK?
+	}
+	
+	/**
+	 * A method for printing a message about the game to the message area.
+	 * @param msg message to be shown
+	 */
+	@Override
+	public void gameMessage(String msg) {
+		printMsg(msg);
+	}
+	
+	/**
+	 * A method for printing a chat message to the chat message area.
+	 * @param msg chat message
+	 */
+	@Override
+	public void chatMessage(String msg) {
+		printChatMsg(msg);
+	}
+	
+	/**
+	 * A method for resetting the GUI for a new game.
+	 * @param currentIdx index of the player who moves first
+	 */
+	@Override
+	public void gameStarted(int currentIdx) {
+		disable();
+		setActivePlayer(currentIdx);
+		reset();
+		repaint();
+	}
+	
+	/**
+	 * A method for showing the current player, and enabling user
+	 * interactions only if it is the local player.
+	 * @param currentIdx index of the current player
+	 * @param isLocalTurn whether the current player is the local player
+	 */
+	@Override
+	public void turnChanged(int currentIdx, boolean isLocalTurn) {
+		// only the rows of the player who moved and the player to move, and the last hand, change
+		bigTwoPanel.repaintRow(activePlayer);
+		setActivePlayer(currentIdx);
+		if (isLocalTurn) {
+			enable();
+		}
+		else {
+			disable();
 		}
-		for (ActionListener al : passButton.getActionListeners()) {
-			passButton.removeActionListener(al);
+		numOfLegalHands = isLocalTurn ? game.getLegalHands(legalHands) : 0;
+		resetSelected();
+		showBossHint();
+		showEndgameHint();
+		bigTwoPanel.repaintRow(currentIdx);
+		bigTwoPanel.repaintLastHand();
+	}
+	
+	/**
+	 * A method for pointing out, when hints are on, a hand the local player
+	 * may play that none of the other players can beat, going by the cards
+	 * kept count of by the CardTracker and the hands they have passed on.
+	 * The hand with the most cards is chosen, the weakest one if several.
+	 */
+	private void showBossHint() {
+		if (!hintBox.isSelected() || !isInteractive) {
+			return;
+		}
+		CardTracker tracker = game.getCardTracker();
+		long bossHand = CardSet.EMPTY;
+		for (int i = 0; i < numOfLegalHands; i++) {
+			long hand = legalHands[i];
+			int moreCards = Long.bitCount(hand) - Long.bitCount(bossHand);
+			if (moreCards < 0 || moreCards == 0 && HandClassifier.classify(hand) > HandClassifier.classify(bossHand)) {
+				continue;
+			}
+			if (!tracker.mayBeBeaten(hand)) {
+				bossHand = hand;
+			}
 		}
-		frame.removeMouseListener((MouseListener) bigTwoPanel);
+		if (bossHand != CardSet.EMPTY) {
+			printMsg("Hint: no one can beat " + CardSet.toString(bossHand)
+					+ (tracker.isBoss(bossHand) ? "." : ", going by the hands passed on."));
+		}
+	}
 
+	/**
+	 * A method for suggesting a move when hints are on and few cards are
+	 * left. The ways the unseen cards may be dealt are solved by an
+	 * EndgameSolver on another thread, and the move that wins in the most
+	 * deals is printed if it is still the local player's turn.
+	 */
+	private void showEndgameHint() {
+		final int turn = ++hintTurn;
+		if (!hintBox.isSelected() || !isInteractive) {
+			return;
+		}
+		final BigTwoSnapshot view = game.snapshot(activePlayer);
+		final long playedCards = game.getPlayedCards();
+		if (solver == null) {
+			solver = new EndgameSolver(HINT_CARDS, 18);
+			hintRandom = new SplittableRandom();
+			hintThread = Executors.newSingleThreadExecutor(r -> {
+				Thread thread = new Thread(r, "endgame-hint");
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		hintThread.execute(() -> {
+			if (!solver.canSolve(view)) {
+				return;
+			}
+			long move = solver.chooseMove(view, playedCards, HINT_DEALS, HINT_NODES, hintRandom);
+			int numOfWins = solver.getNumOfWins();
+			int numOfDeals = solver.getNumOfDeals();
+			SwingUtilities.invokeLater(() -> {
+				if (turn == hintTurn && numOfDeals > 0) {
+					printMsg("Hint: " + ((move == 0) ? "pass" : CardSet.toString(move)) + " wins in " + numOfWins
+							+ " of " + numOfDeals + " deals.");
+				}
+			});
+		});
+	}
 	
-		//TODO: PERLU REMOVE ACTION LISTENER BUAT CHATMSGAREA GAK?
+	/**
+	 * A method for printing why a move is not legal and clearing the
+	 * selected cards.
+	 * @param reason the reason the move is not legal
+	 */
+	@Override
+	public void moveRejected(String reason) {
+		printMsg(reason);
+		resetSelected();
+		bigTwoPanel.repaintRow(game.getPlayerID());
+	}
+	
+	/**
+	 * A method for repainting the GUI after the players have changed.
+	 */
+	@Override
+	public void stateChanged() {
+		repaint();
+	}
+	
+	/**
+	 * A method for showing the result of a game in a dialog box.
+	 * @param result the result of the game
+	 */
+	@Override
+	public void gameEnded(String result) {
+		resetSelected();
+		repaint();
+		// shown after the batch of events, whose messages keep being applied behind the dialog
+		SwingUtilities.invokeLater(() -> {
+			JFrame frameEndOfGame = new JFrame();
+			JOptionPane.showMessageDialog(frameEndOfGame, result);
+		});
+	}
+	
+	/**
+	 * A method for telling the user that the connection has been lost.
+	 */
+	@Override
+	public void disconnected() {
+		disable();
+		printMsg("Disconnected from server.");
 	}
 	
 	/**
@@ -320,14 +473,13 @@ public class BigTwoTable implements CardGameTable {
 	 * @param playerIdx index of the player of the avatar
 	 * @param x x-coordinate of where to draw the avatar
 	 * @param y y-coordinate of where to draw the avatar
-	 * @param observer the image observer
+	 * @param atlas the sprites to draw with
 	 */
-	private void drawAvatar(Graphics g, int playerIdx, int x, int y, ImageObserver observer) {
+	private void drawAvatar(Graphics g, int playerIdx, int x, int y, CardAtlas atlas) {
 		g.setColor(Color.BLACK);
 		String playerName = game.getPlayerList().get(playerIdx).getName();
 		g.drawString(playerName, x, y);
-		Image image = avatars[playerIdx];
-		g.drawImage(image, x, y+10, observer);
+		atlas.drawAvatar(g, playerIdx, x, y+10);
 
 	}
 
@@ -337,31 +489,33 @@ public class BigTwoTable implements CardGameTable {
 	 * @param playerIdx index of the player of the avatar
 	 * @param x x-coordinate of where to draw the avatar
 	 * @param y y-coordinate of where to draw the avatar
-	 * @param observer the image observer
+	 * @param atlas the sprites to draw with
 	 */
-	private void drawPlayerCards(Graphics g, int playerIdx, int x, int y, ImageObserver observer) {
+	private void drawPlayerCards(Graphics g, int playerIdx, int x, int y, CardAtlas atlas) {
 		CardList playerCards = game.getPlayerList().get(playerIdx).getCardsInHand();
 
-		if (playerIdx == game.getPlayerID()) {
+		if (playerIdx == game.getPlayerID() || isViewer) {
 			for (int i = 0; i < playerCards.size(); i++) {
 				int playerCardSuit = playerCards.getCard(i).getSuit();
 				int playerCardRank = playerCards.getCard(i).getRank();
 				if (this.activePlayer == game.getPlayerID()) {
-					if (selected[i]) {
-						g.drawImage(cardImages[playerCardSuit][playerCardRank], x+25*i, y-20, observer);
-					}
-					else {
-						g.drawImage(cardImages[playerCardSuit][playerCardRank], x+25*i, y, observer);
+					int cardY = selected[i] ? y-20 : y;
+					atlas.drawCard(g, playerCardSuit, playerCardRank, x+25*i, cardY);
+					if (isInteractive && hintBox.isSelected()
+							&& (hintCards & 1L << CardSet.bitIndex(playerCards.getCard(i))) == 0) {
+						// dim the card; the part under the next card is drawn over
+						g.setColor(new Color(0, 0, 0, 96));
+						g.fillRect(x+25*i, cardY, CardAtlas.CARD_WIDTH, CardAtlas.CARD_HEIGHT);
 					}
 				}
 				else {
-					g.drawImage(cardImages[playerCardSuit][playerCardRank], x+25*i, y, observer);
+					atlas.drawCard(g, playerCardSuit, playerCardRank, x+25*i, y);
 				}
 			}
 		}
 		else {
-			for (int i = 0; i < playerCards.size(); i++) {
-				g.drawImage(cardBackImage,  x+25*i,  y,  observer);
+			for (int i = 0; i < game.getNumOfCards(playerIdx); i++) {
+				atlas.drawBack(g, x+25*i, y);
 			}
 		}
 	}	
@@ -372,9 +526,9 @@ public class BigTwoTable implements CardGameTable {
 	 * @param playerIdx index of the player of the avatar
 	 * @param x x-coordinate of where to draw the avatar
 	 * @param y y-coordinate of where to draw the avatar
-	 * @param observer the image observer
+	 * @param atlas the sprites to draw with
 	 */
-	private void drawLastHand(Graphics g, Hand lastHandOnTable, int x, int y, ImageObserver observer) {
+	private void drawLastHand(Graphics g, Hand lastHandOnTable, int x, int y, CardAtlas atlas) {
 		if (lastHandOnTable == null) {
 			return;
 		}
@@ -388,7 +542,7 @@ public class BigTwoTable implements CardGameTable {
 			Card lastHandCard = lastHandOnTable.getCard(i);
 			int cardSuit = lastHandCard.getSuit();
 			int cardRank = lastHandCard.getRank();
-			g.drawImage(cardImages[cardSuit][cardRank], x + 25*i, y, observer);
+			atlas.drawCard(g, cardSuit, cardRank, x + 25*i, y);
 		}
 
 	}
@@ -400,41 +554,175 @@ public class BigTwoTable implements CardGameTable {
 	 * inherited from the JPanel class to draw the card game table. 
 	 * Implements the mouseClicked() method from the MouseListener
 	 * interface to handle mouse click events. 
+	 * <p>
+	 * The table is drawn into a back buffer that is kept between paints.
+	 * Only the regions marked dirty (a player's row or the last hand area)
+	 * are redrawn into it, and only those regions are copied to the screen.
+	 * On a HiDPI screen the back buffer has as many pixels as the screen
+	 * and is drawn with the CardAtlas for its scale. Until that atlas has
+	 * been loaded the table is drawn with placeholders, and it is redrawn
+	 * when the atlas is ready.
+	 * <p>
+	 * Marking a region dirty does not repaint it at once: the regions marked
+	 * by a batch of events are joined and repainted once after the batch.
 	 * @author michael
 	 *
 	 */
 	public class BigTwoPanel extends JPanel implements MouseListener{
+		public static final int TABLE_WIDTH = 600;		// width of the green table
+		public static final int TABLE_HEIGHT = 700;		// height of the green table
+		public static final int ROW_HEIGHT = 130;		// height of the row of each player
+		public static final int LAST_HAND_Y = 520;		// top of the last hand area, below the rows
+		
+		private BufferedImage backBuffer;				// the table as last drawn
+		private int pendingScale;						// the scale of the atlas being waited for, or 0 if none
+		private boolean isPainted;						// whether the table has been painted
+		private boolean[] isRowDirty;					// whether the row of each player must be redrawn
+		private boolean isLastHandDirty;				// whether the last hand area must be redrawn
+		private boolean isAllDirty;						// whether the whole table must be redrawn
+		private Rectangle pendingRepaint;				// the regions marked dirty and not yet repainted, or null
+		
+		/**
+		 * Creates and returns an instance of the BigTwoPanel class.
+		 */
+		public BigTwoPanel() {
+			isRowDirty = new boolean[4];
+			isAllDirty = true;
+		}
+		
+		/**
+		 * A method for redrawing the whole table.
+		 */
+		public void repaintAll() {
+			synchronized (this) {
+				isAllDirty = true;
+			}
+			requestRepaint(0, 0, Math.max(TABLE_WIDTH, getWidth()), Math.max(TABLE_HEIGHT, getHeight()));
+		}
+		
+		/**
+		 * A method for redrawing the row of a player: the avatar and the cards.
+		 * @param playerIdx index of the player
+		 */
+		public void repaintRow(int playerIdx) {
+			synchronized (this) {
+				isRowDirty[playerIdx] = true;
+			}
+			requestRepaint(0, playerIdx * ROW_HEIGHT, TABLE_WIDTH, ROW_HEIGHT);
+		}
+		
+		/**
+		 * A method for redrawing the last hand on table.
+		 */
+		public void repaintLastHand() {
+			synchronized (this) {
+				isLastHandDirty = true;
+			}
+			requestRepaint(0, LAST_HAND_Y, TABLE_WIDTH, TABLE_HEIGHT - LAST_HAND_Y);
+		}
+		
+		/**
+		 * A method for adding a region to the next repaint, which is run on
+		 * the Event Dispatch Thread after the events being applied now.
+		 */
+		private void requestRepaint(int x, int y, int width, int height) {
+			Rectangle region = new Rectangle(x, y, width, height);
+			boolean isFirst;
+			synchronized (this) {
+				isFirst = (pendingRepaint == null);
+				pendingRepaint = isFirst ? region : pendingRepaint.union(region);
+			}
+			if (isFirst) {
+				SwingUtilities.invokeLater(this::flushRepaint);
+			}
+		}
+		
+		private void flushRepaint() {
+			Rectangle region;
+			synchronized (this) {
+				region = pendingRepaint;
+				pendingRepaint = null;
+			}
+			repaint(region);
+		}
 		
 		/**
 		 * A method of BigTwoPanel class to the paint avatars, player's cards,
-		 * and last hand on table.
+		 * and last hand on table. The dirty regions are redrawn into the back
+		 * buffer, which is then copied to the screen within the clip.
 		 * @param g Graphics to be printed on
 		 */
 		@Override
 		public void paintComponent(Graphics g) {
-			super.paintComponent(g);
-			g.setColor(Color.GREEN);
-			g.fillRect(0, 0, 600, 700);
-//			drawAvatar(g, 0, 60, 20, this);
-//			drawAvatar(g, 1, 60, 150, this);
-//			drawAvatar(g, 2, 60, 280, this);
-//			drawAvatar(g, 3, 60, 410, this);
-//			drawPlayerCards(g, 0, 180, 40, this);
-//			drawPlayerCards(g, 1, 180, 170, this);
-//			drawPlayerCards(g, 2, 180, 300, this);
-//			drawPlayerCards(g, 3, 180, 430, this);
-//			
-
-			for (int i = 0; i < 4; i++) {
-				if (game.getPlayerList().get(i).getName() != ""){
-					drawAvatar(g, i, 60, 20+130*i, this);
-					drawPlayerCards(g, i, 180, 40+130*i, this);
+			if (getWidth() <= 0 || getHeight() <= 0) {
+				return;
+			}
+			boolean isAll;
+			boolean isLastHand;
+			boolean[] isRow = new boolean[4];
+			synchronized (this) {
+				isAll = isAllDirty;
+				isLastHand = isLastHandDirty;
+				for (int i = 0; i < 4; i++) {
+					isRow[i] = isRowDirty[i];
+					isRowDirty[i] = false;
 				}
+				isAllDirty = false;
+				isLastHandDirty = false;
 			}
-			Hand lastHandOnTable = (game.getHandsOnTable().isEmpty()) ? null : game.getHandsOnTable()
-					.get(game.getHandsOnTable().size() - 1);
-			drawLastHand(g, lastHandOnTable, 180, 520, this);			
-
+			int scale = CardAtlas.scaleOf(g);
+			int width = getWidth() * scale;
+			int height = getHeight() * scale;
+			if (backBuffer == null || backBuffer.getWidth() != width || backBuffer.getHeight() != height) {
+				GraphicsConfiguration config = getGraphicsConfiguration();
+				backBuffer = (config != null) ? config.createCompatibleImage(width, height)
+						: new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+				isAll = true;
+			}
+			
+			Graphics2D bg = backBuffer.createGraphics();
+			bg.scale(scale, scale);
+			CardAtlas atlas = CardAtlas.getIfLoaded(scale);
+			if (atlas.isPlaceholder() && pendingScale != scale) {
+				pendingScale = scale;
+				CardAtlas.loadAsync(scale).thenRun(() -> SwingUtilities.invokeLater(this::repaintAll));
+			}
+			else if (!atlas.isPlaceholder() && pendingScale != 0) {
+				pendingScale = 0;
+				StartupTrace.mark("table painted with images");
+			}
+			if (!isPainted) {
+				isPainted = true;
+				StartupTrace.mark(atlas.isPlaceholder() ? "table painted with placeholders" : "table painted with images");
+			}
+			try {
+				if (isAll) {
+					bg.setColor(getBackground());
+					bg.fillRect(0, 0, getWidth(), getHeight());
+				}
+				for (int i = 0; i < 4; i++) {
+					if (isAll || isRow[i]) {
+						bg.setClip(0, i * ROW_HEIGHT, TABLE_WIDTH, ROW_HEIGHT);
+						bg.setColor(Color.GREEN);
+						bg.fillRect(0, i * ROW_HEIGHT, TABLE_WIDTH, ROW_HEIGHT);
+						if (game.getPlayerList().get(i).getName() != ""){
+							drawAvatar(bg, i, 60, 20+ROW_HEIGHT*i, atlas);
+							drawPlayerCards(bg, i, 180, 40+ROW_HEIGHT*i, atlas);
+						}
+					}
+				}
+				if (isAll || isLastHand) {
+					bg.setClip(0, LAST_HAND_Y, TABLE_WIDTH, TABLE_HEIGHT - LAST_HAND_Y);
+					bg.setColor(Color.GREEN);
+					bg.fillRect(0, LAST_HAND_Y, TABLE_WIDTH, TABLE_HEIGHT - LAST_HAND_Y);
+					Hand lastHandOnTable = (game.getHandsOnTable().isEmpty()) ? null : game.getHandsOnTable()
+							.get(game.getHandsOnTable().size() - 1);
+					drawLastHand(bg, lastHandOnTable, 180, LAST_HAND_Y, atlas);
+				}
+			} finally {
+				bg.dispose();
+			}
+			g.drawImage(backBuffer, 0, 0, getWidth(), getHeight(), null);
 		}
 		
 		/**
@@ -447,8 +735,8 @@ public class BigTwoTable implements CardGameTable {
 		 * @param currentPlayerNumOfCards number of cards of the current player that is playing
 		 */
 		public void checkCardSelected(int x, int y, CardGamePlayer currentPlayer, int currentPlayerNumOfCards) {
-			x -= 190;
-			y = y - 75 - 20 - (activePlayer*130);
+			x -= 180;
+			y = y - 40 - 20 - (activePlayer*ROW_HEIGHT);
 			int cardIdx = x/25;
 			
 			if (cardIdx == currentPlayerNumOfCards) {
@@ -466,7 +754,8 @@ public class BigTwoTable implements CardGameTable {
 				else {
 					selected[cardIdx] = !selected[cardIdx];
 				}
-				repaint();
+				updateHints();
+				repaintRow(activePlayer);
 				return;
 			}
 			
@@ -485,7 +774,8 @@ public class BigTwoTable implements CardGameTable {
 			else {
 				selected[cardIdx] = !selected[cardIdx];
 			}
-			repaint();
+			updateHints();
+			repaintRow(activePlayer);
 		}
 		
 		
@@ -494,12 +784,15 @@ public class BigTwoTable implements CardGameTable {
 			// TODO Auto-generated method stub
 			int x = e.getX();
 			int y = e.getY();
+			if (!isInteractive) {
+				return;
+			}
 
 			CardGamePlayer currentPlayer = game.getPlayerList().get(activePlayer);
-			int currentPlayerNumOfCards = currentPlayer.getNumOfCards();
+			int currentPlayerNumOfCards = game.getNumOfCards(activePlayer);
 
-			if (y >= 75+(game.getPlayerID()*130) && y <= 165+(game.getPlayerID()*130)) {
-				if (x >= 190 && x <= 190+(25*(currentPlayerNumOfCards+1))) {
+			if (y >= 40+(game.getPlayerID()*ROW_HEIGHT) && y <= 130+(game.getPlayerID()*ROW_HEIGHT)) {
+				if (x >= 180 && x <= 180+(25*(currentPlayerNumOfCards+1))) {
 					checkCardSelected(x, y, currentPlayer, currentPlayerNumOfCards);
 				}
 			}
@@ -568,6 +861,25 @@ public class BigTwoTable implements CardGameTable {
 		}
 	}
 	
+	/**
+	 * An inner class that implements the ActionListener interface. 
+	 * Implements the actionPerformed() method from the ActionListener 
+	 * interface to handle clicks on the "Hints" check box, which turns
+	 * the dimming of the cards that cannot be played and the endgame
+	 * hints on or off.
+	 * @author michael
+	 *
+	 */
+	class HintBoxListener implements ActionListener{
+
+		@Override
+		public void actionPerformed(ActionEvent e) {
+			showBossHint();
+			showEndgameHint();
+			bigTwoPanel.repaintRow(game.getPlayerID());
+		}
+	}
+	
 	/**
 	 * An inner class that implements the ActionListener interface. 
 	 * Implements the actionPerformed() method from the ActionListener 
@@ -602,12 +914,95 @@ public class BigTwoTable implements CardGameTable {
 		}
 	}
 	
+	/**
+	 * An inner class that extends the JPanel class for the controls of
+	 * the viewer mode: a spinner choosing a game of the archive, and a
+	 * slider and buttons choosing a move of the game. Each move shown is
+	 * rebuilt by GameReplay.seek() from its nearest keyframe, so dragging
+	 * the slider over any game of any archive keeps up.
+	 * @author michael
+	 *
+	 */
+	class ReplayPanel extends JPanel {
+		private static final long serialVersionUID = 1L;
+		private ReplayArchive archive;		// the archive of the replays shown
+		private GameReplay replay;			// the replay of the game shown, or null if none
+		private JSpinner gameSpinner;		// the number of the game shown, from 1
+		private JSlider moveSlider;			// the number of moves made in the state shown
+		private JLabel moveLabel;			// a label describing the move shown
+		
+		/**
+		 * A constructor for creating the controls for an archive.
+		 * @param archive the archive of the replays shown
+		 */
+		public ReplayPanel(ReplayArchive archive) {
+			this.archive = archive;
+			gameSpinner = new JSpinner(new SpinnerNumberModel(1, 1, Math.max(1, archive.size()), 1));
+			gameSpinner.addChangeListener(e -> showGame((Integer) gameSpinner.getValue() - 1));
+			moveSlider = new JSlider(0, 0, 0);
+			moveSlider.addChangeListener(e -> showMove(moveSlider.getValue()));
+			JButton previousButton = new JButton("<");
+			JButton nextButton = new JButton(">");
+			previousButton.addActionListener(e -> moveSlider.setValue(moveSlider.getValue() - 1));
+			nextButton.addActionListener(e -> moveSlider.setValue(moveSlider.getValue() + 1));
+			moveLabel = new JLabel();
+			add(new JLabel("Game: "));
+			add(gameSpinner);
+			add(previousButton);
+			add(moveSlider);
+			add(nextButton);
+			add(moveLabel);
+		}
+		
+		/**
+		 * A method for showing the deal of a game of the archive.
+		 * @param index index of the game, from 0
+		 */
+		public void showGame(int index) {
+			if (index < 0 || index >= archive.size()) {
+				return;
+			}
+			try {
+				replay = archive.get(index);
+			} catch (IOException e) {
+				printMsg("Cannot read game " + (index + 1) + ": " + e.getMessage());
+				return;
+			}
+			String[] names = replay.getPlayerNames();
+			printMsg("Game " + (index + 1) + ": " + String.join(", ", names) + " (" + replay.getNumOfMoves() + " moves)");
+			moveSlider.setMaximum(replay.getNumOfMoves());
+			moveSlider.setValue(0);
+			showMove(0);
+		}
+		
+		/**
+		 * A method for showing the state of the game after a number of moves.
+		 * @param numOfMovesMade number of moves made, 0 for the deal
+		 */
+		public void showMove(int numOfMovesMade) {
+			if (replay == null || numOfMovesMade > replay.getNumOfMoves()) {
+				return;
+			}
+			BigTwoGameState state = replay.seek(numOfMovesMade);
+			setActivePlayer(state.getCurrentIdx());
+			game.show(replay.getPlayerNames(), state);
+			if (numOfMovesMade == 0) {
+				moveLabel.setText("Deal");
+				return;
+			}
+			int seat = replay.getSeat(numOfMovesMade - 1);
+			long cards = replay.getCards(numOfMovesMade - 1);
+			String move = (cards == 0) ? "{Pass}" : CardSet.toString(cards);
+			moveLabel.setText("Move " + numOfMovesMade + "/" + replay.getNumOfMoves() + ": "
+					+ replay.getPlayerNames()[seat] + " " + move + (state.isGameOver() ? " wins" : ""));
+		}
+	}
+	
 	class ChatMsgFieldListener implements ActionListener{
 		
 		@Override
 		public void actionPerformed(ActionEvent e) {
-			CardGameMessage newChatMsg = new CardGameMessage(CardGameMessage.MSG, -1, chatMsgField.getText());
-			game.sendMessage(newChatMsg);
+			game.sendChatMessage(chatMsgField.getText());
 			chatMsgField.setText("");
 		}
 	}
@@ -0,0 +1,284 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The BlockingGameServer class is a thread-per-connection transport for
+ * BigTwoServer. It keeps the simple blocking style of CardGameServer, in
+ * which each client is served by a loop reading one message at a time,
+ * but runs each loop on a thread from ConnectionThreads, i.e. on a virtual
+ * thread where the runtime supports them. Like NioGameServer it speaks the
+ * binary protocol (see CardGameMessageCodec) and hands the messages to a
+ * TableHost, so the two transports can be compared on the same tables.
+ * <p>
+ * Messages to a client are queued and written by a writer thread of its
+ * own, so that the event loop of a table never blocks on a client that
+ * has stopped reading; like NioGameServer, a client is dropped once more
+ * than MAX_PENDING_BYTES are waiting for it.
+ * @author michael
+ *
+ */
+public class BlockingGameServer implements Runnable {
+	public static final int BUFFER_SIZE = 1024;	// size of the read and write buffer of each connection, kept small for idle connections
+	public static final int MAX_PENDING_BYTES = 1 << 20;	// queued bytes after which a slow client is dropped
+
+	private static final byte[] END_OF_STREAM = new byte[0];	// queued to stop the writer thread
+
+	private TableHost host;						// the host running the tables
+	private ConnectionThreads threads;			// the threads serving the connections
+	private ServerSocket serverSocket;			// the socket accepting new connections
+
+	/**
+	 * Creates and returns an instance of the BlockingGameServer class.
+	 * @param host the host running the tables
+	 * @param useVirtual whether to serve connections on virtual threads if
+	 *            the runtime supports them
+	 */
+	public BlockingGameServer(TableHost host, boolean useVirtual) {
+		this.host = host;
+		threads = new ConnectionThreads("game-connection", useVirtual);
+	}
+
+	/**
+	 * A method for getting the threads serving the connections.
+	 * @return the threads serving the connections
+	 */
+	public ConnectionThreads getThreads() {
+		return threads;
+	}
+
+	/**
+	 * A method for getting the port the server listens on.
+	 * @return the local port, or -1 if the server has not been started
+	 */
+	public int getPort() {
+		return serverSocket == null ? -1 : serverSocket.getLocalPort();
+	}
+
+	/**
+	 * A method for starting the server on the specified port. The accept
+	 * loop runs on a new thread.
+	 * @param port port to listen on, or 0 for any free port
+	 * @throws IOException if the port cannot be bound
+	 */
+	public void start(int port) throws IOException {
+		serverSocket = new ServerSocket(port, 1024);
+		Thread acceptThread = new Thread(this, "blocking-game-server");
+		acceptThread.start();
+		System.out.println("Big Two Server (" + (threads.isVirtual() ? "virtual" : "platform")
+				+ " threads) started on port " + getPort() + " with " + host.getNumOfLoops() + " table loops");
+	}
+
+	/**
+	 * A method for stopping the server. All connections are closed and
+	 * their threads are waited for.
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void stop() throws InterruptedException {
+		try {
+			serverSocket.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		threads.shutdown(10000);
+	}
+
+	/**
+	 * The accept loop.
+	 */
+	@Override
+	public void run() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				Connection connection = new Connection(socket);
+				threads.start(connection, socket);
+			} catch (IOException e) {
+				if (!serverSocket.isClosed()) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+
+	/**
+	 * An inner class for serving one client connection. Messages may be
+	 * sent from any thread and are queued; the reads run on the connection's
+	 * own thread, and the writes on its writer thread.
+	 */
+	private class Connection implements ClientConnection, Runnable {
+		private Socket socket;					// the socket of the connection
+		private InputStream in;					// the stream for reading frames
+		private OutputStream out;				// the stream for writing frames, guarded by writeLock
+		private ReentrantLock writeLock;		// the lock of out, held while writing without pinning a virtual thread
+		private LinkedBlockingQueue<byte[]> outbound;	// frames waiting for the writer thread
+		private AtomicInteger pendingBytes;		// number of bytes in outbound
+		private int protocolVersion;			// the version chosen by the client, or -1 before the handshake
+		private String tableId;					// the id of the table of the client, or null, only touched by the read loop
+		private String address;					// the address of the client
+
+		Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			in = new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE);
+			out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+			writeLock = new ReentrantLock();
+			outbound = new LinkedBlockingQueue<byte[]>();
+			pendingBytes = new AtomicInteger();
+			protocolVersion = -1;
+			address = socket.getRemoteSocketAddress().toString();
+		}
+
+		@Override
+		public void run() {
+			try {
+				ByteBuffer handshake = ByteBuffer.allocate(5);
+				CardGameMessageCodec.writeServerHandshake(handshake, CardGameMessageCodec.VERSION);
+				writeLock.lock();
+				try {
+					out.write(handshake.array(), 0, handshake.position());
+					out.flush();
+				} finally {
+					writeLock.unlock();
+				}
+				int versionByte = in.read();
+				protocolVersion = versionByte & ~CardGameMessageCodec.LOBBY_FLAG;
+				if (versionByte < 0 || protocolVersion <= CardGameMessageCodec.SERIALIZATION
+						|| protocolVersion > CardGameMessageCodec.VERSION) {
+					return;
+				}
+				if (threads.start(this::writeLoop, null) == null) {
+					return;
+				}
+				if ((versionByte & CardGameMessageCodec.LOBBY_FLAG) == 0) {
+					tableId = host.autoJoin(this);
+				}
+				CardGameMessage message;
+				while ((message = CardGameMessageCodec.read(in)) != null) {
+					handle(message);
+				}
+			} catch (IOException e) {
+				// the client has disconnected or the server is stopping
+			} finally {
+				close();
+				loseTable();
+			}
+		}
+
+		private void handle(CardGameMessage message) {
+			switch (message.getType()) {
+				case BigTwoMessage.TABLE_CREATE:
+					leaveTable();
+					tableId = host.createTable(this);
+					break;
+				case BigTwoMessage.TABLE_JOIN:
+					leaveTable();
+					tableId = (String) message.getData();
+					host.joinTable(tableId, this);
+					break;
+				case BigTwoMessage.TABLE_LEAVE:
+					leaveTable();
+					break;
+				case BigTwoMessage.RESUME:
+					leaveTable();
+					tableId = host.resume((String) message.getData(), this);
+					break;
+				default:
+					if (tableId != null) {
+						host.receive(tableId, this, message);
+					}
+					break;
+			}
+		}
+
+		private void leaveTable() {
+			if (tableId != null) {
+				host.leaveTable(tableId, this);
+				tableId = null;
+			}
+		}
+
+		private void loseTable() {
+			if (tableId != null) {
+				host.loseConnection(tableId, this);
+				tableId = null;
+			}
+		}
+
+		@Override
+		public void send(CardGameMessage message) {
+			if (socket.isClosed()) {
+				return;
+			}
+			byte[] frame = CardGameMessageCodec.encode(message);
+			if (pendingBytes.addAndGet(frame.length) > MAX_PENDING_BYTES) {
+				close();
+				return;
+			}
+			outbound.add(frame);
+		}
+
+		/**
+		 * The write loop, run on the writer thread. The frames queued by the
+		 * time one has been written are written with it and flushed together.
+		 */
+		private void writeLoop() {
+			try {
+				byte[] frame;
+				while ((frame = outbound.take()) != END_OF_STREAM) {
+					writeLock.lock();
+					try {
+						while (frame != null && frame != END_OF_STREAM) {
+							out.write(frame);
+							pendingBytes.addAndGet(-frame.length);
+							frame = outbound.poll();
+						}
+						out.flush();
+					} finally {
+						writeLock.unlock();
+					}
+					if (frame == END_OF_STREAM) {
+						return;
+					}
+				}
+			} catch (IOException e) {
+				close();
+			} catch (InterruptedException e) {
+				// the server is stopping
+			}
+		}
+
+		/**
+		 * Closes the socket, which ends the read loop; the loop then takes
+		 * the client off its table on its own thread. The writer thread is
+		 * told to stop.
+		 */
+		@Override
+		public void close() {
+			try {
+				socket.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			outbound.add(END_OF_STREAM);
+		}
+
+		@Override
+		public int getProtocolVersion() {
+			return protocolVersion;
+		}
+
+		@Override
+		public String getAddress() {
+			return address;
+		}
+	}
+}
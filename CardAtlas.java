@@ -0,0 +1,395 @@
+import java.awt.Color;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.Transparency;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+import javax.imageio.ImageIO;
+
+/**
+ * The CardAtlas class holds the images of the Big Two table, i.e. the 52
+ * card faces, the card back and the four avatars, packed into a single
+ * image at their display size and drawn by sub-rectangle. An atlas is made
+ * for a scale factor: at scale 2 each sprite has twice as many pixels in
+ * each direction but is drawn at the same logical size, for HiDPI screens.
+ * <p>
+ * CardAtlasGenerator packs the atlases at build time into images/atlas.png
+ * (atlas@2x.png for scale 2, and so on) with an index of the sprites in
+ * atlas.idx. An atlas that has not been generated is packed from the
+ * original images when first needed. Atlases are loaded once per process
+ * and kept in a cache shared by all tables.
+ * <p>
+ * Atlases are loaded on a small pool of loader threads, which also decode
+ * the original images in parallel when an atlas is packed. A table that
+ * asks for an atlas still being loaded draws with the placeholder atlas,
+ * which outlines each sprite, and is repainted when the atlas is ready.
+ * @author michael
+ *
+ */
+public class CardAtlas {
+	public static final int CARD_WIDTH = 50;			// logical width of a card
+	public static final int CARD_HEIGHT = 70;			// logical height of a card
+	public static final int AVATAR_SIZE = 90;			// logical width and height of an avatar
+	public static final int MAX_SCALE = 4;				// largest scale factor an atlas is made for
+	public static final String[] AVATAR_NAMES = {"captain_america", "iron_man", "black_widow", "thor"};	// the avatar images, by player
+
+	private static final String SUITS = "dchs";			// the suits in the names of the card images
+	private static final String RANKS = "a23456789tjqk";	// the ranks in the names of the card images
+	private static final int NUM_OF_LOADERS = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));	// number of loader threads
+	private static final ForkJoinPool LOADER = new ForkJoinPool(NUM_OF_LOADERS, CardAtlas::newLoaderThread, null, false);	// the threads loading and decoding images
+	private static final ConcurrentHashMap<Integer, CompletableFuture<CardAtlas>> CACHE = new ConcurrentHashMap<Integer, CompletableFuture<CardAtlas>>();	// the atlases loaded or being loaded, by scale
+	private static final CardAtlas PLACEHOLDER = new CardAtlas(null, 1, placeholderIndex());	// the atlas drawn while the images are loading
+
+	private BufferedImage image;				// the packed sprites
+	private int scale;							// the number of pixels per logical pixel
+	private HashMap<String, Rectangle> index;	// the position of each sprite in the image, by name
+	private Rectangle[] cardRects;				// the position of each card face, by suit * 13 + rank
+	private Rectangle backRect;					// the position of the card back
+	private Rectangle[] avatarRects;			// the position of each avatar
+
+	private CardAtlas(BufferedImage image, int scale, HashMap<String, Rectangle> index) {
+		this.image = image;
+		this.scale = scale;
+		this.index = index;
+		cardRects = new Rectangle[52];
+		for (int suit = 0; suit < 4; suit++) {
+			for (int rank = 0; rank < 13; rank++) {
+				cardRects[suit * 13 + rank] = index.get(cardName(suit, rank));
+			}
+		}
+		backRect = index.get("b");
+		avatarRects = new Rectangle[AVATAR_NAMES.length];
+		for (int i = 0; i < AVATAR_NAMES.length; i++) {
+			avatarRects[i] = index.get(AVATAR_NAMES[i]);
+		}
+	}
+
+	/**
+	 * A method for getting the atlas for a scale factor, waiting for it to
+	 * be loaded or packed the first time.
+	 * @param scale number of pixels per logical pixel, from 1 to MAX_SCALE
+	 * @return the atlas
+	 */
+	public static CardAtlas get(int scale) {
+		return loadAsync(scale).join();
+	}
+
+	/**
+	 * A method for starting to load the atlas for a scale factor on the
+	 * loader threads, if it has not been started yet.
+	 * @param scale number of pixels per logical pixel, from 1 to MAX_SCALE
+	 * @return the atlas, when it has been loaded
+	 */
+	public static CompletableFuture<CardAtlas> loadAsync(int scale) {
+		int clampedScale = Math.max(1, Math.min(MAX_SCALE, scale));
+		CompletableFuture<CardAtlas> atlas = CACHE.get(clampedScale);
+		if (atlas == null) {
+			atlas = CACHE.computeIfAbsent(clampedScale, s -> CompletableFuture.supplyAsync(() -> {
+				long startTime = System.nanoTime();
+				CardAtlas loaded = load(new File("images"), s);
+				StartupTrace.mark(String.format("atlas at scale %d loaded in %.0f ms", s,
+						(System.nanoTime() - startTime) / 1e6));
+				return loaded;
+			}, LOADER));
+		}
+		return atlas;
+	}
+
+	/**
+	 * A method for getting the atlas for a scale factor without waiting.
+	 * @param scale number of pixels per logical pixel, from 1 to MAX_SCALE
+	 * @return the atlas, or the placeholder atlas if it is still being loaded
+	 */
+	public static CardAtlas getIfLoaded(int scale) {
+		return loadAsync(scale).getNow(PLACEHOLDER);
+	}
+
+	/**
+	 * A method for checking whether this is the placeholder atlas, which
+	 * outlines the sprites instead of drawing the images.
+	 * @return whether this is the placeholder atlas
+	 */
+	public boolean isPlaceholder() {
+		return image == null;
+	}
+
+	/**
+	 * A method for getting the atlas that matches the resolution of the
+	 * device a Graphics draws on.
+	 * @param g Graphics to be drawn on
+	 * @return the atlas
+	 */
+	public static CardAtlas get(Graphics g) {
+		return get(scaleOf(g));
+	}
+
+	/**
+	 * A method for getting the scale factor of the device a Graphics draws on.
+	 * @param g Graphics to be drawn on
+	 * @return number of device pixels per logical pixel, rounded up
+	 */
+	public static int scaleOf(Graphics g) {
+		if (!(g instanceof Graphics2D)) {
+			return 1;
+		}
+		double scaleX = ((Graphics2D) g).getTransform().getScaleX();
+		return (int) Math.ceil(scaleX - 0.01);
+	}
+
+	/**
+	 * A method for getting the scale factor of the default screen.
+	 * @return number of device pixels per logical pixel, rounded up, or 1 without a screen
+	 */
+	public static int screenScale() {
+		if (GraphicsEnvironment.isHeadless()) {
+			return 1;
+		}
+		double scaleX = GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+				.getDefaultConfiguration().getDefaultTransform().getScaleX();
+		return (int) Math.ceil(scaleX - 0.01);
+	}
+
+	/**
+	 * A method for getting the scale factor of the atlas.
+	 * @return number of pixels per logical pixel
+	 */
+	public int getScale() {
+		return scale;
+	}
+
+	/**
+	 * A method for drawing the face of a card.
+	 * @param g Graphics to be drawn on
+	 * @param suit suit of the card
+	 * @param rank rank of the card
+	 * @param x x-coordinate of the card
+	 * @param y y-coordinate of the card
+	 */
+	public void drawCard(Graphics g, int suit, int rank, int x, int y) {
+		draw(g, cardRects[suit * 13 + rank], x, y, CARD_WIDTH, CARD_HEIGHT);
+	}
+
+	/**
+	 * A method for drawing the back of a card.
+	 * @param g Graphics to be drawn on
+	 * @param x x-coordinate of the card
+	 * @param y y-coordinate of the card
+	 */
+	public void drawBack(Graphics g, int x, int y) {
+		draw(g, backRect, x, y, CARD_WIDTH, CARD_HEIGHT);
+	}
+
+	/**
+	 * A method for drawing the avatar of a player.
+	 * @param g Graphics to be drawn on
+	 * @param playerIdx index of the player
+	 * @param x x-coordinate of the avatar
+	 * @param y y-coordinate of the avatar
+	 */
+	public void drawAvatar(Graphics g, int playerIdx, int x, int y) {
+		draw(g, avatarRects[playerIdx], x, y, AVATAR_SIZE, AVATAR_SIZE);
+	}
+
+	private void draw(Graphics g, Rectangle rect, int x, int y, int width, int height) {
+		if (image == null) {
+			g.setColor(Color.WHITE);
+			g.fillRoundRect(x, y, width - 1, height - 1, 8, 8);
+			g.setColor(Color.GRAY);
+			g.drawRoundRect(x, y, width - 1, height - 1, 8, 8);
+			return;
+		}
+		g.drawImage(image, x, y, x + width, y + height, rect.x, rect.y, rect.x + rect.width, rect.y + rect.height, null);
+	}
+
+	/**
+	 * A method for packing an atlas from the original images: card faces
+	 * named like "ad.gif" and "td.gif", the back "b.gif" and the avatars.
+	 * Each sprite is scaled down in steps of at most a half for quality.
+	 * The images are decoded and scaled in parallel on the loader threads.
+	 * An image that cannot be read leaves its sprite blank.
+	 * @param imageDir directory of the original images
+	 * @param scale number of pixels per logical pixel
+	 * @return the atlas
+	 */
+	public static CardAtlas pack(File imageDir, int scale) {
+		int cardWidth = CARD_WIDTH * scale;
+		int cardHeight = CARD_HEIGHT * scale;
+		int avatarSize = AVATAR_SIZE * scale;
+		BufferedImage atlas = new BufferedImage(13 * cardWidth, 5 * cardHeight + avatarSize,
+				BufferedImage.TYPE_INT_ARGB);
+		HashMap<String, Rectangle> index = new HashMap<String, Rectangle>();
+		HashMap<String, File> files = new HashMap<String, File>();
+		for (int suit = 0; suit < 4; suit++) {
+			for (int rank = 0; rank < 13; rank++) {
+				index.put(cardName(suit, rank), new Rectangle(rank * cardWidth, suit * cardHeight, cardWidth, cardHeight));
+				files.put(cardName(suit, rank), new File(imageDir, cardName(suit, rank) + ".gif"));
+			}
+		}
+		index.put("b", new Rectangle(0, 4 * cardHeight, cardWidth, cardHeight));
+		files.put("b", new File(imageDir, "b.gif"));
+		for (int i = 0; i < AVATAR_NAMES.length; i++) {
+			index.put(AVATAR_NAMES[i], new Rectangle(i * avatarSize, 5 * cardHeight, avatarSize, avatarSize));
+			files.put(AVATAR_NAMES[i], new File(imageDir, AVATAR_NAMES[i] + ".jpg"));
+		}
+
+		HashMap<String, ForkJoinTask<BufferedImage>> sprites = new HashMap<String, ForkJoinTask<BufferedImage>>();
+		for (String name : index.keySet()) {
+			File file = files.get(name);
+			Rectangle rect = index.get(name);
+			sprites.put(name, LOADER.submit(() -> readSprite(file, rect.width, rect.height)));
+		}
+		Graphics2D g = atlas.createGraphics();
+		try {
+			for (String name : index.keySet()) {
+				BufferedImage sprite = sprites.get(name).join();
+				if (sprite != null) {
+					g.drawImage(sprite, index.get(name).x, index.get(name).y, null);
+				}
+			}
+		} finally {
+			g.dispose();
+		}
+		return new CardAtlas(toCompatibleImage(atlas), scale, index);
+	}
+
+	/**
+	 * A method for writing the atlas and its index to a directory.
+	 * @param imageDir directory to write to
+	 * @throws IOException if the files cannot be written
+	 */
+	public void write(File imageDir) throws IOException {
+		ImageIO.write(image, "png", imageFile(imageDir, scale));
+		try (PrintWriter writer = new PrintWriter(indexFile(imageDir, scale))) {
+			for (String name : index.keySet()) {
+				Rectangle rect = index.get(name);
+				writer.println(name + " " + rect.x + " " + rect.y + " " + rect.width + " " + rect.height);
+			}
+		}
+	}
+
+	private static CardAtlas load(File imageDir, int scale) {
+		File imageFile = imageFile(imageDir, scale);
+		File indexFile = indexFile(imageDir, scale);
+		if (imageFile.isFile() && indexFile.isFile()) {
+			try (BufferedReader reader = new BufferedReader(new FileReader(indexFile))) {
+				HashMap<String, Rectangle> index = new HashMap<String, Rectangle>();
+				String line;
+				while ((line = reader.readLine()) != null) {
+					String[] fields = line.trim().split(" ");
+					if (fields.length == 5) {
+						index.put(fields[0], new Rectangle(Integer.parseInt(fields[1]), Integer.parseInt(fields[2]),
+								Integer.parseInt(fields[3]), Integer.parseInt(fields[4])));
+					}
+				}
+				BufferedImage image = ImageIO.read(imageFile);
+				if (image != null && index.size() == 52 + 1 + AVATAR_NAMES.length) {
+					return new CardAtlas(toCompatibleImage(image), scale, index);
+				}
+			} catch (IOException | NumberFormatException e) {
+				// fall back to packing the original images
+			}
+		}
+		return pack(imageDir, scale);
+	}
+
+	private static BufferedImage readSprite(File file, int width, int height) {
+		BufferedImage source = null;
+		try {
+			source = ImageIO.read(file);
+		} catch (IOException e) {
+			// leave the sprite blank, as ImageIcon does for a missing image
+		}
+		return (source != null) ? scale(source, width, height) : null;
+	}
+
+	/**
+	 * A method for scaling an image with bilinear steps that at most halve
+	 * its size, which is close to area averaging without its cost at
+	 * draw time.
+	 */
+	private static BufferedImage scale(BufferedImage source, int width, int height) {
+		BufferedImage current = source;
+		int w = source.getWidth();
+		int h = source.getHeight();
+		do {
+			w = (w / 2 > width) ? w / 2 : width;
+			h = (h / 2 > height) ? h / 2 : height;
+			BufferedImage next = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+			Graphics2D g = next.createGraphics();
+			g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+			g.drawImage(current, 0, 0, w, h, null);
+			g.dispose();
+			current = next;
+		} while (w != width || h != height);
+		return current;
+	}
+
+	/**
+	 * A method for copying an image into the format of the screen, so
+	 * that drawing it can be accelerated.
+	 */
+	private static BufferedImage toCompatibleImage(BufferedImage image) {
+		BufferedImage compatible;
+		if (GraphicsEnvironment.isHeadless()) {
+			compatible = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_ARGB_PRE);
+		}
+		else {
+			GraphicsConfiguration config = GraphicsEnvironment.getLocalGraphicsEnvironment()
+					.getDefaultScreenDevice().getDefaultConfiguration();
+			compatible = config.createCompatibleImage(image.getWidth(), image.getHeight(), Transparency.TRANSLUCENT);
+		}
+		Graphics2D g = compatible.createGraphics();
+		g.drawImage(image, 0, 0, null);
+		g.dispose();
+		return compatible;
+	}
+
+	private static HashMap<String, Rectangle> placeholderIndex() {
+		HashMap<String, Rectangle> index = new HashMap<String, Rectangle>();
+		Rectangle card = new Rectangle(0, 0, CARD_WIDTH, CARD_HEIGHT);
+		for (int suit = 0; suit < 4; suit++) {
+			for (int rank = 0; rank < 13; rank++) {
+				index.put(cardName(suit, rank), card);
+			}
+		}
+		index.put("b", card);
+		for (int i = 0; i < AVATAR_NAMES.length; i++) {
+			index.put(AVATAR_NAMES[i], new Rectangle(0, 0, AVATAR_SIZE, AVATAR_SIZE));
+		}
+		return index;
+	}
+
+	private static ForkJoinWorkerThread newLoaderThread(ForkJoinPool pool) {
+		ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+		thread.setName("asset-loader-" + thread.getPoolIndex());
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	private static String cardName(int suit, int rank) {
+		return "" + RANKS.charAt(rank) + SUITS.charAt(suit);
+	}
+
+	private static File imageFile(File imageDir, int scale) {
+		return new File(imageDir, scale == 1 ? "atlas.png" : "atlas@" + scale + "x.png");
+	}
+
+	private static File indexFile(File imageDir, int scale) {
+		return new File(imageDir, scale == 1 ? "atlas.idx" : "atlas@" + scale + "x.idx");
+	}
+}
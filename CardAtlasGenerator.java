@@ -0,0 +1,37 @@
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * The CardAtlasGenerator class is the build step that packs the card, back
+ * and avatar images of BigTwoTable into the atlases read by CardAtlas, so
+ * that the client loads one pre-scaled image instead of scaling 57.
+ * @author michael
+ *
+ */
+public class CardAtlasGenerator {
+	/**
+	 * main() method for generating the atlases.
+	 *
+	 * @param args
+	 *            the directory of the images and the scale factors to pack
+	 *            atlases for. The directory "images" and the scales 1 and 2
+	 *            are used if no arguments has been supplied
+	 * @throws IOException if an atlas cannot be written
+	 */
+	public static void main(String[] args) throws IOException {
+		File imageDir = new File(args.length > 0 ? args[0] : "images");
+		int[] scales = {1, 2};
+		if (args.length > 1) {
+			scales = new int[args.length - 1];
+			for (int i = 1; i < args.length; i++) {
+				scales[i - 1] = Integer.parseInt(args[i]);
+			}
+		}
+		for (int scale : scales) {
+			long startTime = System.nanoTime();
+			CardAtlas.pack(imageDir, scale).write(imageDir);
+			System.out.printf("packed atlas at scale %d into %s in %.0f ms%n", scale, imageDir,
+					(System.nanoTime() - startTime) / 1e6);
+		}
+	}
+}
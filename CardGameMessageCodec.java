@@ -0,0 +1,445 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.StreamCorruptedException;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The CardGameMessageCodec class implements the compact binary wire
+ * protocol for CardGameMessage objects. Every message is sent as a
+ * frame: a varint body length followed by the body, which is the message
+ * type (one byte), the zigzag varint playerID and a payload depending on
+ * the type. Card indices of a MOVE are sent as a varint bitmask and the
+ * deck of a START as one byte per card (its CardSet bit index).
+ * <p>
+ * The protocol is negotiated when a client connects: a server speaking
+ * it first sends MAGIC and the highest version it supports, and the
+ * client answers with the version it will use, with LOBBY_FLAG set if
+ * it will pick a table itself (see BigTwoMessage) instead of being
+ * seated at the first free table. A server that only
+ * speaks Java serialization starts with the ObjectOutputStream header
+ * instead, in which case the client falls back to version 0.
+ * <p>
+ * From version 2 (AUTHORITATIVE) the server validates every MOVE,
+ * broadcasts only the legal ones and answers an illegal one with a
+ * REJECT to its player, so clients apply MOVEs without checking them.
+ * From version 3 (PRIVATE_DEAL) a client gets a DEAL with only its own
+ * hand instead of the whole deck, and the MOVEs it is sent carry the
+ * CardSet bit indices of the cards played instead of hand positions.
+ * From version 4 (RESUMABLE) a client gets a SESSION token, with which it
+ * can RESUME its seat and the game in progress after losing its connection.
+ * @author michael
+ *
+ */
+public final class CardGameMessageCodec {
+	public static final int MAGIC = 0x42324750;			// "B2GP", sent by the server when a client connects
+	public static final int SERIALIZATION = 0;			// protocol version for Java serialization
+	public static final int VERSION = 4;				// highest protocol version supported
+	public static final int AUTHORITATIVE = 2;			// first version in which the server validates moves
+	public static final int PRIVATE_DEAL = 3;			// first version in which players only see their own hand
+	public static final int RESUMABLE = 4;				// first version in which a lost seat is held for the player to resume
+	public static final int MAX_FRAME_SIZE = 1 << 16;	// maximum size of a message body in bytes
+	public static final int LOBBY_FLAG = 0x80;			// set in the client's version byte if it picks its own table
+
+	private CardGameMessageCodec() {
+	}
+
+	/**
+	 * A method for writing the server side of the handshake.
+	 * @param buffer buffer to write to
+	 * @param maxVersion highest protocol version supported by the server
+	 */
+	public static void writeServerHandshake(ByteBuffer buffer, int maxVersion) {
+		buffer.putInt(MAGIC);
+		buffer.put((byte) maxVersion);
+	}
+
+	/**
+	 * A method for performing the client side of the handshake. The first
+	 * bytes sent by the server are read, and if they are not MAGIC they
+	 * are pushed back so that they can be read by an ObjectInputStream.
+	 * @param in stream from the server, able to push back at least 4 bytes
+	 * @param out stream to the server
+	 * @return the protocol version to use, SERIALIZATION if the server does not support the binary protocol
+	 * @throws IOException if the connection fails
+	 */
+	public static int clientHandshake(PushbackInputStream in, OutputStream out) throws IOException {
+		return clientHandshake(in, out, false);
+	}
+
+	/**
+	 * A method for performing the client side of the handshake.
+	 * @param in stream from the server, able to push back at least 4 bytes
+	 * @param out stream to the server
+	 * @param isLobby whether the client will pick its own table
+	 * @return the protocol version to use, SERIALIZATION if the server does not support the binary protocol
+	 * @throws IOException if the connection fails
+	 */
+	public static int clientHandshake(PushbackInputStream in, OutputStream out, boolean isLobby) throws IOException {
+		byte[] header = new byte[4];
+		readFully(in, header, 0, 4);
+		if (ByteBuffer.wrap(header).getInt() != MAGIC) {
+			in.unread(header);
+			return SERIALIZATION;
+		}
+		int serverVersion = in.read();
+		if (serverVersion < 0) {
+			throw new EOFException();
+		}
+		int version = Math.min(VERSION, serverVersion);
+		out.write(isLobby ? version | LOBBY_FLAG : version);
+		out.flush();
+		return version;
+	}
+
+	/**
+	 * A method for encoding a message as a frame.
+	 * @param message message to encode
+	 * @param buffer buffer to write the frame to
+	 * @throws BufferOverflowException if the buffer is too small
+	 */
+	public static void encode(GameMessage message, ByteBuffer buffer) {
+		int start = buffer.position();
+		buffer.position(start + 1);		// almost every body fits a one-byte length
+		encodeBody(message, buffer);
+		int length = buffer.position() - start - 1;
+		if (length >= MAX_FRAME_SIZE) {
+			throw new IllegalArgumentException("Message too large: " + length + " bytes");
+		}
+		if (length < 0x80) {
+			buffer.put(start, (byte) length);
+			return;
+		}
+		byte[] body = new byte[length];
+		buffer.position(start + 1);
+		buffer.get(body);
+		buffer.position(start);
+		putVarint(buffer, length);
+		buffer.put(body);
+	}
+
+	/**
+	 * A method for encoding a message as a frame.
+	 * @param message message to encode
+	 * @return the frame
+	 */
+	public static byte[] encode(GameMessage message) {
+		ByteBuffer buffer = ByteBuffer.allocate(256);
+		while (true) {
+			try {
+				encode(message, buffer);
+				break;
+			} catch (BufferOverflowException e) {
+				buffer = ByteBuffer.allocate(buffer.capacity() * 2);
+			}
+		}
+		buffer.flip();
+		byte[] frame = new byte[buffer.remaining()];
+		buffer.get(frame);
+		return frame;
+	}
+
+	/**
+	 * A method for decoding a frame from a buffer. The buffer is left
+	 * unchanged if it does not yet hold a whole frame.
+	 * @param buffer buffer in read mode holding received bytes
+	 * @return the message, or null if the buffer does not hold a whole frame
+	 * @throws StreamCorruptedException if the frame is not a valid message
+	 */
+	public static CardGameMessage decode(ByteBuffer buffer) throws StreamCorruptedException {
+		int start = buffer.position();
+		int length = 0;
+		for (int shift = 0; ; shift += 7) {
+			if (!buffer.hasRemaining()) {
+				buffer.position(start);
+				return null;
+			}
+			byte b = buffer.get();
+			length |= (b & 0x7F) << shift;
+			if (b >= 0) {
+				break;
+			}
+			if (shift >= 14) {
+				throw new StreamCorruptedException("Frame length too long");
+			}
+		}
+		if (length >= MAX_FRAME_SIZE) {
+			throw new StreamCorruptedException("Frame too large: " + length + " bytes");
+		}
+		if (buffer.remaining() < length) {
+			buffer.position(start);
+			return null;
+		}
+		ByteBuffer body = buffer.slice();
+		body.limit(length);
+		buffer.position(buffer.position() + length);
+		return decodeBody(body);
+	}
+
+	/**
+	 * A method for reading one frame from a stream.
+	 * @param in stream to read from
+	 * @return the message
+	 * @throws IOException if the stream ends or the frame is not a valid message
+	 */
+	public static CardGameMessage read(InputStream in) throws IOException {
+		int length = 0;
+		for (int shift = 0; ; shift += 7) {
+			int b = in.read();
+			if (b < 0) {
+				throw new EOFException();
+			}
+			length |= (b & 0x7F) << shift;
+			if (b < 0x80) {
+				break;
+			}
+			if (shift >= 14) {
+				throw new StreamCorruptedException("Frame length too long");
+			}
+		}
+		if (length >= MAX_FRAME_SIZE) {
+			throw new StreamCorruptedException("Frame too large: " + length + " bytes");
+		}
+		byte[] body = new byte[length];
+		readFully(in, body, 0, length);
+		return decodeBody(ByteBuffer.wrap(body));
+	}
+
+	/**
+	 * A method for encoding the body of a message.
+	 * @param message message to encode
+	 * @param buffer buffer to write to
+	 */
+	private static void encodeBody(GameMessage message, ByteBuffer buffer) {
+		int type = message.getType();
+		Object data = message.getData();
+		buffer.put((byte) type);
+		putVarint(buffer, zigzag(message.getPlayerID()));
+		switch (type) {
+			case CardGameMessage.MOVE:
+				putVarint(buffer, indicesToMask((int[]) data));
+				break;
+			case CardGameMessage.PLAYER_LIST:
+				String[] names = (String[]) data;
+				putVarint(buffer, names.length);
+				for (int i = 0; i < names.length; i++) {
+					putString(buffer, names[i]);
+				}
+				break;
+			case CardGameMessage.START:
+				Deck deck = (Deck) data;
+				buffer.put((byte) deck.size());
+				for (int i = 0; i < deck.size(); i++) {
+					buffer.put((byte) CardSet.bitIndex(deck.getCard(i)));
+				}
+				break;
+			case CardGameMessage.JOIN:
+			case CardGameMessage.QUIT:
+			case CardGameMessage.MSG:
+			case BigTwoMessage.TABLE_JOIN:
+			case BigTwoMessage.TABLE_INFO:
+			case BigTwoMessage.REJECT:
+			case BigTwoMessage.SESSION:
+			case BigTwoMessage.RESUME:
+			case BigTwoMessage.AWAY:
+				putString(buffer, (String) data);
+				break;
+			case BigTwoMessage.DEAL:
+				BigTwoSnapshot snapshot = (BigTwoSnapshot) data;
+				putVarint(buffer, snapshot.getHand());
+				for (int i = 0; i < BigTwoGameState.NUM_OF_PLAYERS; i++) {
+					buffer.put((byte) snapshot.getNumOfCards(i));
+				}
+				buffer.put((byte) snapshot.getCurrentIdx());
+				putVarint(buffer, snapshot.getLastHand());
+				buffer.put((byte) snapshot.getLastHandPlayer());
+				break;
+			default:
+				// FULL, READY and BACK carry no data
+				break;
+		}
+	}
+
+	/**
+	 * A method for decoding the body of a message.
+	 * @param buffer buffer holding exactly one body
+	 * @return the message
+	 * @throws StreamCorruptedException if the body is not a valid message
+	 */
+	private static CardGameMessage decodeBody(ByteBuffer buffer) throws StreamCorruptedException {
+		try {
+			int type = buffer.get();
+			int playerID = unzigzag((int) getVarint(buffer));
+			Object data = null;
+			switch (type) {
+				case CardGameMessage.MOVE:
+					long cards = getVarint(buffer);
+					if ((cards & ~CardSet.ALL) != 0) {
+						throw new StreamCorruptedException("Card index out of range in move " + Long.toHexString(cards));
+					}
+					data = maskToIndices(cards);
+					break;
+				case CardGameMessage.PLAYER_LIST:
+					String[] names = new String[getLength(buffer, getVarint(buffer))];
+					for (int i = 0; i < names.length; i++) {
+						names[i] = getString(buffer);
+					}
+					data = names;
+					break;
+				case CardGameMessage.START:
+					BigTwoDeck deck = new BigTwoDeck();
+					deck.removeAllCards();
+					int size = buffer.get();
+					for (int i = 0; i < size; i++) {
+						deck.addCard(CardSet.cardOf(buffer.get()));
+					}
+					data = deck;
+					break;
+				case CardGameMessage.JOIN:
+				case CardGameMessage.QUIT:
+				case CardGameMessage.MSG:
+				case BigTwoMessage.TABLE_JOIN:
+				case BigTwoMessage.TABLE_INFO:
+				case BigTwoMessage.REJECT:
+				case BigTwoMessage.SESSION:
+				case BigTwoMessage.RESUME:
+				case BigTwoMessage.AWAY:
+					data = getString(buffer);
+					break;
+				case BigTwoMessage.DEAL:
+					long hand = getVarint(buffer);
+					int[] numOfCards = new int[BigTwoGameState.NUM_OF_PLAYERS];
+					for (int i = 0; i < numOfCards.length; i++) {
+						numOfCards[i] = buffer.get();
+					}
+					int currentIdx = buffer.get();
+					long lastHand = getVarint(buffer);
+					int lastHandPlayer = buffer.get();
+					data = new BigTwoSnapshot(playerID, hand, numOfCards, currentIdx, lastHand, lastHandPlayer);
+					break;
+				default:
+					break;
+			}
+			return new CardGameMessage(type, playerID, data);
+		} catch (RuntimeException e) {
+			StreamCorruptedException ex = new StreamCorruptedException("Malformed message");
+			ex.initCause(e);
+			throw ex;
+		}
+	}
+
+	/**
+	 * A method for converting a list of card indices to a bitmask. The
+	 * indices are positions in a hand, or CardSet bit indices for a player
+	 * speaking version PRIVATE_DEAL, so none may be beyond the last card.
+	 * @param indices card indices, each from 0 to CardSet.NUM_OF_CARDS - 1
+	 * @return a bitmask with a bit set for each index
+	 * @throws IllegalArgumentException if an index is out of range, which
+	 *             would otherwise wrap round to another card
+	 */
+	public static long indicesToMask(int[] indices) {
+		long mask = 0;
+		if (indices != null) {
+			for (int i = 0; i < indices.length; i++) {
+				if (indices[i] < 0 || indices[i] >= CardSet.NUM_OF_CARDS) {
+					throw new IllegalArgumentException("Card index out of range: " + indices[i]);
+				}
+				mask |= 1L << indices[i];
+			}
+		}
+		return mask;
+	}
+
+	/**
+	 * A method for converting a bitmask to a sorted list of card indices.
+	 * @param mask bitmask with a bit set for each index
+	 * @return the card indices in increasing order
+	 */
+	public static int[] maskToIndices(long mask) {
+		int[] indices = new int[Long.bitCount(mask)];
+		for (int i = 0; mask != 0; mask &= mask - 1) {
+			indices[i++] = Long.numberOfTrailingZeros(mask);
+		}
+		return indices;
+	}
+
+	static void putVarint(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	static long getVarint(ByteBuffer buffer) {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if (b >= 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("Varint too long");
+	}
+
+	static void putString(ByteBuffer buffer, String s) {
+		if (s == null) {
+			putVarint(buffer, 0);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		putVarint(buffer, bytes.length + 1L);
+		buffer.put(bytes);
+	}
+
+	static String getString(ByteBuffer buffer) throws StreamCorruptedException {
+		long value = getVarint(buffer);
+		if (value == 0) {
+			return null;
+		}
+		byte[] bytes = new byte[getLength(buffer, value - 1)];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * A method for checking a count or length sent by the peer before an
+	 * array is allocated for it. Each element takes at least a byte, so it
+	 * cannot be more than the bytes left in the body.
+	 * @param buffer buffer holding the rest of the body
+	 * @param length the count or length
+	 * @return the count or length
+	 * @throws StreamCorruptedException if it is more than the bytes left
+	 */
+	private static int getLength(ByteBuffer buffer, long length) throws StreamCorruptedException {
+		if (length < 0 || length > buffer.remaining()) {
+			throw new StreamCorruptedException("Length " + length + " exceeds the " + buffer.remaining()
+					+ " bytes left");
+		}
+		return (int) length;
+	}
+
+	private static int zigzag(int n) {
+		return (n << 1) ^ (n >> 31);
+	}
+
+	private static int unzigzag(int n) {
+		return (n >>> 1) ^ -(n & 1);
+	}
+
+	private static void readFully(InputStream in, byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			int n = in.read(b, off, len);
+			if (n < 0) {
+				throw new EOFException();
+			}
+			off += n;
+			len -= n;
+		}
+	}
+}
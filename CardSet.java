@@ -0,0 +1,274 @@
+/**
+ * The CardSet class is a utility class for working with a set of
+ * cards packed into a single long. Each of the 52 cards owns one bit,
+ * and the bits are laid out in Big Two order (3 of Diamonds is bit 0,
+ * 2 of Spades is bit 51), so that a set is always sorted and comparing,
+ * adding, removing and counting cards are single bit operations.
+ * A card at bit b has Big Two rank b / 4 (0 for '3' up to 12 for '2')
+ * and suit b % 4 (0 = Diamond, 1 = Club, 2 = Heart, 3 = Spade).
+ * @author michael
+ *
+ */
+public final class CardSet {
+	public static final int NUM_OF_CARDS = 52;					// number of cards (bits) in a full deck
+	public static final long EMPTY = 0L;						// a set with no cards
+	public static final long ALL = (1L << NUM_OF_CARDS) - 1;	// a set with all 52 cards
+	public static final long THREE_OF_DIAMONDS = 1L;			// the 3 of Diamonds, the lowest card in Big Two
+
+	private static final long SUIT_DIAMOND = 0x1111111111111L;	// every card of the Diamond suit
+	private static final BigTwoCard[] CARDS = new BigTwoCard[NUM_OF_CARDS];	// one shared card instance per bit
+
+	static {
+		for (int i = 0; i < NUM_OF_CARDS; i++) {
+			CARDS[i] = new BigTwoCard(suitOf(i), rankOf(i));
+		}
+	}
+
+	private CardSet() {
+	}
+
+	/**
+	 * A method for getting the bit index of a card with the specified suit and rank.
+	 * @param suit suit of the card (0 = Diamond, 1 = Club, 2 = Heart, 3 = Spade)
+	 * @param rank rank of the card as used by the Card class (0 = 'A', 1 = '2', ..., 12 = 'K')
+	 * @return bit index of the card
+	 */
+	public static int bitIndex(int suit, int rank) {
+		return ((rank + 11) % 13) * 4 + suit;
+	}
+
+	/**
+	 * A method for getting the bit index of the specified card.
+	 * @param card card to get the bit index of
+	 * @return bit index of the card
+	 */
+	public static int bitIndex(Card card) {
+		return bitIndex(card.getSuit(), card.getRank());
+	}
+
+	/**
+	 * A method for getting the suit of the card at the specified bit index.
+	 * @param bitIndex bit index of the card
+	 * @return suit of the card
+	 */
+	public static int suitOf(int bitIndex) {
+		return bitIndex & 3;
+	}
+
+	/**
+	 * A method for getting the rank (as used by the Card class) of the card
+	 * at the specified bit index.
+	 * @param bitIndex bit index of the card
+	 * @return rank of the card (0 = 'A', 1 = '2', ..., 12 = 'K')
+	 */
+	public static int rankOf(int bitIndex) {
+		return ((bitIndex >> 2) + 2) % 13;
+	}
+
+	/**
+	 * A method for getting the Big Two rank of the card at the specified bit index.
+	 * @param bitIndex bit index of the card
+	 * @return Big Two rank of the card (0 = '3', 1 = '4', ..., 12 = '2')
+	 */
+	public static int bigTwoRankOf(int bitIndex) {
+		return bitIndex >> 2;
+	}
+
+	/**
+	 * A method for getting the shared card instance at the specified bit index.
+	 * @param bitIndex bit index of the card
+	 * @return the card at the bit index
+	 */
+	public static BigTwoCard cardOf(int bitIndex) {
+		return CARDS[bitIndex];
+	}
+
+	/**
+	 * A method for getting the set containing only the specified card.
+	 * @param card card to put in the set
+	 * @return set containing only the card
+	 */
+	public static long of(Card card) {
+		return 1L << bitIndex(card);
+	}
+
+	/**
+	 * A method for getting the set containing the specified list of cards.
+	 * @param cards list of cards to put in the set
+	 * @return set containing the cards
+	 */
+	public static long of(CardList cards) {
+		long set = EMPTY;
+		for (int i = 0; i < cards.size(); i++) {
+			set |= of(cards.getCard(i));
+		}
+		return set;
+	}
+
+	/**
+	 * A method for getting the set of all cards with the specified Big Two rank.
+	 * @param bigTwoRank Big Two rank of the cards (0 = '3', ..., 12 = '2')
+	 * @return set of the four cards of that rank
+	 */
+	public static long rankMask(int bigTwoRank) {
+		return 0xFL << (bigTwoRank * 4);
+	}
+
+	/**
+	 * A method for getting the set of all cards with the specified suit.
+	 * @param suit suit of the cards
+	 * @return set of the thirteen cards of that suit
+	 */
+	public static long suitMask(int suit) {
+		return SUIT_DIAMOND << suit;
+	}
+
+	/**
+	 * A method for checking whether a set contains the specified card.
+	 * @param set set of cards
+	 * @param card card to look for
+	 * @return true if the set contains the card, otherwise false
+	 */
+	public static boolean contains(long set, Card card) {
+		return (set & of(card)) != 0;
+	}
+
+	/**
+	 * A method for checking whether a set contains every card of another set.
+	 * @param set set of cards
+	 * @param cards cards to look for
+	 * @return true if the set contains all of the cards, otherwise false
+	 */
+	public static boolean containsAll(long set, long cards) {
+		return (set & cards) == cards;
+	}
+
+	/**
+	 * A method for getting the number of cards in a set.
+	 * @param set set of cards
+	 * @return number of cards in the set
+	 */
+	public static int size(long set) {
+		return Long.bitCount(set);
+	}
+
+	/**
+	 * A method for getting the bit index of the strongest card in a set.
+	 * @param set a non-empty set of cards
+	 * @return bit index of the strongest card
+	 */
+	public static int highest(long set) {
+		return 63 - Long.numberOfLeadingZeros(set);
+	}
+
+	/**
+	 * A method for getting the bit index of the weakest card in a set.
+	 * @param set a non-empty set of cards
+	 * @return bit index of the weakest card
+	 */
+	public static int lowest(long set) {
+		return Long.numberOfTrailingZeros(set);
+	}
+
+	/**
+	 * A method for getting the position of a card in a set sorted from
+	 * weakest to strongest, i.e. its index in the sorted hand.
+	 * @param set set of cards
+	 * @param bitIndex bit index of a card in the set
+	 * @return position of the card in the sorted set
+	 */
+	public static int indexOf(long set, int bitIndex) {
+		return Long.bitCount(set & ((1L << bitIndex) - 1));
+	}
+
+	/**
+	 * A method for getting the bit index of the card at the specified
+	 * position of a set sorted from weakest to strongest.
+	 * @param set set of cards
+	 * @param position position in the sorted set
+	 * @return bit index of the card, or -1 if the position is out of range
+	 */
+	public static int bitAt(long set, int position) {
+		if (position < 0) {
+			return -1;
+		}
+		for (int i = 0; i < position && set != 0; i++) {
+			set &= set - 1;
+		}
+		return (set == 0) ? -1 : Long.numberOfTrailingZeros(set);
+	}
+
+	/**
+	 * A method for getting the subset of cards at the specified positions
+	 * of a set sorted from weakest to strongest, e.g. the cards selected
+	 * by a player from his/her sorted hand.
+	 * @param set set of cards
+	 * @param positions positions in the sorted set
+	 * @return the selected cards, or -1 if any position is out of range
+	 */
+	public static long select(long set, int[] positions) {
+		long selected = EMPTY;
+		for (int i = 0; i < positions.length; i++) {
+			int bit = bitAt(set, positions[i]);
+			if (bit < 0) {
+				return -1L;
+			}
+			selected |= 1L << bit;
+		}
+		return selected;
+	}
+
+	/**
+	 * A method for adding the cards of a set to a list of cards, from
+	 * weakest to strongest.
+	 * @param set set of cards
+	 * @param cards list of cards to add to
+	 */
+	public static void addTo(long set, CardList cards) {
+		for (long s = set; s != 0; s &= s - 1) {
+			cards.addCard(CARDS[Long.numberOfTrailingZeros(s)]);
+		}
+	}
+
+	/**
+	 * A method for adding the cards of a set to the hand of a player, from
+	 * weakest to strongest.
+	 * @param set set of cards
+	 * @param player player to give the cards to
+	 */
+	public static void addTo(long set, CardGamePlayer player) {
+		for (long s = set; s != 0; s &= s - 1) {
+			player.addCard(CARDS[Long.numberOfTrailingZeros(s)]);
+		}
+	}
+
+	/**
+	 * A method for getting a sorted list of the cards in a set.
+	 * @param set set of cards
+	 * @return list of the cards from weakest to strongest
+	 */
+	public static CardList toCardList(long set) {
+		CardList cards = new CardList();
+		addTo(set, cards);
+		return cards;
+	}
+
+	/**
+	 * A method for getting a readable string of the cards in a set,
+	 * e.g. "[3D 3C KS]".
+	 * @param set set of cards
+	 * @return string of the cards in the set
+	 */
+	public static String toString(long set) {
+		StringBuilder sb = new StringBuilder("[");
+		for (long s = set; s != 0; s &= s - 1) {
+			int bit = Long.numberOfTrailingZeros(s);
+			sb.append("3456789TJQKA2".charAt(bigTwoRankOf(bit)));
+			sb.append("DCHS".charAt(suitOf(bit)));
+			if ((s & (s - 1)) != 0) {
+				sb.append(' ');
+			}
+		}
+		return sb.append(']').toString();
+	}
+}
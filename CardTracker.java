@@ -0,0 +1,299 @@
+import java.util.Arrays;
+
+/**
+ * The CardTracker class keeps count of the cards from one player's point
+ * of view as the moves of a game are made, so that bots and hints need
+ * not go through the whole history of the game each turn. It is updated
+ * once per move and keeps, as CardSet bitmasks, the player's hand, the
+ * cards played and the cards still unseen (held by the other players).
+ * <p>
+ * A player who passes on a hand is taken to hold nothing of the same size
+ * that beats it: passing on a single rules out every higher card, and
+ * passing on a pair of 7s any pair above it. Players may pass on purpose,
+ * so the inferences about a player are dropped as soon as he/she plays a
+ * card they have ruled out or a hand beating one he/she has passed on.
+ * Whether a card or hand can still be beaten is answered from the
+ * bitmasks without going through the moves, with a shift for a single
+ * and at most one look at each rank otherwise.
+ * @author michael
+ *
+ */
+public class CardTracker {
+	private static final int NUM_OF_PLAYERS = 4;			// number of players in a game
+	private static final int NUM_OF_SIZES = 4;				// number of hand sizes: 1, 2, 3 and 5 cards
+
+	private int playerIdx;				// the index of the player the cards are tracked for, or -1 for none
+	private long hand;					// the cards in the player's hand
+	private long playedCards;			// the cards played so far
+	private long unseenCards;			// the cards held by the other players
+	private long lastHand;				// the cards of the last hand on table, or 0 if none
+	private int lastHandPlayer;			// the index of the player of the last hand on table, or -1 if none
+	private long[] ruledOut;			// the cards each player is taken not to hold
+	private int[][] passedOn;			// the weakest hand of each size each player has passed on
+
+	/**
+	 * Creates and returns an instance of the CardTracker class, tracking
+	 * no game until start() is called.
+	 */
+	public CardTracker() {
+		ruledOut = new long[NUM_OF_PLAYERS];
+		passedOn = new int[NUM_OF_PLAYERS][NUM_OF_SIZES];
+		start(-1, CardSet.EMPTY, CardSet.ALL, CardSet.EMPTY, -1);
+	}
+
+	/**
+	 * A method for starting to track a game, either newly dealt or resumed
+	 * part way through.
+	 * @param playerIdx index of the player the cards are tracked for, or -1 to track the played cards only
+	 * @param hand the cards in the player's hand
+	 * @param playedCards the cards already played, as far as they are known
+	 * @param lastHand the cards of the last hand on table, or 0 if none
+	 * @param lastHandPlayer index of the player of the last hand on table, or -1 if none
+	 */
+	public void start(int playerIdx, long hand, long playedCards, long lastHand, int lastHandPlayer) {
+		this.playerIdx = playerIdx;
+		this.hand = hand;
+		this.playedCards = playedCards | lastHand;
+		this.unseenCards = CardSet.ALL & ~hand & ~this.playedCards;
+		this.lastHand = lastHand;
+		this.lastHandPlayer = lastHandPlayer;
+		for (int i = 0; i < NUM_OF_PLAYERS; i++) {
+			forget(i);
+		}
+	}
+
+	/**
+	 * A method for updating the cards with a move that has been accepted.
+	 * @param playerIdx index of the player making the move
+	 * @param cards cards played by the player, 0 to pass
+	 */
+	public void update(int playerIdx, long cards) {
+		if (cards == CardSet.EMPTY) {
+			if (lastHand != CardSet.EMPTY && lastHandPlayer != playerIdx) {
+				int strength = HandClassifier.classify(lastHand);
+				int size = sizeIndex(Long.bitCount(lastHand));
+				if (strength < passedOn[playerIdx][size]) {
+					passedOn[playerIdx][size] = strength;
+				}
+				if (size == 0) {
+					ruledOut[playerIdx] |= ~((2L << CardSet.highest(lastHand)) - 1) & CardSet.ALL;
+				}
+			}
+			return;
+		}
+		if ((cards & ruledOut[playerIdx]) != 0
+				|| HandClassifier.classify(cards) > passedOn[playerIdx][sizeIndex(Long.bitCount(cards))]) {
+			forget(playerIdx);
+		}
+		hand &= ~cards;
+		unseenCards &= ~cards;
+		playedCards |= cards;
+		lastHand = cards;
+		lastHandPlayer = playerIdx;
+	}
+
+	/**
+	 * A method for getting the index of the player the cards are tracked for.
+	 * @return index of the player, or -1 if none
+	 */
+	public int getPlayerIdx() {
+		return playerIdx;
+	}
+
+	/**
+	 * A method for getting the cards in the player's hand.
+	 * @return the cards in the hand as a CardSet bitmask
+	 */
+	public long getHand() {
+		return hand;
+	}
+
+	/**
+	 * A method for getting the cards played so far.
+	 * @return the cards played as a CardSet bitmask
+	 */
+	public long getPlayedCards() {
+		return playedCards;
+	}
+
+	/**
+	 * A method for getting the cards the player has not seen, which are
+	 * held by the other players.
+	 * @return the unseen cards as a CardSet bitmask
+	 */
+	public long getUnseenCards() {
+		return unseenCards;
+	}
+
+	/**
+	 * A method for getting the cards another player may hold: the unseen
+	 * cards, except those ruled out by the singles he/she has passed on.
+	 * @param playerIdx index of the player
+	 * @return the cards as a CardSet bitmask, the hand itself for the tracked player
+	 */
+	public long getPossibleCards(int playerIdx) {
+		if (playerIdx == this.playerIdx) {
+			return hand;
+		}
+		return unseenCards & ~ruledOut[playerIdx];
+	}
+
+	/**
+	 * A method for checking whether a card is the boss card, i.e. no unseen
+	 * card is higher.
+	 * @param bitIndex bit index of the card (see CardSet)
+	 * @return true if no other player can beat the card as a single
+	 */
+	public boolean isBoss(int bitIndex) {
+		return (unseenCards >>> bitIndex >>> 1) == 0;
+	}
+
+	/**
+	 * A method for checking whether a hand is the boss of its size, i.e. no
+	 * hand of the same size can be made from the unseen cards to beat it.
+	 * The unseen cards are taken together, so the answer holds whatever
+	 * way they are divided among the other players.
+	 * @param cards cards of the hand
+	 * @return true if no other player can beat the hand
+	 */
+	public boolean isBoss(long cards) {
+		return strongest(unseenCards, Long.bitCount(cards)) <= HandClassifier.classify(cards);
+	}
+
+	/**
+	 * A method for checking whether a player may be able to beat a hand,
+	 * given the cards he/she may hold and the hands he/she has passed on.
+	 * @param playerIdx index of the player
+	 * @param cards cards of the hand
+	 * @return false if the player cannot beat the hand, otherwise true
+	 */
+	public boolean mayBeat(int playerIdx, long cards) {
+		int strength = HandClassifier.classify(cards);
+		int size = Long.bitCount(cards);
+		if (playerIdx != this.playerIdx && passedOn[playerIdx][sizeIndex(size)] <= strength) {
+			return false;
+		}
+		return strongest(getPossibleCards(playerIdx), size) > strength;
+	}
+
+	/**
+	 * A method for checking whether any player other than the tracked one
+	 * may be able to beat a hand (see mayBeat()).
+	 * @param cards cards of the hand
+	 * @return false if none of the other players can beat the hand, otherwise true
+	 */
+	public boolean mayBeBeaten(long cards) {
+		for (int i = 0; i < NUM_OF_PLAYERS; i++) {
+			if (i != playerIdx && mayBeat(i, cards)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * A method for forgetting what has been inferred about a player.
+	 */
+	private void forget(int playerIdx) {
+		ruledOut[playerIdx] = CardSet.EMPTY;
+		Arrays.fill(passedOn[playerIdx], Integer.MAX_VALUE);
+	}
+
+	/**
+	 * A method for getting the index of a hand size in passedOn.
+	 */
+	private static int sizeIndex(int size) {
+		return (size >= 5) ? 3 : size - 1;
+	}
+
+	/**
+	 * A method for working out the strongest hand of a size that can be made
+	 * from some cards. The ranks are looked at from the top, so that it
+	 * mostly stops at the first one.
+	 * @param cards the cards
+	 * @param size number of cards of the hand: 1, 2, 3 or 5
+	 * @return strength of the strongest hand (see HandClassifier), or INVALID if none
+	 */
+	static int strongest(long cards, int size) {
+		if (size == 1) {
+			return (cards == 0) ? HandClassifier.INVALID
+					: HandClassifier.strength(HandClassifier.SINGLE, CardSet.highest(cards));
+		}
+		if (size == 2 || size == 3) {
+			for (int r = 12; r >= 0; r--) {
+				long rank = cards & CardSet.rankMask(r);
+				if (Long.bitCount(rank) >= size) {
+					return HandClassifier.strength(size, CardSet.highest(rank));
+				}
+			}
+			return HandClassifier.INVALID;
+		}
+		if (size != 5 || Long.bitCount(cards) < 5) {
+			return HandClassifier.INVALID;
+		}
+
+		int ranks = 0;							// a bit for each rank present
+		int[] suitRanks = new int[4];			// a bit for each rank present in each suit
+		int tripleRank = -1;					// the highest rank with at least three cards
+		int numOfPairRanks = 0;					// number of ranks with at least two cards
+		int quadRank = -1;						// the highest rank with four cards
+		for (int r = 12; r >= 0; r--) {
+			int nibble = (int) (cards >>> (r * 4)) & 0xF;
+			if (nibble == 0) {
+				continue;
+			}
+			ranks |= 1 << r;
+			for (int s = 0; s < 4; s++) {
+				suitRanks[s] |= ((nibble >>> s) & 1) << r;
+			}
+			int count = Integer.bitCount(nibble);
+			if (count >= 2) {
+				numOfPairRanks++;
+			}
+			if (count >= 3 && tripleRank < 0) {
+				tripleRank = r;
+			}
+			if (count == 4 && quadRank < 0) {
+				quadRank = r;
+			}
+		}
+
+		int best = HandClassifier.INVALID;
+		for (int s = 0; s < 4; s++) {
+			int top = topOfStraight(suitRanks[s]);
+			if (top >= 0) {
+				best = Math.max(best, HandClassifier.strength(HandClassifier.STRAIGHT_FLUSH, top * 4 + s));
+			}
+		}
+		if (best != HandClassifier.INVALID) {
+			return best;
+		}
+		if (quadRank >= 0) {
+			return HandClassifier.strength(HandClassifier.QUAD, quadRank * 4 + 3);
+		}
+		if (tripleRank >= 0 && numOfPairRanks >= 2) {
+			return HandClassifier.strength(HandClassifier.FULL_HOUSE,
+					CardSet.highest(cards & CardSet.rankMask(tripleRank)));
+		}
+		for (int s = 3; s >= 0; s--) {
+			if (Integer.bitCount(suitRanks[s]) >= 5) {
+				return HandClassifier.strength(HandClassifier.FLUSH, s * 13 + 31 - Integer.numberOfLeadingZeros(suitRanks[s]));
+			}
+		}
+		int top = topOfStraight(ranks);
+		if (top >= 0) {
+			return HandClassifier.strength(HandClassifier.STRAIGHT, CardSet.highest(cards & CardSet.rankMask(top)));
+		}
+		return HandClassifier.INVALID;
+	}
+
+	/**
+	 * A method for finding the top rank of the highest five consecutive ranks.
+	 * @param ranks a bit for each rank
+	 * @return the top rank, or -1 if there are no five consecutive ranks
+	 */
+	private static int topOfStraight(int ranks) {
+		int runs = ranks & (ranks >>> 1) & (ranks >>> 2) & (ranks >>> 3) & (ranks >>> 4);
+		return (runs == 0) ? -1 : 31 - Integer.numberOfLeadingZeros(runs) + 4;
+	}
+}
@@ -0,0 +1,31 @@
+/**
+ * The ClientConnection interface models the connection of one client to a
+ * server transport. It is used by BigTwoGameRoom to talk to its players
+ * without knowing how messages are carried.
+ * @author michael
+ *
+ */
+public interface ClientConnection {
+	/**
+	 * A method for sending a message to the client.
+	 * @param message message to be sent
+	 */
+	void send(CardGameMessage message);
+
+	/**
+	 * A method for closing the connection.
+	 */
+	void close();
+
+	/**
+	 * A method for getting the protocol version spoken by the client.
+	 * @return the protocol version (see CardGameMessageCodec)
+	 */
+	int getProtocolVersion();
+
+	/**
+	 * A method for getting the address of the client.
+	 * @return the address of the client, e.g. "/127.0.0.1:50123"
+	 */
+	String getAddress();
+}
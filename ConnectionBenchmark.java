@@ -0,0 +1,125 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.net.Socket;
+
+/**
+ * The ConnectionBenchmark class compares the cost of holding many idle
+ * connections on a BlockingGameServer served by virtual threads and by
+ * platform threads. For each model it opens the connections from the same
+ * process, waits until every one is being served and reports the number of
+ * live threads, the heap in use and the resident set size of the process,
+ * together with the time taken to accept the connections and to shut them
+ * all down again. Each model is measured in a fresh JVM so that the
+ * numbers of one do not leak into the other.
+ * @author michael
+ *
+ */
+public class ConnectionBenchmark {
+	/**
+	 * main() method for running the benchmark.
+	 *
+	 * @param args
+	 *            the number of connections and optionally the thread model
+	 *            to measure ("virtual" or "platform"). 10000 connections are
+	 *            opened if no arguments has been supplied, and both models
+	 *            are measured, each in a child JVM, if no model is given.
+	 *            Note that each connection takes two file descriptors, one
+	 *            for each end
+	 * @throws Exception if the server cannot be started or a connection fails
+	 */
+	public static void main(String[] args) throws Exception {
+		int numOfConnections = (args.length > 0) ? Integer.parseInt(args[0]) : 10000;
+		if (args.length > 1) {
+			measure(numOfConnections, args[1].equals("virtual"));
+			return;
+		}
+		if (!ConnectionThreads.isVirtualSupported()) {
+			System.out.println("virtual threads are not supported by this runtime ("
+					+ System.getProperty("java.version") + "), the virtual model falls back to platform threads");
+		}
+		for (String model : new String[] {"platform", "virtual"}) {
+			String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+			Process child = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+					ConnectionBenchmark.class.getName(), String.valueOf(numOfConnections), model)
+					.redirectErrorStream(true).start();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(child.getInputStream()));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				System.out.println(line);
+			}
+			child.waitFor();
+		}
+	}
+
+	private static void measure(int numOfConnections, boolean useVirtual) throws Exception {
+		BlockingGameServer server = new BlockingGameServer(
+				new TableHost(new BigTwoServer(), 1, 1), useVirtual);
+		server.start(0);
+		long threadsBefore = ManagementFactory.getThreadMXBean().getThreadCount();
+		long heapBefore = usedHeap();
+		long rssBefore = residentSetSize();
+
+		long startTime = System.nanoTime();
+		Socket[] sockets = new Socket[numOfConnections];
+		for (int i = 0; i < numOfConnections; i++) {
+			sockets[i] = new Socket("127.0.0.1", server.getPort());
+			// a lobby client that never joins a table stays idle in its read loop
+			sockets[i].getOutputStream().write(CardGameMessageCodec.VERSION | CardGameMessageCodec.LOBBY_FLAG);
+		}
+		// each connection has a read thread and, once it has shaken hands, a writer thread
+		while (server.getThreads().getNumOfThreads() < 2 * numOfConnections) {
+			Thread.sleep(10);
+		}
+		double acceptSeconds = (System.nanoTime() - startTime) / 1e9;
+
+		long threads = ManagementFactory.getThreadMXBean().getThreadCount() - threadsBefore;
+		long heap = usedHeap() - heapBefore;
+		long rss = residentSetSize() - rssBefore;
+		startTime = System.nanoTime();
+		server.stop();
+		double stopSeconds = (System.nanoTime() - startTime) / 1e9;
+		for (int i = 0; i < numOfConnections; i++) {
+			sockets[i].close();
+		}
+
+		System.out.printf("model=%s connections=%d platform-threads=+%d heap=+%.1fMB (%.1fKB/conn)"
+				+ " rss=%s accept=%.2fs shutdown=%.2fs%n",
+				server.getThreads().isVirtual() ? "virtual" : "platform", numOfConnections, threads,
+				heap / 1048576.0, heap / 1024.0 / numOfConnections,
+				rss < 0 ? "n/a" : String.format("+%.1fMB (%.1fKB/conn)", rss / 1048576.0, rss / 1024.0 / numOfConnections),
+				acceptSeconds, stopSeconds);
+		System.exit(0);
+	}
+
+	private static long usedHeap() throws InterruptedException {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			Thread.sleep(50);
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Reads the resident set size of the process from /proc, which only
+	 * exists on Linux.
+	 * @return resident set size in bytes, or -1 if not available
+	 */
+	private static long residentSetSize() {
+		try (BufferedReader reader = new BufferedReader(new FileReader("/proc/self/status"))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("VmRSS:")) {
+					return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+				}
+			}
+		} catch (IOException e) {
+			// not on Linux
+		}
+		return -1;
+	}
+}
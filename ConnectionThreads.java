@@ -0,0 +1,168 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The ConnectionThreads class starts and owns the threads that serve
+ * connections with blocking reads, one thread per connection. On a Java
+ * runtime with virtual threads (Java 21 or later) the threads are virtual,
+ * so that tens of thousands of mostly idle connections cost little memory
+ * and no kernel threads; otherwise, or if asked to, they are ordinary
+ * platform threads. Virtual threads are looked up by reflection so that
+ * the class still compiles and runs on older runtimes.
+ * <p>
+ * The threads are structured: every thread started by an instance is
+ * tracked together with the connection it serves, and shutdown() closes
+ * all those connections, which unblocks their reads, and waits for the
+ * threads to finish.
+ * @author michael
+ *
+ */
+public class ConnectionThreads implements ThreadFactory {
+	private static final ThreadFactory VIRTUAL_FACTORY = createVirtualFactory();	// the virtual thread factory, or null if not supported
+
+	private String name;							// the prefix of the thread names
+	private boolean virtual;						// whether the threads are virtual
+	private Map<Thread, Closeable> threads;			// the live threads and the connections they serve
+	private AtomicLong nextThreadId;				// a counter for naming threads
+	private volatile boolean shutdown;				// whether shutdown() has been called
+
+	/**
+	 * Creates and returns an instance of the ConnectionThreads class.
+	 * @param name prefix of the names of the threads
+	 * @param useVirtual whether to use virtual threads if the runtime supports them
+	 */
+	public ConnectionThreads(String name, boolean useVirtual) {
+		this.name = name;
+		virtual = useVirtual && VIRTUAL_FACTORY != null;
+		threads = new ConcurrentHashMap<Thread, Closeable>();
+		nextThreadId = new AtomicLong();
+	}
+
+	/**
+	 * A method for checking whether the runtime supports virtual threads.
+	 * @return true if virtual threads are available, otherwise false
+	 */
+	public static boolean isVirtualSupported() {
+		return VIRTUAL_FACTORY != null;
+	}
+
+	/**
+	 * A method for checking whether the threads started are virtual.
+	 * @return true if the threads are virtual, otherwise false
+	 */
+	public boolean isVirtual() {
+		return virtual;
+	}
+
+	/**
+	 * A method for getting the number of threads still running.
+	 * @return number of live threads
+	 */
+	public int getNumOfThreads() {
+		return threads.size();
+	}
+
+	/**
+	 * A method for creating a thread that is not tracked by this instance.
+	 * Platform threads are created as daemon threads; virtual threads
+	 * always are.
+	 * @param task task to be run by the thread
+	 * @return a new thread that has not been started
+	 */
+	@Override
+	public Thread newThread(Runnable task) {
+		Thread thread;
+		if (virtual) {
+			thread = VIRTUAL_FACTORY.newThread(task);
+		}
+		else {
+			thread = new Thread(task);
+			thread.setDaemon(true);
+		}
+		thread.setName(name + "-" + nextThreadId.incrementAndGet());
+		return thread;
+	}
+
+	/**
+	 * A method for starting a thread serving a connection. The connection
+	 * is closed by shutdown() if the thread is still running then.
+	 * @param task task to be run by the thread
+	 * @param connection connection served by the task, or null if none
+	 * @return the thread started, or null if shutdown() has been called
+	 */
+	public Thread start(final Runnable task, Closeable connection) {
+		if (shutdown) {
+			close(connection);
+			return null;
+		}
+		Thread thread = newThread(new Runnable() {
+			public void run() {
+				try {
+					task.run();
+				} finally {
+					threads.remove(Thread.currentThread());
+				}
+			}
+		});
+		threads.put(thread, connection == null ? thread::interrupt : connection);
+		thread.start();
+		if (shutdown) {
+			close(threads.remove(thread));
+		}
+		return thread;
+	}
+
+	/**
+	 * A method for stopping all threads. No more threads are started, the
+	 * connections of the running ones are closed and their threads are
+	 * interrupted, and the method waits for them to finish.
+	 * @param timeoutMillis maximum time to wait, in milliseconds
+	 * @return true if all threads have finished, otherwise false
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public boolean shutdown(long timeoutMillis) throws InterruptedException {
+		shutdown = true;
+		for (Map.Entry<Thread, Closeable> entry : threads.entrySet()) {
+			close(entry.getValue());
+			entry.getKey().interrupt();
+		}
+		long deadline = System.currentTimeMillis() + timeoutMillis;
+		for (Thread thread : threads.keySet()) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				break;
+			}
+			thread.join(remaining);
+		}
+		return threads.isEmpty();
+	}
+
+	private static void close(Closeable connection) {
+		if (connection == null) {
+			return;
+		}
+		try {
+			connection.close();
+		} catch (IOException e) {
+			// the connection is being discarded anyway
+		}
+	}
+
+	private static ThreadFactory createVirtualFactory() {
+		try {
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+			return (ThreadFactory) factory.invoke(builder);
+		} catch (ReflectiveOperationException e) {
+			return null;
+		} catch (RuntimeException e) {
+			// e.g. virtual threads are a preview feature that is not enabled
+			return null;
+		}
+	}
+}
@@ -0,0 +1,55 @@
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The ConsistentHashRing class maps keys (e.g. table ids) to one of a
+ * fixed number of shards. Every shard is placed on the ring at several
+ * points (virtual nodes), and a key belongs to the shard of the first
+ * point at or after its hash. Keys are spread evenly over the shards,
+ * and adding or removing a shard only moves the keys next to it.
+ * @author michael
+ *
+ */
+public class ConsistentHashRing {
+	public static final int VIRTUAL_NODES = 64;		// points on the ring for each shard
+
+	private TreeMap<Integer, Integer> ring;			// a map from a point on the ring to its shard
+
+	/**
+	 * Creates and returns an instance of the ConsistentHashRing class.
+	 * @param numOfShards number of shards
+	 */
+	public ConsistentHashRing(int numOfShards) {
+		ring = new TreeMap<Integer, Integer>();
+		for (int shard = 0; shard < numOfShards; shard++) {
+			for (int node = 0; node < VIRTUAL_NODES; node++) {
+				ring.put(mix(shard * 0x10001 + node * 0x9E3779B9), shard);
+			}
+		}
+	}
+
+	/**
+	 * A method for getting the shard of a key.
+	 * @param key the key
+	 * @return index of the shard the key belongs to
+	 */
+	public int shardOf(String key) {
+		Map.Entry<Integer, Integer> entry = ring.ceilingEntry(mix(key.hashCode()));
+		return (entry != null) ? entry.getValue() : ring.firstEntry().getValue();
+	}
+
+	/**
+	 * A method for scrambling the bits of a hash code (the finalizer of
+	 * MurmurHash3), so that similar keys land far apart on the ring.
+	 * @param h a hash code
+	 * @return the scrambled hash code
+	 */
+	private static int mix(int h) {
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		return h;
+	}
+}
@@ -0,0 +1,103 @@
+import java.util.Arrays;
+import java.util.Random;
+import java.util.SplittableRandom;
+
+/**
+ * The EndgameBenchmark class measures how long an EndgameSolver takes.
+ * Random endgames are dealt, with the same number of cards in each hand
+ * and a new round for a random player, and solved with every hand known;
+ * then the player's move is chosen with chooseMove() from what the player
+ * can see, dealing the other hands. The percentiles of the times are
+ * reported, with the number of positions searched by solve().
+ * @author michael
+ *
+ */
+public class EndgameBenchmark {
+	/**
+	 * main() method for running the benchmark.
+	 *
+	 * @param args
+	 *            the number of cards in each hand, the number of endgames,
+	 *            and the maximum numbers of deals and of positions searched
+	 *            of chooseMove(). 6 cards, 200 endgames, 32 deals and 400000
+	 *            positions (about 100 ms) are used if no arguments has been
+	 *            supplied
+	 */
+	public static void main(String[] args) {
+		int numOfCards = (args.length > 0) ? Integer.parseInt(args[0]) : 6;
+		int numOfEndgames = (args.length > 1) ? Integer.parseInt(args[1]) : 200;
+		int maxDeals = (args.length > 2) ? Integer.parseInt(args[2]) : 32;
+		long maxNodes = (args.length > 3) ? Long.parseLong(args[3]) : 400000;
+
+		EndgameSolver solver = new EndgameSolver(4 * numOfCards, EndgameSolver.DEFAULT_TABLE_BITS);
+		Random random = new Random(2396);
+		SplittableRandom dealRandom = new SplittableRandom(2396);
+		long[] solveTimes = new long[numOfEndgames];
+		long[] chooseTimes = new long[numOfEndgames];
+		long[] nodes = new long[numOfEndgames];
+		int numOfWins = 0;
+		long numOfDeals = 0;
+		for (int e = 0; e < numOfEndgames; e++) {
+			int[] deck = shuffledDeck(random);
+			long[] hands = new long[BigTwoGameState.NUM_OF_PLAYERS];
+			long playedCards = CardSet.EMPTY;
+			for (int i = 0; i < deck.length; i++) {
+				if (i < hands.length * numOfCards) {
+					hands[i / numOfCards] |= 1L << deck[i];
+				}
+				else {
+					playedCards |= 1L << deck[i];
+				}
+			}
+			int playerIdx = random.nextInt(hands.length);
+			BigTwoGameState state = new BigTwoGameState(hands, playerIdx, CardSet.EMPTY, playerIdx, 0);
+
+			long startTime = System.nanoTime();
+			if (solver.solve(state)) {
+				numOfWins++;
+			}
+			solveTimes[e] = System.nanoTime() - startTime;
+			nodes[e] = solver.getNumOfNodes();
+
+			startTime = System.nanoTime();
+			long move = solver.chooseMove(state.snapshot(playerIdx), playedCards, maxDeals, maxNodes, dealRandom);
+			chooseTimes[e] = System.nanoTime() - startTime;
+			numOfDeals += solver.getNumOfDeals();
+			if (state.check(playerIdx, move) != BigTwoGameState.ACCEPTED) {
+				throw new IllegalStateException("Illegal move " + CardSet.toString(move));
+			}
+		}
+
+		System.out.printf("endgames=%d cards per hand=%d won by the player to move=%d%n", numOfEndgames, numOfCards,
+				numOfWins);
+		System.out.printf("solve %s nodes p50=%d p99=%d%n", percentiles(solveTimes), percentile(nodes, 0.5),
+				percentile(nodes, 0.99));
+		System.out.printf("choose move (up to %d deals, %.1f solved) %s%n", maxDeals,
+				(double) numOfDeals / numOfEndgames, percentiles(chooseTimes));
+	}
+
+	private static int[] shuffledDeck(Random random) {
+		int[] deck = new int[52];
+		for (int i = 0; i < deck.length; i++) {
+			deck[i] = i;
+		}
+		for (int i = deck.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			int bit = deck[j];
+			deck[j] = deck[i];
+			deck[i] = bit;
+		}
+		return deck;
+	}
+
+	private static String percentiles(long[] nanos) {
+		return String.format("p50=%.2fms p90=%.2fms p99=%.2fms", percentile(nanos, 0.5) / 1e6,
+				percentile(nanos, 0.9) / 1e6, percentile(nanos, 0.99) / 1e6);
+	}
+
+	private static long percentile(long[] values, double p) {
+		long[] sorted = values.clone();
+		Arrays.sort(sorted);
+		return sorted[Math.min(sorted.length - 1, (int) (p * sorted.length))];
+	}
+}
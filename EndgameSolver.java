@@ -0,0 +1,517 @@
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+
+/**
+ * The EndgameSolver class finds a winning move for the player to move near
+ * the end of a game whose hands are all known, and with chooseMove() the
+ * move most likely to win for a player who only knows the cards played and
+ * how many each player holds, by solving the ways the unseen cards may be
+ * dealt (all of them when few cards are left). The search is alpha-beta
+ * with win or loss as the only values: the player wins if some move wins
+ * whatever the others play, as if they all played against the player, and
+ * the others win if some move of theirs makes the player lose. So a winning
+ * move found wins against any play, and a search stops at the first move
+ * that decides it. Moves are tried from the weakest, and passing last. Of
+ * two singles next to each other with no card of the others between them,
+ * neither of which may go in a larger hand, only the first is tried, as
+ * the games after them are the same.
+ * <p>
+ * Positions already solved are kept in a transposition table keyed by a
+ * Zobrist hash of the hands, whose turn it is and, unless a new round
+ * starts, the last hand on table and its player. The table is kept from
+ * one call to the next, so a bot solving each of its turns finds the
+ * positions of the previous search. Only positions with at most a maximum
+ * number of cards left are solved (see canSolve()). An instance is not
+ * safe to use from more than one thread.
+ * @author michael
+ *
+ */
+public class EndgameSolver {
+	public static final int DEFAULT_MAX_CARDS = 24;		// default maximum number of cards left in a position solved
+	public static final int DEFAULT_TABLE_BITS = 20;	// default log2 of the number of entries of the table
+
+	private static final long ALL_CARDS = (1L << 52) - 1;	// every card of the deck as a CardSet
+	private static final int WIN = 1;						// the value of an entry won by the player solved for
+	private static final int LOSS = 2;						// the value of an entry lost by the player solved for
+	private static final long[] CARD_KEYS;					// the key of each card in each player's hand
+	private static final long[] LAST_HAND_KEYS;				// the key of each card of the last hand on table
+	private static final long[] TURN_KEYS;					// the keys of the current player (from 0), of the player of
+															// the last hand (from 4, 4 for none), of a new round for the
+															// current player (from 9) and of the player solved for (from 13)
+
+	static {
+		SplittableRandom random = new SplittableRandom(2396);
+		CARD_KEYS = keys(random, BigTwoGameState.NUM_OF_PLAYERS * 52);
+		LAST_HAND_KEYS = keys(random, 52);
+		TURN_KEYS = keys(random, 17);
+	}
+
+	private int maxCards;					// maximum number of cards left in a position solved
+	private long[] tableKeys;				// the key of the position of each entry
+	private byte[] tableValues;				// WIN or LOSS of each entry, 0 if empty
+	private int tableMask;					// the number of entries - 1
+	private long[][] moveLists;				// the moves generated at each depth of the search
+	private long[] hands;					// the cards in each player's hand during the search
+	private long handsKey;					// the XOR of the keys of the cards in the hands
+	private long lastHand;					// the cards of the last hand on table, or 0 if none
+	private int lastHandPlayer;				// the index of the player of the last hand, or -1 if none
+	private int currentIdx;					// the index of the player to move
+	private int solvedIdx;					// the index of the player solved for
+	private long bestMove;					// the move found by the last solve()
+	private long numOfNodes;				// the number of positions searched by the last solve()
+	private int numOfDeals;					// the number of deals solved by the last chooseMove()
+	private int numOfWins;					// the number of those deals won by the move chosen
+	private long nodeLimit = Long.MAX_VALUE;	// the number of positions after which a search is given up
+	private boolean isAborted;				// whether the search has been given up
+
+	/**
+	 * Creates and returns an instance of the EndgameSolver class with the
+	 * default limits.
+	 */
+	public EndgameSolver() {
+		this(DEFAULT_MAX_CARDS, DEFAULT_TABLE_BITS);
+	}
+
+	/**
+	 * Creates and returns an instance of the EndgameSolver class.
+	 * @param maxCards maximum number of cards left, over all hands, in a position solved
+	 * @param tableBits log2 of the number of entries of the transposition table
+	 */
+	public EndgameSolver(int maxCards, int tableBits) {
+		this.maxCards = maxCards;
+		tableKeys = new long[1 << tableBits];
+		tableValues = new byte[1 << tableBits];
+		tableMask = (1 << tableBits) - 1;
+		moveLists = new long[4 * maxCards + 4][];
+		hands = new long[BigTwoGameState.NUM_OF_PLAYERS];
+	}
+
+	/**
+	 * A method for checking whether a position is small enough to be solved.
+	 * @param state the game
+	 * @return true if the game is in progress with at most the maximum number of cards left
+	 */
+	public boolean canSolve(BigTwoGameState state) {
+		int numOfCards = 0;
+		for (int i = 0; i < BigTwoGameState.NUM_OF_PLAYERS; i++) {
+			numOfCards += state.getNumOfCards(i);
+		}
+		return !state.isGameOver() && numOfCards <= maxCards;
+	}
+
+	/**
+	 * A method for solving a position for the player to move. The move to
+	 * play is then given by getBestMove().
+	 * @param state the game, which is not changed; canSolve() must be true
+	 * @return true if the player to move can win whatever the others play, otherwise false
+	 */
+	public boolean solve(BigTwoGameState state) {
+		load(state);
+		return search(0);
+	}
+
+	/**
+	 * A method for checking whether a move of the player to move wins
+	 * whatever the others play.
+	 * @param state the game, which is not changed; canSolve() must be true
+	 * @param cards a legal move of the player to move, or 0 to pass
+	 * @return true if the move wins, otherwise false
+	 */
+	public boolean isWinningMove(BigTwoGameState state, long cards) {
+		load(state);
+		return play(cards, 0);
+	}
+
+	/**
+	 * A method for getting the move found by the last solve(): a winning
+	 * move if there is one, otherwise the first move tried.
+	 * @return cards to play as a CardSet, or 0 to pass
+	 */
+	public long getBestMove() {
+		return bestMove;
+	}
+
+	/**
+	 * A method for getting the number of positions searched by the last
+	 * solve(), i.e. not found in the transposition table.
+	 * @return number of positions
+	 */
+	public long getNumOfNodes() {
+		return numOfNodes;
+	}
+
+	/**
+	 * A method for checking whether a position seen by a player is small
+	 * enough to be solved.
+	 * @param view what the player knows about the game
+	 * @return true if there are at most the maximum number of cards left
+	 */
+	public boolean canSolve(BigTwoSnapshot view) {
+		int numOfCards = 0;
+		for (int i = 0; i < BigTwoGameState.NUM_OF_PLAYERS; i++) {
+			numOfCards += view.getNumOfCards(i);
+		}
+		return numOfCards <= maxCards;
+	}
+
+	/**
+	 * A method for choosing a move for a player who cannot see the other
+	 * hands. The cards neither in the player's hand nor played are dealt to
+	 * the others, as many as each holds: in every way if there are at most
+	 * maxDeals ways, as when few cards are left, otherwise maxDeals times at
+	 * random. Each move is solved in each deal, and the move winning in the
+	 * most deals is chosen. Once maxNodes positions have been searched the
+	 * deals not yet solved are skipped. getNumOfDeals() and getNumOfWins()
+	 * then tell how sure the choice is.
+	 * @param view what the player knows about the game, with the player to move as current player;
+	 *            canSolve() must be true
+	 * @param playedCards every card played so far in the game
+	 * @param maxDeals maximum number of deals solved
+	 * @param maxNodes maximum number of positions searched, about 4000 a millisecond
+	 * @param random the source of random numbers of the deals
+	 * @return cards to play as a CardSet, or 0 to pass
+	 */
+	public long chooseMove(BigTwoSnapshot view, long playedCards, int maxDeals, long maxNodes,
+			SplittableRandom random) {
+		int seat = view.getCurrentIdx();
+		boolean isNewRound = view.getLastHandPlayer() < 0 || view.getLastHandPlayer() == seat;
+		long[] moves = new long[MoveGenerator.MAX_MOVES + 1];
+		int n = MoveGenerator.generate(view.getHand(), isNewRound ? 0 : view.getLastHand(),
+				(view.getLastHandPlayer() < 0) ? CardSet.THREE_OF_DIAMONDS : 0, moves);
+		if (!isNewRound) {
+			moves[n++] = 0;						// passing
+		}
+		numOfDeals = 0;
+		numOfWins = 0;
+		if (n <= 1) {
+			return (n == 0) ? 0 : moves[0];
+		}
+
+		long unseen = ALL_CARDS & ~view.getHand() & ~playedCards;
+		int[] numOfCards = new int[BigTwoGameState.NUM_OF_PLAYERS];
+		int numOfCardsHeld = 0;
+		for (int i = 0; i < numOfCards.length; i++) {
+			numOfCards[i] = (i == seat) ? 0 : view.getNumOfCards(i);
+			numOfCardsHeld += numOfCards[i];
+		}
+		ArrayList<long[]> deals = new ArrayList<long[]>();
+		// after a resume the cards played before it are not known, and so are dealt at random
+		if (CardSet.size(unseen) == numOfCardsHeld && numOfDeals(numOfCardsHeld, numOfCards) <= maxDeals) {
+			dealAll(unseen, numOfCards, new long[numOfCards.length], deals);
+		}
+		else {
+			int[] unseenBits = new int[CardSet.size(unseen)];
+			int u = 0;
+			for (long s = unseen; s != 0; s &= s - 1) {
+				unseenBits[u++] = Long.numberOfTrailingZeros(s);
+			}
+			for (int d = 0; d < maxDeals; d++) {
+				deals.add(dealRandomly(unseenBits, numOfCards, random));
+			}
+		}
+
+		int[] wins = new int[n];
+		boolean[] isWin = new boolean[n];
+		long numOfNodesLeft = maxNodes;
+		try {
+			for (long[] deal : deals) {
+				deal[seat] = view.getHand();
+				BigTwoGameState state = new BigTwoGameState(deal, seat, view.getLastHand(), view.getLastHandPlayer(), 0);
+				for (int c = 0; c < n && !isAborted; c++) {
+					nodeLimit = numOfNodesLeft;
+					isWin[c] = isWinningMove(state, moves[c]);
+					numOfNodesLeft -= numOfNodes;
+				}
+				if (isAborted) {
+					break;
+				}
+				for (int c = 0; c < n; c++) {
+					if (isWin[c]) {
+						wins[c]++;
+					}
+				}
+				numOfDeals++;
+			}
+		} finally {
+			nodeLimit = Long.MAX_VALUE;
+		}
+		int best = 0;
+		for (int c = 1; c < n; c++) {
+			if (wins[c] > wins[best]) {
+				best = c;
+			}
+		}
+		numOfWins = wins[best];
+		return moves[best];
+	}
+
+	/**
+	 * A method for getting the number of deals solved by the last
+	 * chooseMove().
+	 * @return number of deals, 0 if the move was the only one allowed
+	 */
+	public int getNumOfDeals() {
+		return numOfDeals;
+	}
+
+	/**
+	 * A method for getting the number of deals solved by the last
+	 * chooseMove() in which the move chosen wins.
+	 * @return number of deals won
+	 */
+	public int getNumOfWins() {
+		return numOfWins;
+	}
+
+	/**
+	 * A method for setting the fields to the position of a game.
+	 */
+	private void load(BigTwoGameState state) {
+		if (!canSolve(state)) {
+			throw new IllegalArgumentException("Position has too many cards or has ended");
+		}
+		handsKey = 0;
+		for (int i = 0; i < BigTwoGameState.NUM_OF_PLAYERS; i++) {
+			hands[i] = state.getHand(i);
+			handsKey ^= cardsKey(i, hands[i]);
+		}
+		lastHand = state.getLastHand();
+		lastHandPlayer = state.getLastHandPlayer();
+		currentIdx = state.getCurrentIdx();
+		solvedIdx = currentIdx;
+		numOfNodes = 0;
+		isAborted = false;
+	}
+
+	/**
+	 * A method for searching the position held in the fields, which are
+	 * restored before it returns.
+	 * @param depth number of moves made since the position solved
+	 * @return true if the player solved for wins, otherwise false
+	 */
+	private boolean search(int depth) {
+		boolean isNewRound = lastHandPlayer < 0 || lastHandPlayer == currentIdx;
+		long key = handsKey ^ TURN_KEYS[currentIdx] ^ TURN_KEYS[13 + solvedIdx];
+		if (isNewRound) {
+			key ^= TURN_KEYS[9 + currentIdx] ^ TURN_KEYS[4 + lastHandPlayer + 1];
+		}
+		else {
+			key ^= cardsKey(-1, lastHand) ^ TURN_KEYS[4 + lastHandPlayer + 1];
+		}
+		int slot = (int) key & tableMask;
+		if (depth > 0 && tableKeys[slot] == key && tableValues[slot] != 0) {
+			return tableValues[slot] == WIN;
+		}
+		if (++numOfNodes > nodeLimit) {
+			isAborted = true;
+			return false;
+		}
+
+		if (moveLists[depth] == null) {
+			moveLists[depth] = new long[MoveGenerator.MAX_MOVES];
+		}
+		long[] moves = moveLists[depth];
+		int n = MoveGenerator.generate(hands[currentIdx], isNewRound ? 0 : lastHand,
+				(lastHandPlayer < 0) ? CardSet.THREE_OF_DIAMONDS : 0, moves);
+		boolean isSolvedPlayer = currentIdx == solvedIdx;
+		boolean isWon = !isSolvedPlayer;			// nothing found yet: no win for the player, no refutation for the others
+		for (int i = 0; i < n; i++) {
+			if (moves[i] == hands[currentIdx]) {
+				// the player to move goes out, which decides the game
+				if (depth == 0) {
+					bestMove = moves[i];
+				}
+				tableKeys[slot] = key;
+				tableValues[slot] = (byte) (isSolvedPlayer ? WIN : LOSS);
+				return isSolvedPlayer;
+			}
+		}
+		long others = CardSet.EMPTY;				// the cards held by the other players
+		for (int i = 0; i < hands.length; i++) {
+			if (i != currentIdx) {
+				others |= hands[i];
+			}
+		}
+		long combinable = combinableCards(hands[currentIdx]);
+		long lastSingle = CardSet.EMPTY;
+		int numOfOptions = isNewRound ? n : n + 1;	// passing is the last option
+		for (int i = 0; i < numOfOptions; i++) {
+			long cards = (i < n) ? moves[i] : 0;
+			if (CardSet.size(cards) == 1) {
+				// a single next to the last one tried, with no card of the others between them and
+				// neither of them in a larger hand, leaves the same game with the two cards swapped
+				long between = (cards - 1) & ~((lastSingle << 1) - 1);
+				boolean isSame = lastSingle != CardSet.EMPTY && (between & others) == 0
+						&& ((lastSingle | cards) & combinable) == 0;
+				lastSingle = cards;
+				if (isSame) {
+					continue;
+				}
+			}
+			boolean isWin = play(cards, depth);
+			if (isAborted) {
+				return false;						// nothing is known of this position
+			}
+			if (depth == 0 && (i == 0 || isWin)) {
+				bestMove = cards;
+			}
+			if (isWin == isSolvedPlayer) {
+				isWon = isWin;
+				break;
+			}
+		}
+		tableKeys[slot] = key;
+		tableValues[slot] = (byte) (isWon ? WIN : LOSS);
+		return isWon;
+	}
+
+	/**
+	 * A method for making a move of the player to move, searching the
+	 * position after it and taking the move back.
+	 * @return true if the player solved for wins, otherwise false
+	 */
+	private boolean play(long cards, int depth) {
+		int playerIdx = currentIdx;
+		long savedLastHand = lastHand;
+		int savedLastHandPlayer = lastHandPlayer;
+		boolean isWin;
+		if (cards != 0) {
+			hands[playerIdx] &= ~cards;
+			handsKey ^= cardsKey(playerIdx, cards);
+			lastHand = cards;
+			lastHandPlayer = playerIdx;
+		}
+		if (cards != 0 && hands[playerIdx] == 0) {
+			isWin = playerIdx == solvedIdx;
+		}
+		else {
+			currentIdx = (playerIdx + 1) % BigTwoGameState.NUM_OF_PLAYERS;
+			isWin = search(depth + 1);
+		}
+		currentIdx = playerIdx;
+		lastHand = savedLastHand;
+		lastHandPlayer = savedLastHandPlayer;
+		if (cards != 0) {
+			hands[playerIdx] |= cards;
+			handsKey ^= cardsKey(playerIdx, cards);
+		}
+		return isWin;
+	}
+
+	/**
+	 * A method for counting the ways to deal some cards, as many to each
+	 * player as given, up to Integer.MAX_VALUE.
+	 */
+	private static long numOfDeals(int numOfCards, int[] numOfCardsDealt) {
+		long ways = 1;
+		int left = numOfCards;
+		for (int i = 0; i < numOfCardsDealt.length; i++) {
+			// the number of ways to choose the player's cards from those left, by Pascal's rule one at a time
+			for (int k = 1; k <= numOfCardsDealt[i]; k++) {
+				ways = ways * (left - numOfCardsDealt[i] + k) / k;
+				if (ways > Integer.MAX_VALUE) {
+					return Integer.MAX_VALUE;
+				}
+			}
+			left -= numOfCardsDealt[i];
+		}
+		return ways;
+	}
+
+	/**
+	 * A method for adding every way to deal some cards, as many to each
+	 * player as given, to a list.
+	 */
+	private static void dealAll(long cards, int[] numOfCardsDealt, long[] hands, ArrayList<long[]> deals) {
+		if (cards == 0) {
+			deals.add(hands.clone());
+			return;
+		}
+		long card = Long.lowestOneBit(cards);
+		for (int i = 0; i < hands.length; i++) {
+			if (CardSet.size(hands[i]) < numOfCardsDealt[i]) {
+				hands[i] |= card;
+				dealAll(cards & ~card, numOfCardsDealt, hands, deals);
+				hands[i] &= ~card;
+			}
+		}
+	}
+
+	/**
+	 * A method for dealing some cards at random, as many to each player as
+	 * given.
+	 */
+	private static long[] dealRandomly(int[] bits, int[] numOfCardsDealt, SplittableRandom random) {
+		long[] hands = new long[numOfCardsDealt.length];
+		int next = 0;
+		for (int i = 0; i < hands.length; i++) {
+			for (int k = 0; k < numOfCardsDealt[i] && next < bits.length; k++, next++) {
+				int j = next + random.nextInt(bits.length - next);
+				int bit = bits[j];
+				bits[j] = bits[next];
+				bits[next] = bit;
+				hands[i] |= 1L << bit;
+			}
+		}
+		return hands;
+	}
+
+	/**
+	 * A method for getting the cards of a hand that may be played in a hand
+	 * of more than one card: those of a rank held twice or more, of a suit
+	 * held five times or more, or of five consecutive ranks held, and every
+	 * card if four of a rank are held.
+	 */
+	private static long combinableCards(long hand) {
+		long combinable = CardSet.EMPTY;
+		int ranks = 0;							// a bit for each rank held
+		for (int r = 0; r < 13; r++) {
+			long cards = hand & CardSet.rankMask(r);
+			int numOfCards = CardSet.size(cards);
+			if (numOfCards == 4) {
+				return hand;					// any other card may go with the quad
+			}
+			if (numOfCards >= 2) {
+				combinable |= cards;
+			}
+			if (numOfCards > 0) {
+				ranks |= 1 << r;
+			}
+		}
+		for (int suit = 0; suit < 4; suit++) {
+			if (CardSet.size(hand & CardSet.suitMask(suit)) >= 5) {
+				combinable |= hand & CardSet.suitMask(suit);
+			}
+		}
+		for (int low = 0; low + 4 < 13; low++) {
+			if (((ranks >>> low) & 0x1F) == 0x1F) {
+				for (int r = low; r < low + 5; r++) {
+					combinable |= hand & CardSet.rankMask(r);
+				}
+			}
+		}
+		return combinable;
+	}
+
+	/**
+	 * A method for getting the XOR of the keys of some cards in a player's
+	 * hand, or of the last hand on table if the player is -1.
+	 */
+	private static long cardsKey(int playerIdx, long cards) {
+		long[] keys = (playerIdx < 0) ? LAST_HAND_KEYS : CARD_KEYS;
+		int offset = (playerIdx < 0) ? 0 : playerIdx * 52;
+		long key = 0;
+		for (long s = cards; s != 0; s &= s - 1) {
+			key ^= keys[offset + Long.numberOfTrailingZeros(s)];
+		}
+		return key;
+	}
+
+	private static long[] keys(SplittableRandom random, int numOfKeys) {
+		long[] keys = new long[numOfKeys];
+		for (int i = 0; i < numOfKeys; i++) {
+			keys[i] = random.nextLong();
+		}
+		return keys;
+	}
+}
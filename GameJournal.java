@@ -0,0 +1,556 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * The GameJournal class is an append-only journal of the games played on
+ * the server: the deck and the players of every START, every accepted MOVE
+ * and the END of every game, whether finished or abandoned. After a crash
+ * the games that had not ended are rebuilt from it with recover(); as the
+ * START of a game also keeps the session token of each seat, the players
+ * can resume their seats in the games rebuilt.
+ * <p>
+ * The journal is a series of segment files (journal-000001.log, ...) that
+ * are memory-mapped, so appending a record is a copy into the page cache
+ * under a short lock and survives a crash of the process at once. A
+ * committer thread forces the pages written since the last commit to disk
+ * every COMMIT_INTERVAL_MILLIS, so that all the records appended by all
+ * tables in that interval share one fsync (group commit); sync() waits
+ * for the next commit. Each record is framed as
+ * <pre>
+ *   int length | int crc32 | byte type | UTF table id | payload
+ * </pre>
+ * and its length is written last, so a record torn by a crash reads as
+ * the end of the segment. Segments older than the START of every game
+ * still being played are deleted when a new segment is started; games
+ * recovered at start-up are written again so that their old segments can
+ * go too.
+ * <p>
+ * The methods of this class may be called from any thread; the records
+ * of one table are kept in the order they were appended.
+ * @author michael
+ *
+ */
+public class GameJournal implements Closeable {
+	public static final int SEGMENT_SIZE = 16 << 20;			// size of a segment file
+	public static final long COMMIT_INTERVAL_MILLIS = 5;		// time between group commits
+
+	private static final byte START = 1;		// a record of a deal: the deck, the players' names and session tokens
+	private static final byte MOVE = 2;			// a record of an accepted move: the seat and the cards (0 to pass)
+	private static final byte END = 3;			// a record of the end of a game, finished or abandoned
+
+	private File dir;									// the directory of the segment files
+	private int segmentIndex;							// the number of the segment being written
+	private MappedByteBuffer buffer;					// the mapping of the segment being written
+	private int position;								// the offset of the next record in the segment
+	private HashMap<String, Integer> openGames;			// the segment of the START of each game not ended
+	private CRC32 crc;									// the checksum of the record being appended
+	private long appendedBytes;							// the number of bytes appended, over all segments
+	private long committedBytes;						// the number of bytes forced to disk
+	private AtomicLong numOfRecords;					// the number of records appended
+	private AtomicLong numOfCommits;					// the number of group commits that forced records
+	private Thread committer;							// the thread running the group commits
+	private volatile boolean closed;					// whether the journal has been closed
+
+	/**
+	 * Creates and returns an instance of the GameJournal class, writing to
+	 * a new segment after those already in the directory.
+	 * @param dir directory of the journal, created if needed
+	 * @throws IOException if the segment cannot be created
+	 */
+	public GameJournal(File dir) throws IOException {
+		this.dir = dir;
+		dir.mkdirs();
+		File[] segments = listSegments(dir);
+		segmentIndex = (segments.length == 0) ? 0 : segmentNumber(segments[segments.length - 1]);
+		openGames = new HashMap<String, Integer>();
+		crc = new CRC32();
+		numOfRecords = new AtomicLong();
+		numOfCommits = new AtomicLong();
+		roll(false);
+		committer = new Thread(this::runCommits, "journal-commit");
+		committer.setDaemon(true);
+		committer.start();
+	}
+
+	/**
+	 * A method for recording the deal of a new game at a table.
+	 * @param tableId id of the table
+	 * @param deck the shuffled deck dealt
+	 * @param playerNames the name of the player in each seat
+	 */
+	public void start(String tableId, Deck deck, String[] playerNames) {
+		start(tableId, deck, playerNames, new String[playerNames.length]);
+	}
+
+	/**
+	 * A method for recording the deal of a new game at a table, with the
+	 * session tokens the players can resume their seats with.
+	 * @param tableId id of the table
+	 * @param deck the shuffled deck dealt
+	 * @param playerNames the name of the player in each seat
+	 * @param sessions the session token of the player in each seat, or null if none
+	 */
+	public void start(String tableId, Deck deck, String[] playerNames, String[] sessions) {
+		byte[] id = tableId.getBytes(StandardCharsets.UTF_8);
+		byte[][] names = toBytes(playerNames);
+		byte[][] tokens = toBytes(sessions);
+		int length = 1 + 2 + id.length + CardSet.NUM_OF_CARDS + 1 + 1;
+		for (int i = 0; i < names.length; i++) {
+			length += 2 + names[i].length;
+		}
+		for (int i = 0; i < tokens.length; i++) {
+			length += 2 + tokens[i].length;
+		}
+		byte[] record = new byte[length];
+		int offset = putHeader(record, START, id);
+		for (int i = 0; i < CardSet.NUM_OF_CARDS; i++) {
+			record[offset++] = (byte) CardSet.bitIndex(deck.getCard(i));
+		}
+		record[offset++] = (byte) names.length;
+		for (int i = 0; i < names.length; i++) {
+			offset = putString(record, offset, names[i]);
+		}
+		record[offset++] = (byte) tokens.length;
+		for (int i = 0; i < tokens.length; i++) {
+			offset = putString(record, offset, tokens[i]);
+		}
+		append(tableId, START, record);
+	}
+
+	/**
+	 * A method for recording a move that has been accepted. It must be
+	 * called before the move is sent to the players.
+	 * @param tableId id of the table
+	 * @param seat seat of the player
+	 * @param cards cards played as a CardSet, or 0 to pass
+	 */
+	public void move(String tableId, int seat, long cards) {
+		byte[] id = tableId.getBytes(StandardCharsets.UTF_8);
+		byte[] record = new byte[1 + 2 + id.length + 1 + 8];
+		int offset = putHeader(record, MOVE, id);
+		record[offset++] = (byte) seat;
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			record[offset++] = (byte) (cards >>> shift);
+		}
+		append(tableId, MOVE, record);
+	}
+
+	/**
+	 * A method for recording that the game at a table has ended, because
+	 * it has been won or because a player has left.
+	 * @param tableId id of the table
+	 */
+	public void end(String tableId) {
+		byte[] id = tableId.getBytes(StandardCharsets.UTF_8);
+		byte[] record = new byte[1 + 2 + id.length];
+		putHeader(record, END, id);
+		append(tableId, END, record);
+	}
+
+	/**
+	 * A method for waiting until every record appended so far has been
+	 * forced to disk.
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void sync() throws InterruptedException {
+		long target;
+		synchronized (this) {
+			target = appendedBytes;
+		}
+		synchronized (committer) {
+			committer.notifyAll();
+			while (committedBytes < target && !closed) {
+				committer.wait(COMMIT_INTERVAL_MILLIS);
+			}
+		}
+	}
+
+	/**
+	 * A method for getting the number of records appended.
+	 * @return number of records appended
+	 */
+	public long getNumOfRecords() {
+		return numOfRecords.get();
+	}
+
+	/**
+	 * A method for getting the number of group commits that have forced
+	 * records to disk.
+	 * @return number of commits
+	 */
+	public long getNumOfCommits() {
+		return numOfCommits.get();
+	}
+
+	/**
+	 * A method for forcing the records to disk and stopping the committer.
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			sync();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		closed = true;
+		committer.interrupt();
+		synchronized (this) {
+			buffer.force();
+		}
+	}
+
+	private synchronized void append(String tableId, byte type, byte[] record) {
+		if (closed) {
+			return;
+		}
+		if (position + 8 + record.length > buffer.capacity()) {
+			try {
+				roll(true);
+			} catch (IOException e) {
+				e.printStackTrace();
+				return;
+			}
+		}
+		crc.reset();
+		crc.update(record, 0, record.length);
+		buffer.position(position + 8);
+		buffer.put(record);
+		buffer.putInt(position + 4, (int) crc.getValue());
+		buffer.putInt(position, record.length);		// written last: marks the record complete
+		position += 8 + record.length;
+		appendedBytes += 8 + record.length;
+		numOfRecords.incrementAndGet();
+		if (type == START) {
+			openGames.put(tableId, segmentIndex);
+		}
+		else if (type == END) {
+			openGames.remove(tableId);
+		}
+	}
+
+	/**
+	 * A method for finishing the segment being written, if any, starting a
+	 * new one and deleting the segments no game still needs. The segments
+	 * found when the journal is opened are kept, since their games are
+	 * only written again once they have been recovered.
+	 */
+	private void roll(boolean deleteOld) throws IOException {
+		if (buffer != null) {
+			buffer.force();
+		}
+		segmentIndex++;
+		try (FileChannel out = FileChannel.open(segmentFile(dir, segmentIndex).toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			buffer = out.map(FileChannel.MapMode.READ_WRITE, 0, SEGMENT_SIZE);	// stays valid after the channel is closed
+		}
+		position = 0;
+		if (!deleteOld) {
+			return;
+		}
+		int oldest = segmentIndex;
+		for (int start : openGames.values()) {
+			oldest = Math.min(oldest, start);
+		}
+		for (File segment : listSegments(dir)) {
+			if (segmentNumber(segment) < oldest && !segment.delete()) {
+				System.err.println("cannot delete journal segment " + segment);
+			}
+		}
+	}
+
+	/**
+	 * A method run by the committer thread, forcing the mapped pages to
+	 * disk once per interval if anything has been appended.
+	 */
+	private void runCommits() {
+		while (!closed) {
+			synchronized (committer) {
+				try {
+					committer.wait(COMMIT_INTERVAL_MILLIS);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+			long target;
+			MappedByteBuffer mapping;
+			synchronized (this) {
+				target = appendedBytes;
+				mapping = buffer;
+			}
+			if (target > committedBytes) {
+				mapping.force();		// the records of every table since the last commit, in one fsync
+				numOfCommits.incrementAndGet();
+				synchronized (committer) {
+					committedBytes = target;
+					committer.notifyAll();
+				}
+			}
+		}
+	}
+
+	/**
+	 * A method for reading the journal in a directory and rebuilding the
+	 * games that had not ended. Reading a segment stops at its first
+	 * incomplete or corrupt record.
+	 * @param dir directory of the journal
+	 * @return the games not ended, by table id, in the order they started
+	 * @throws IOException if a segment cannot be read
+	 */
+	public static LinkedHashMap<String, RecoveredGame> recover(File dir) throws IOException {
+		LinkedHashMap<String, RecoveredGame> games = new LinkedHashMap<String, RecoveredGame>();
+		for (File segment : listSegments(dir)) {
+			try (FileChannel in = FileChannel.open(segment.toPath(), StandardOpenOption.READ)) {
+				MappedByteBuffer mapping = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+				CRC32 crc = new CRC32();
+				int position = 0;
+				while (position + 8 <= mapping.capacity()) {
+					int length = mapping.getInt(position);
+					if (length <= 0 || position + 8 + length > mapping.capacity()) {
+						break;
+					}
+					byte[] record = new byte[length];
+					mapping.position(position + 8);
+					mapping.get(record);
+					crc.reset();
+					crc.update(record, 0, length);
+					if ((int) crc.getValue() != mapping.getInt(position + 4)) {
+						break;
+					}
+					replay(games, record);
+					position += 8 + length;
+				}
+			}
+		}
+		return games;
+	}
+
+	private static void replay(LinkedHashMap<String, RecoveredGame> games, byte[] record) {
+		int idLength = ((record[1] & 0xff) << 8) | (record[2] & 0xff);
+		String tableId = new String(record, 3, idLength, StandardCharsets.UTF_8);
+		int offset = 3 + idLength;
+		switch (record[0]) {
+			case START:
+				byte[] deck = Arrays.copyOfRange(record, offset, offset + CardSet.NUM_OF_CARDS);
+				offset += CardSet.NUM_OF_CARDS;
+				String[] playerNames = new String[record[offset++]];
+				offset = getStrings(record, offset, playerNames);
+				String[] sessions = new String[(offset < record.length) ? record[offset++] : 0];	// none in older records
+				getStrings(record, offset, sessions);
+				games.remove(tableId);
+				games.put(tableId, new RecoveredGame(tableId, deck, playerNames, sessions));
+				break;
+
+			case MOVE:
+				RecoveredGame game = games.get(tableId);
+				if (game != null) {
+					long cards = 0;
+					for (int i = 0; i < 8; i++) {
+						cards = (cards << 8) | (record[offset + 1 + i] & 0xff);
+					}
+					game.addMove(record[offset], cards);
+				}
+				break;
+
+			case END:
+				games.remove(tableId);
+				break;
+
+			default:
+				break;
+		}
+	}
+
+	private static byte[][] toBytes(String[] strings) {
+		byte[][] bytes = new byte[strings.length][];
+		for (int i = 0; i < strings.length; i++) {
+			bytes[i] = (strings[i] == null ? "" : strings[i]).getBytes(StandardCharsets.UTF_8);
+		}
+		return bytes;
+	}
+
+	private static int getStrings(byte[] record, int offset, String[] strings) {
+		for (int i = 0; i < strings.length; i++) {
+			int length = ((record[offset] & 0xff) << 8) | (record[offset + 1] & 0xff);
+			strings[i] = new String(record, offset + 2, length, StandardCharsets.UTF_8);
+			offset += 2 + length;
+		}
+		return offset;
+	}
+
+	private static int putHeader(byte[] record, byte type, byte[] id) {
+		record[0] = type;
+		return putString(record, 1, id);
+	}
+
+	private static int putString(byte[] record, int offset, byte[] string) {
+		record[offset] = (byte) (string.length >>> 8);
+		record[offset + 1] = (byte) string.length;
+		System.arraycopy(string, 0, record, offset + 2, string.length);
+		return offset + 2 + string.length;
+	}
+
+	private static File[] listSegments(File dir) {
+		File[] segments = dir.listFiles((d, name) -> name.matches("journal-\\d{6}\\.log"));
+		if (segments == null) {
+			return new File[0];
+		}
+		Arrays.sort(segments);
+		return segments;
+	}
+
+	private static int segmentNumber(File segment) {
+		return Integer.parseInt(segment.getName().substring(8, 14));
+	}
+
+	private static File segmentFile(File dir, int index) {
+		return new File(dir, String.format("journal-%06d.log", index));
+	}
+
+	/**
+	 * An inner class for a game rebuilt from the journal: the deck dealt,
+	 * the players and the moves accepted so far.
+	 */
+	public static class RecoveredGame {
+		private String tableId;				// id of the table
+		private byte[] deck;				// the CardSet bit index of each card of the deck, in order
+		private String[] playerNames;		// the name of the player in each seat
+		private String[] sessions;			// the session token of the player in each seat, empty if none
+		private int[] seats;				// the seat of each move
+		private long[] moves;				// the cards of each move, 0 for a pass
+		private int numOfMoves;				// the number of moves
+
+		RecoveredGame(String tableId, byte[] deck, String[] playerNames, String[] sessions) {
+			this.tableId = tableId;
+			this.deck = deck;
+			this.playerNames = playerNames;
+			this.sessions = sessions;
+			seats = new int[16];
+			moves = new long[16];
+		}
+
+		void addMove(int seat, long cards) {
+			if (numOfMoves == moves.length) {
+				seats = Arrays.copyOf(seats, 2 * numOfMoves);
+				moves = Arrays.copyOf(moves, 2 * numOfMoves);
+			}
+			seats[numOfMoves] = seat;
+			moves[numOfMoves++] = cards;
+		}
+
+		/**
+		 * A method for getting the id of the table.
+		 * @return id of the table
+		 */
+		public String getTableId() {
+			return tableId;
+		}
+
+		/**
+		 * A method for getting the names of the players.
+		 * @return the name of the player in each seat
+		 */
+		public String[] getPlayerNames() {
+			return playerNames.clone();
+		}
+
+		/**
+		 * A method for getting the session tokens the players can resume
+		 * their seats with.
+		 * @return the session token of the player in each seat, empty if none
+		 */
+		public String[] getSessions() {
+			return sessions.clone();
+		}
+
+		/**
+		 * A method for checking whether every player can resume his/her
+		 * seat, so that the game can go on once they are all back.
+		 * @return true if every seat has a session token, otherwise false
+		 */
+		public boolean isResumable() {
+			if (sessions.length < BigTwoGameState.NUM_OF_PLAYERS) {
+				return false;
+			}
+			for (int i = 0; i < sessions.length; i++) {
+				if (sessions[i].isEmpty()) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * A method for getting the number of moves accepted.
+		 * @return number of moves
+		 */
+		public int getNumOfMoves() {
+			return numOfMoves;
+		}
+
+		/**
+		 * A method for recording the moves of this game in a journal.
+		 * @param journal the journal
+		 * @param tableId id of the table
+		 */
+		public void forEachMove(GameJournal journal, String tableId) {
+			for (int m = 0; m < numOfMoves; m++) {
+				journal.move(tableId, seats[m], moves[m]);
+			}
+		}
+
+		/**
+		 * A method for rebuilding the deck dealt.
+		 * @param emptyDeck a deck to fill, e.g. from BigTwoServer.createDeck()
+		 * @return the deck, with the cards in the order they were dealt
+		 */
+		public Deck toDeck(Deck emptyDeck) {
+			emptyDeck.removeAllCards();
+			for (int i = 0; i < deck.length; i++) {
+				emptyDeck.addCard(CardSet.cardOf(deck[i]));
+			}
+			return emptyDeck;
+		}
+
+		/**
+		 * A method for rebuilding the replay of the game so far.
+		 * @return the replay, to which the next moves can be added
+		 */
+		public GameReplay toReplay() {
+			GameReplay replay = new GameReplay(playerNames, dealtHands());
+			for (int m = 0; m < numOfMoves; m++) {
+				replay.addMove(seats[m], moves[m]);
+			}
+			return replay;
+		}
+
+		/**
+		 * A method for rebuilding the state of the game after its moves.
+		 * @return the state of the game
+		 */
+		public BigTwoGameState toState() {
+			BigTwoGameState state = new BigTwoGameState(dealtHands());
+			for (int m = 0; m < numOfMoves; m++) {
+				state.apply(seats[m], moves[m]);
+			}
+			return state;
+		}
+
+		private long[] dealtHands() {
+			long[] hands = new long[BigTwoGameState.NUM_OF_PLAYERS];
+			for (int i = 0; i < deck.length; i++) {
+				hands[i / 13] |= 1L << deck[i];
+			}
+			return hands;
+		}
+	}
+}
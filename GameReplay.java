@@ -0,0 +1,215 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The GameReplay class records one Big Two game so that it can be reviewed
+ * move by move after it has ended: the names of the players, every move,
+ * and a keyframe of the full state of the game every KEYFRAME_INTERVAL
+ * moves, the first being the deal. A keyframe holds the hand of each
+ * player and the last hand on table as CardSet bitmasks, with the index of
+ * the current player and of the player of the last hand.
+ * <p>
+ * seek() rebuilds the state after any move by copying the keyframe at or
+ * before it and applying at most KEYFRAME_INTERVAL - 1 moves, so it takes
+ * the same time wherever the move is in the game. Replays are written
+ * (e.g. to a ReplayArchive) as
+ * <pre>
+ *   UTF name x 4 | int moves | (byte seat | long cards) x moves |
+ *   (long hand x 4 | long last hand | byte current | byte last player) x keyframes
+ * </pre>
+ * where there are moves / KEYFRAME_INTERVAL + 1 keyframes.
+ * @author michael
+ *
+ */
+public class GameReplay {
+	public static final int KEYFRAME_INTERVAL = 8;		// number of moves between keyframes
+	public static final int MAX_MOVES = 4 * CardSet.NUM_OF_CARDS;	// more moves than a game can take: every card played alone and passed on by the other three
+
+	private static final int KEYFRAME_LONGS = 6;		// the hands, the last hand, and the current player and last player packed in a long
+
+	private String[] playerNames;			// the name of the player in each seat, "" if empty
+	private int[] seats;					// the seat of each move
+	private long[] moves;					// the cards of each move, 0 for a pass
+	private int numOfMoves;					// the number of moves
+	private long[] keyframes;				// KEYFRAME_LONGS longs for the state after every KEYFRAME_INTERVAL-th move
+	private BigTwoGameState state;			// the state after the last move while recording, or null if not known yet
+
+	/**
+	 * Creates and returns an instance of the GameReplay class for a newly
+	 * dealt game, to which the moves are added as they are made.
+	 * @param playerNames the name of the player in each seat, null if empty
+	 * @param hands the cards dealt to each player
+	 */
+	public GameReplay(String[] playerNames, long[] hands) {
+		this(playerNames, 16, 4);
+		state = new BigTwoGameState(hands);
+		addKeyframe(state);
+	}
+
+	private GameReplay(String[] playerNames, int movesCapacity, int keyframesCapacity) {
+		this.playerNames = new String[BigTwoGameState.NUM_OF_PLAYERS];
+		for (int i = 0; i < this.playerNames.length; i++) {
+			this.playerNames[i] = (i < playerNames.length && playerNames[i] != null) ? playerNames[i] : "";
+		}
+		seats = new int[movesCapacity];
+		moves = new long[movesCapacity];
+		keyframes = new long[keyframesCapacity * KEYFRAME_LONGS];
+	}
+
+	/**
+	 * A method for recording a move that has been accepted.
+	 * @param seat seat of the player
+	 * @param cards cards played as a CardSet, or 0 to pass
+	 */
+	public void addMove(int seat, long cards) {
+		if (state == null) {
+			state = seek(numOfMoves);
+		}
+		if (numOfMoves == moves.length) {
+			seats = Arrays.copyOf(seats, 2 * numOfMoves);
+			moves = Arrays.copyOf(moves, 2 * numOfMoves);
+		}
+		seats[numOfMoves] = seat;
+		moves[numOfMoves++] = cards;
+		state.apply(seat, cards);
+		if (numOfMoves % KEYFRAME_INTERVAL == 0) {
+			addKeyframe(state);
+		}
+	}
+
+	/**
+	 * A method for getting the names of the players.
+	 * @return the name of the player in each seat, "" if empty
+	 */
+	public String[] getPlayerNames() {
+		return playerNames.clone();
+	}
+
+	/**
+	 * A method for getting the number of moves recorded.
+	 * @return number of moves
+	 */
+	public int getNumOfMoves() {
+		return numOfMoves;
+	}
+
+	/**
+	 * A method for getting the seat of the player of a move.
+	 * @param moveIdx index of the move, from 0
+	 * @return seat of the player
+	 */
+	public int getSeat(int moveIdx) {
+		checkMoveIdx(moveIdx, numOfMoves - 1);
+		return seats[moveIdx];
+	}
+
+	/**
+	 * A method for getting the cards of a move.
+	 * @param moveIdx index of the move, from 0
+	 * @return cards played as a CardSet, or 0 for a pass
+	 */
+	public long getCards(int moveIdx) {
+		checkMoveIdx(moveIdx, numOfMoves - 1);
+		return moves[moveIdx];
+	}
+
+	/**
+	 * A method for rebuilding the state of the game after a number of
+	 * moves, from the nearest keyframe.
+	 * @param numOfMovesMade number of moves made, from 0 (the deal) to getNumOfMoves()
+	 * @return the state of the game, which the caller may change
+	 */
+	public BigTwoGameState seek(int numOfMovesMade) {
+		checkMoveIdx(numOfMovesMade, numOfMoves);
+		int keyframe = numOfMovesMade / KEYFRAME_INTERVAL;
+		int k = keyframe * KEYFRAME_LONGS;
+		long[] hands = Arrays.copyOfRange(keyframes, k, k + BigTwoGameState.NUM_OF_PLAYERS);
+		long players = keyframes[k + 5];
+		BigTwoGameState replayed = new BigTwoGameState(hands, (int) (players & 0xff), keyframes[k + 4],
+				(int) (players >> 8) - 1, keyframe * KEYFRAME_INTERVAL);
+		for (int m = keyframe * KEYFRAME_INTERVAL; m < numOfMovesMade; m++) {
+			replayed.apply(seats[m], moves[m]);
+		}
+		return replayed;
+	}
+
+	/**
+	 * A method for writing the replay.
+	 * @param out output to write to
+	 * @throws IOException if the replay cannot be written
+	 */
+	public void write(DataOutput out) throws IOException {
+		for (int i = 0; i < playerNames.length; i++) {
+			out.writeUTF(playerNames[i]);
+		}
+		out.writeInt(numOfMoves);
+		for (int m = 0; m < numOfMoves; m++) {
+			out.writeByte(seats[m]);
+			out.writeLong(moves[m]);
+		}
+		for (int k = 0; k <= numOfMoves / KEYFRAME_INTERVAL; k++) {
+			for (int i = 0; i < KEYFRAME_LONGS - 1; i++) {
+				out.writeLong(keyframes[k * KEYFRAME_LONGS + i]);
+			}
+			long players = keyframes[k * KEYFRAME_LONGS + KEYFRAME_LONGS - 1];
+			out.writeByte((int) (players & 0xff));
+			out.writeByte((int) (players >> 8) - 1);
+		}
+	}
+
+	/**
+	 * A method for reading a replay written by write().
+	 * @param in input to read from
+	 * @return the replay
+	 * @throws IOException if the replay cannot be read
+	 */
+	public static GameReplay read(DataInput in) throws IOException {
+		String[] playerNames = new String[BigTwoGameState.NUM_OF_PLAYERS];
+		for (int i = 0; i < playerNames.length; i++) {
+			playerNames[i] = in.readUTF();
+		}
+		int numOfMoves = in.readInt();
+		if (numOfMoves < 0 || numOfMoves > MAX_MOVES) {
+			throw new IOException("Bad number of moves: " + numOfMoves);
+		}
+		int numOfKeyframes = numOfMoves / KEYFRAME_INTERVAL + 1;
+		GameReplay replay = new GameReplay(playerNames, Math.max(1, numOfMoves), numOfKeyframes);
+		for (int m = 0; m < numOfMoves; m++) {
+			replay.seats[m] = in.readByte();
+			replay.moves[m] = in.readLong();
+		}
+		replay.numOfMoves = numOfMoves;
+		for (int k = 0; k < numOfKeyframes; k++) {
+			for (int i = 0; i < KEYFRAME_LONGS - 1; i++) {
+				replay.keyframes[k * KEYFRAME_LONGS + i] = in.readLong();
+			}
+			int currentIdx = in.readByte();
+			int lastHandPlayer = in.readByte();
+			replay.keyframes[k * KEYFRAME_LONGS + KEYFRAME_LONGS - 1] = currentIdx | (lastHandPlayer + 1) << 8;
+		}
+		return replay;
+	}
+
+	/**
+	 * A method for adding a keyframe of a state after the keyframes so far.
+	 */
+	private void addKeyframe(BigTwoGameState keyState) {
+		int k = (keyState.getNumOfMoves() / KEYFRAME_INTERVAL) * KEYFRAME_LONGS;
+		if (k + KEYFRAME_LONGS > keyframes.length) {
+			keyframes = Arrays.copyOf(keyframes, 2 * keyframes.length);
+		}
+		for (int i = 0; i < BigTwoGameState.NUM_OF_PLAYERS; i++) {
+			keyframes[k + i] = keyState.getHand(i);
+		}
+		keyframes[k + 4] = keyState.getLastHand();
+		keyframes[k + 5] = keyState.getCurrentIdx() | (keyState.getLastHandPlayer() + 1) << 8;
+	}
+
+	private static void checkMoveIdx(int moveIdx, int maxIdx) {
+		if (moveIdx < 0 || moveIdx > maxIdx) {
+			throw new IndexOutOfBoundsException("Move " + moveIdx + " of " + (maxIdx + 1));
+		}
+	}
+}
@@ -0,0 +1,181 @@
+/**
+ * The HandClassifier class is used to classify a set of cards (see
+ * CardSet) as a Big Two hand in a single pass over its cards. It works
+ * out the type of the hand from a rank histogram and a suit mask, and
+ * packs the type together with the key used for comparing hands of
+ * the same type into a single int, the strength of the hand. A stronger
+ * hand always has a greater strength, so comparing two hands of the same
+ * size is an int comparison.
+ * @author michael
+ *
+ */
+public final class HandClassifier {
+	public static final int INVALID = 0;				// the cards do not form a hand
+	public static final int SINGLE = 1;					// a single card
+	public static final int PAIR = 2;					// two cards of the same rank
+	public static final int TRIPLE = 3;					// three cards of the same rank
+	public static final int STRAIGHT = 4;				// five cards with consecutive ranks
+	public static final int FLUSH = 5;					// five cards of the same suit
+	public static final int FULL_HOUSE = 6;				// a triple plus a pair
+	public static final int QUAD = 7;					// four cards of the same rank plus one card
+	public static final int STRAIGHT_FLUSH = 8;			// five cards with consecutive ranks and the same suit
+
+	private static final int KEY_BITS = 6;				// number of bits used by the key in a strength
+	private static final int KEY_MASK = (1 << KEY_BITS) - 1;
+
+	private HandClassifier() {
+	}
+
+	/**
+	 * A method for computing the strength of a set of cards. The key of a
+	 * hand is the bit index of its top card, except for a flush, where the
+	 * suit of the top card is compared before its rank.
+	 * @param cards set of cards
+	 * @return strength of the hand, or INVALID if the cards do not form a hand
+	 */
+	public static int classify(long cards) {
+		int size = Long.bitCount(cards);
+		if (size == 0 || size == 4 || size > 5) {
+			return INVALID;
+		}
+
+		int top = 63 - Long.numberOfLeadingZeros(cards);
+		int ranks = 0;						// a bit for each Big Two rank present
+		int suits = 0;						// a bit for each suit present
+		long counts = 0;					// a 4-bit count of cards for each Big Two rank
+		for (long s = cards; s != 0; s &= s - 1) {
+			int bit = Long.numberOfTrailingZeros(s);
+			ranks |= 1 << (bit >> 2);
+			suits |= 1 << (bit & 3);
+			counts += 1L << ((bit >> 2) * 4);
+		}
+		int distinctRanks = Integer.bitCount(ranks);
+
+		if (size < 5) {
+			if (distinctRanks != 1) {
+				return INVALID;
+			}
+			return strength(size, top);
+		}
+
+		if (distinctRanks == 5) {
+			boolean isStraight = (ranks >>> Integer.numberOfTrailingZeros(ranks)) == 0x1F;
+			boolean isFlush = Integer.bitCount(suits) == 1;
+			if (isStraight && isFlush) {
+				return strength(STRAIGHT_FLUSH, top);
+			}
+			else if (isStraight) {
+				return strength(STRAIGHT, top);
+			}
+			else if (isFlush) {
+				return strength(FLUSH, (top & 3) * 13 + (top >> 2));
+			}
+			return INVALID;
+		}
+		else if (distinctRanks == 2) {
+			int lowRank = Integer.numberOfTrailingZeros(ranks);
+			int highRank = 31 - Integer.numberOfLeadingZeros(ranks);
+			int lowCount = (int) (counts >>> (lowRank * 4)) & 0xF;
+			int mainRank = (lowCount >= 3) ? lowRank : highRank;
+			int mainTop = 63 - Long.numberOfLeadingZeros(cards & CardSet.rankMask(mainRank));
+			int type = (lowCount == 1 || lowCount == 4) ? QUAD : FULL_HOUSE;
+			return strength(type, mainTop);
+		}
+		return INVALID;
+	}
+
+	/**
+	 * A method for packing a hand type and key into a strength.
+	 * @param type type of the hand
+	 * @param key key for comparing hands of the same type
+	 * @return strength of the hand
+	 */
+	public static int strength(int type, int key) {
+		return (type << KEY_BITS) | key;
+	}
+
+	/**
+	 * A method for getting the type of the hand from its strength.
+	 * @param strength strength of the hand
+	 * @return type of the hand
+	 */
+	public static int typeOf(int strength) {
+		return strength >>> KEY_BITS;
+	}
+
+	/**
+	 * A method for getting the comparison key of the hand from its strength.
+	 * @param strength strength of the hand
+	 * @return key of the hand
+	 */
+	public static int keyOf(int strength) {
+		return strength & KEY_MASK;
+	}
+
+	/**
+	 * A method for getting the number of cards in a hand of the specified type.
+	 * @param type type of the hand
+	 * @return number of cards in the hand
+	 */
+	public static int sizeOf(int type) {
+		return (type <= TRIPLE) ? type : 5;
+	}
+
+	/**
+	 * A method for checking whether a hand beats another hand according to
+	 * Big Two rules. A hand can only beat a hand with the same number of cards.
+	 * @param strength strength of the hand
+	 * @param otherStrength strength of the other hand
+	 * @return true if the hand beats the other hand, otherwise false
+	 */
+	public static boolean beats(int strength, int otherStrength) {
+		return strength != INVALID
+				&& sizeOf(typeOf(strength)) == sizeOf(typeOf(otherStrength))
+				&& strength > otherStrength;
+	}
+
+	/**
+	 * A method for constructing the Hand object for a classified set of cards.
+	 * Only the one Hand of the matching type is created.
+	 * @param player player who plays the hand
+	 * @param cards list of the cards in the hand
+	 * @param strength strength of the cards as returned by classify()
+	 * @return the hand, or null if the strength is INVALID
+	 */
+	public static Hand toHand(CardGamePlayer player, CardList cards, int strength) {
+		switch (typeOf(strength)) {
+			case SINGLE:
+				return new Single(player, cards);
+			case PAIR:
+				return new Double(player, cards);
+			case TRIPLE:
+				return new Triple(player, cards);
+			case STRAIGHT:
+				return new Straight(player, cards);
+			case FLUSH:
+				return new Flush(player, cards);
+			case FULL_HOUSE:
+				return new FullHouse(player, cards);
+			case QUAD:
+				return new Quad(player, cards);
+			case STRAIGHT_FLUSH:
+				return new StraightFlush(player, cards);
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * A method for composing a hand from a set of cards.
+	 * @param player player who plays the hand
+	 * @param cards set of cards
+	 * @return the hand, or null if the cards do not form a valid hand
+	 */
+	public static Hand compose(CardGamePlayer player, long cards) {
+		int strength = classify(cards);
+		if (strength == INVALID) {
+			return null;
+		}
+		return toHand(player, CardSet.toCardList(cards), strength);
+	}
+}
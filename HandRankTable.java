@@ -0,0 +1,192 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The HandRankTable class is used to compare hands by table lookups.
+ * Every combination of 1, 2, 3 or 5 cards has an ordinal, its rank among
+ * all hands of the same size (0 if the cards do not form a valid hand),
+ * so comparing two hands is two lookups and an int comparison.
+ * Combinations are indexed by a minimal perfect hash, the combinatorial
+ * number system over the bit indices of the cards (see CardSet).
+ * The ordinals of singles, pairs and triples are computed into small
+ * in-heap tables. The 2,598,960 ordinals of five-card hands are written
+ * once by HandRankTableGenerator and memory-mapped read-only at runtime.
+ * @author michael
+ *
+ */
+public final class HandRankTable {
+	public static final String DEFAULT_FILE = "handranks.dat";		// default location of the five-card table
+	public static final int MAGIC = 0x42325254;						// "B2RT", the first int of a table file
+	public static final int VERSION = 1;							// version of the table file format
+	public static final int HEADER_SIZE = 12;						// magic, version and number of entries
+	public static final int NUM_OF_FIVE_CARD_HANDS = 2598960;		// 52 choose 5
+
+	private static final int[][] BINOMIAL = new int[CardSet.NUM_OF_CARDS + 1][6];	// n choose k for k <= 5
+	private static final short[][] SMALL_RANKS = new short[4][];	// ordinals of singles, pairs and triples
+
+	static {
+		for (int n = 0; n <= CardSet.NUM_OF_CARDS; n++) {
+			BINOMIAL[n][0] = 1;
+			for (int k = 1; k <= 5 && k <= n; k++) {
+				BINOMIAL[n][k] = BINOMIAL[n - 1][k - 1] + BINOMIAL[n - 1][k];
+			}
+		}
+		for (int size = 1; size <= 3; size++) {
+			SMALL_RANKS[size] = computeOrdinals(size);
+		}
+	}
+
+	private final ShortBuffer fiveCardRanks;		// memory-mapped ordinals of five-card hands
+
+	private HandRankTable(ShortBuffer fiveCardRanks) {
+		this.fiveCardRanks = fiveCardRanks;
+	}
+
+	/**
+	 * A method for memory-mapping the five-card table at the default location.
+	 * @return the table
+	 * @throws IOException if the file cannot be read or is not a valid table
+	 */
+	public static HandRankTable load() throws IOException {
+		return load(Paths.get(DEFAULT_FILE));
+	}
+
+	/**
+	 * A method for memory-mapping the five-card table in the specified file.
+	 * @param file file written by HandRankTableGenerator
+	 * @return the table
+	 * @throws IOException if the file cannot be read or is not a valid table
+	 */
+	public static HandRankTable load(Path file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.remaining() < HEADER_SIZE || buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+					|| buffer.getInt() != NUM_OF_FIVE_CARD_HANDS
+					|| buffer.remaining() != NUM_OF_FIVE_CARD_HANDS * 2) {
+				throw new IOException(file + " is not a valid hand rank table");
+			}
+			return new HandRankTable(buffer.slice().asShortBuffer());
+		}
+	}
+
+	/**
+	 * A method for getting the perfect hash index of a set of cards among
+	 * all sets with the same number of cards.
+	 * @param cards set of at most 5 cards
+	 * @return index of the set, from 0 to (52 choose size) - 1
+	 */
+	public static int indexOf(long cards) {
+		int index = 0;
+		int k = 1;
+		for (long s = cards; s != 0; s &= s - 1) {
+			index += BINOMIAL[Long.numberOfTrailingZeros(s)][k++];
+		}
+		return index;
+	}
+
+	/**
+	 * A method for getting the number of sets with the specified number of cards.
+	 * @param size number of cards, at most 5
+	 * @return 52 choose size
+	 */
+	public static int numOfCombinations(int size) {
+		return BINOMIAL[CardSet.NUM_OF_CARDS][size];
+	}
+
+	/**
+	 * A method for computing the ordinals of all sets with the specified
+	 * number of cards, indexed by indexOf(). The ordinal of a set is the
+	 * position of its HandClassifier strength among all distinct strengths
+	 * of valid hands of that size, counting from 1.
+	 * @param size number of cards
+	 * @return the ordinals
+	 */
+	static short[] computeOrdinals(int size) {
+		int maxStrength = HandClassifier.strength(HandClassifier.STRAIGHT_FLUSH + 1, 0);
+		int[] ordinalOfStrength = new int[maxStrength];
+		short[] ordinals = new short[numOfCombinations(size)];
+		int[] strengths = new int[ordinals.length];
+
+		long cards = (1L << size) - 1;
+		for (int i = 0; i < ordinals.length; i++) {
+			int strength = HandClassifier.classify(cards);
+			strengths[indexOf(cards)] = strength;
+			ordinalOfStrength[strength] = 1;
+			cards = nextCombination(cards);
+		}
+
+		int ordinal = 0;
+		ordinalOfStrength[HandClassifier.INVALID] = 0;
+		for (int strength = 1; strength < maxStrength; strength++) {
+			if (ordinalOfStrength[strength] != 0) {
+				ordinalOfStrength[strength] = ++ordinal;
+			}
+		}
+		for (int i = 0; i < ordinals.length; i++) {
+			ordinals[i] = (short) ordinalOfStrength[strengths[i]];
+		}
+		return ordinals;
+	}
+
+	/**
+	 * A method for getting the next set with the same number of cards in
+	 * increasing order of the mask (Gosper's hack).
+	 * @param cards a non-empty set of cards
+	 * @return the next set with the same number of cards
+	 */
+	static long nextCombination(long cards) {
+		long lowest = cards & -cards;
+		long ripple = cards + lowest;
+		return ripple | (((cards ^ ripple) >>> 2) / lowest);
+	}
+
+	/**
+	 * A method for getting the ordinal of a set of cards.
+	 * @param cards set of cards
+	 * @return ordinal of the hand among hands of the same size, or 0 if the cards do not form a valid hand
+	 */
+	public int rankOf(long cards) {
+		int size = Long.bitCount(cards);
+		if (size == 5) {
+			return fiveCardRanks.get(indexOf(cards));
+		}
+		else if (size >= 1 && size <= 3) {
+			return SMALL_RANKS[size][indexOf(cards)];
+		}
+		return 0;
+	}
+
+	/**
+	 * A method for checking whether a set of cards beats another set of
+	 * cards according to Big Two rules.
+	 * @param cards cards to be played
+	 * @param otherCards cards of the last hand on table
+	 * @return true if the cards form a valid hand that beats the other hand, otherwise false
+	 */
+	public boolean beats(long cards, long otherCards) {
+		if (Long.bitCount(cards) != Long.bitCount(otherCards)) {
+			return false;
+		}
+		int rank = rankOf(cards);
+		return rank != 0 && rank > rankOf(otherCards);
+	}
+
+	/**
+	 * A method for writing the five-card table to the specified buffer.
+	 * @param buffer buffer with room for HEADER_SIZE plus two bytes per hand
+	 */
+	static void writeFiveCardTable(ByteBuffer buffer) {
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(NUM_OF_FIVE_CARD_HANDS);
+		short[] ordinals = computeOrdinals(5);
+		buffer.asShortBuffer().put(ordinals);
+		buffer.position(buffer.position() + ordinals.length * 2);
+	}
+}
@@ -0,0 +1,39 @@
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The HandRankTableGenerator class is an offline tool for writing the
+ * five-card table used by HandRankTable. It enumerates all 2,598,960
+ * five-card combinations, ranks them under Big Two rules and writes
+ * their ordinals in perfect hash order.
+ * @author michael
+ *
+ */
+public class HandRankTableGenerator {
+	/**
+	 * main() method for generating the table.
+	 *
+	 * @param args
+	 *            the file to be written. The default file handranks.dat
+	 *            will be used if no arguments has been supplied
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void main(String[] args) throws IOException {
+		Path file = Paths.get(args.length > 0 ? args[0] : HandRankTable.DEFAULT_FILE);
+		long startTime = System.nanoTime();
+		long size = HandRankTable.HEADER_SIZE + HandRankTable.NUM_OF_FIVE_CARD_HANDS * 2L;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+				StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			HandRankTable.writeFiveCardTable(buffer);
+			buffer.force();
+		}
+		long elapsedMillis = (System.nanoTime() - startTime) / 1000000;
+		System.out.println("Wrote " + HandRankTable.NUM_OF_FIVE_CARD_HANDS + " hand ranks to " + file
+				+ " in " + elapsedMillis + " ms");
+	}
+}
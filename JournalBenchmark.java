@@ -0,0 +1,137 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * The JournalBenchmark class measures the cost of journaling games with
+ * GameJournal and of recovering from it. Many tables play scripted games
+ * from several threads at once, as the event loops of a TableHost would;
+ * the time per record appended, the number of records per group commit,
+ * and the time to recover the games left unfinished are reported.
+ * @author michael
+ *
+ */
+public class JournalBenchmark {
+	/**
+	 * main() method for running the benchmark.
+	 *
+	 * @param args
+	 *            the number of tables, the number of games played at each
+	 *            table and the number of threads appending. 4096 tables,
+	 *            4 games and one thread per core are used if no arguments
+	 *            has been supplied
+	 * @throws IOException if the journal cannot be written or read
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		int numOfTables = (args.length > 0) ? Integer.parseInt(args[0]) : 4096;
+		int numOfGames = (args.length > 1) ? Integer.parseInt(args[1]) : 4;
+		int numOfThreads = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+		for (int run = 0; run < 2; run++) {		// the first run warms up the JIT
+			File dir = Files.createTempDirectory("journal-benchmark").toFile();
+			try {
+				measure(dir, numOfTables, numOfGames, numOfThreads, run == 1);
+			} finally {
+				for (File file : dir.listFiles()) {
+					file.delete();
+				}
+				dir.delete();
+			}
+		}
+	}
+
+	private static void measure(File dir, final int numOfTables, final int numOfGames, final int numOfThreads,
+			boolean isReported) throws IOException, InterruptedException {
+		final BigTwoDeck[] decks = new BigTwoDeck[numOfGames];
+		final long[][][] games = new long[numOfGames][][];
+		for (int g = 0; g < numOfGames; g++) {
+			decks[g] = new BigTwoDeck();
+			decks[g].shuffle();
+			games[g] = play(decks[g]);
+		}
+		final String[] names = {"a", "b", "c", "d"};
+		final GameJournal journal = new GameJournal(dir);
+
+		Thread[] threads = new Thread[numOfThreads];
+		long startTime = System.nanoTime();
+		for (int d = 0; d < numOfThreads; d++) {
+			final int thread = d;
+			threads[d] = new Thread() {
+				public void run() {
+					for (int g = 0; g < numOfGames; g++) {
+						long[][] moves = games[g];
+						for (int t = thread; t < numOfTables; t += numOfThreads) {
+							journal.start("t" + t, decks[g], names);
+						}
+						// the last game of every tenth table is left unfinished, to be recovered
+						for (int m = 0; m < moves.length; m++) {
+							for (int t = thread; t < numOfTables; t += numOfThreads) {
+								if (g < numOfGames - 1 || t % 10 != 0 || m < moves.length / 2) {
+									journal.move("t" + t, (int) moves[m][0], moves[m][1]);
+								}
+							}
+						}
+						for (int t = thread; t < numOfTables; t += numOfThreads) {
+							if (g < numOfGames - 1 || t % 10 != 0) {
+								journal.end("t" + t);
+							}
+						}
+					}
+				}
+			};
+			threads[d].start();
+		}
+		for (int d = 0; d < numOfThreads; d++) {
+			threads[d].join();
+		}
+		double appendSeconds = (System.nanoTime() - startTime) / 1e9;
+		journal.sync();
+		double syncSeconds = (System.nanoTime() - startTime) / 1e9;
+		long numOfRecords = journal.getNumOfRecords();
+		long numOfCommits = journal.getNumOfCommits();
+		journal.close();
+
+		startTime = System.nanoTime();
+		Map<String, GameJournal.RecoveredGame> recovered = GameJournal.recover(dir);
+		int numOfMoves = 0;
+		for (GameJournal.RecoveredGame game : recovered.values()) {
+			game.toState();
+			numOfMoves += game.getNumOfMoves();
+		}
+		double recoverySeconds = (System.nanoTime() - startTime) / 1e9;
+
+		if (isReported) {
+			long bytes = 0;
+			for (File file : dir.listFiles()) {
+				bytes += file.length();
+			}
+			System.out.printf("tables=%d threads=%d records=%d ns/record=%.0f records/s=%.0f durable after %.0f ms%n",
+					numOfTables, numOfThreads, numOfRecords, appendSeconds * 1e9 / numOfRecords,
+					numOfRecords / appendSeconds, syncSeconds * 1e3);
+			System.out.printf("commits=%d records/commit=%.0f segments=%d bytes=%d%n", numOfCommits,
+					(double) numOfRecords / Math.max(1, numOfCommits), dir.listFiles().length, bytes);
+			System.out.printf("recovered games=%d moves=%d in %.1f ms%n", recovered.size(), numOfMoves,
+					recoverySeconds * 1e3);
+		}
+	}
+
+	/**
+	 * A method for playing a scripted game (see LoadGenerator.chooseMove).
+	 * @return the seat and the cards of each move
+	 */
+	private static long[][] play(BigTwoDeck deck) {
+		BigTwoGameState state = new BigTwoGameState(BigTwoGameState.deal(deck));
+		ArrayList<long[]> moves = new ArrayList<long[]>();
+		while (!state.isGameOver()) {
+			int playerIdx = state.getCurrentIdx();
+			long hand = state.getHand(playerIdx);
+			long cards = CardSet.select(hand, LoadGenerator.chooseMove(hand, state.isNewRound() ? 0 : state.getLastHand()));
+			moves.add(new long[] {playerIdx, cards});
+			state.apply(playerIdx, cards);
+		}
+		return moves.toArray(new long[moves.size()][]);
+	}
+}
@@ -0,0 +1,375 @@
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The LoadGenerator class drives a Big Two server with many scripted
+ * players. Each player is a headless BigTwoClient speaking the real
+ * protocol: it joins, gets ready, plays whole games with MOVE, chats with
+ * MSG now and then, and may leave (QUIT) after a game to be replaced by a
+ * new player. Moves are paced so that all tables together make the target
+ * number of moves per second.
+ * <p>
+ * Every report interval the generator prints the games finished, the moves
+ * made per second, the percentiles of the move round trip (from sending a
+ * MOVE until the server's MOVE for it arrives) and the number of errors:
+ * connections that failed or were lost, moves rejected and FULL answers.
+ * @author michael
+ *
+ */
+public class LoadGenerator {
+	private String serverIP;						// the address of the server
+	private int serverPort;							// the port of the server
+	private int numOfPlayers;						// number of players kept connected
+	private double targetRate;						// target number of moves per second, 0 for no limit
+	private double chatProbability;					// probability of a chat message after a move
+	private double quitProbability;					// probability of leaving after a game
+	private ScheduledExecutorService scheduler;		// the thread pacing the moves
+	private LatencyHistogram latencies;				// the move round trips of the current interval
+	private LongAdder moves;						// number of moves accepted in the current interval
+	private LongAdder games;						// number of games finished
+	private LongAdder connectErrors;				// number of failed connections
+	private LongAdder disconnects;					// number of connections lost unexpectedly
+	private LongAdder rejectedMoves;				// number of moves rejected
+	private LongAdder fullErrors;					// number of FULL answers
+	private volatile boolean running;				// whether the generator is running
+
+	/**
+	 * Creates and returns an instance of the LoadGenerator class.
+	 * @param serverIP address of the server
+	 * @param serverPort port of the server
+	 * @param numOfPlayers number of players, a multiple of 4 to fill the tables
+	 * @param targetRate target number of moves per second over all tables, 0 for no limit
+	 * @param chatProbability probability of a chat message after a move
+	 * @param quitProbability probability of leaving after a game
+	 */
+	public LoadGenerator(String serverIP, int serverPort, int numOfPlayers, double targetRate,
+			double chatProbability, double quitProbability) {
+		this.serverIP = serverIP;
+		this.serverPort = serverPort;
+		this.numOfPlayers = numOfPlayers;
+		this.targetRate = targetRate;
+		this.chatProbability = chatProbability;
+		this.quitProbability = quitProbability;
+		scheduler = Executors.newSingleThreadScheduledExecutor();
+		latencies = new LatencyHistogram();
+		moves = new LongAdder();
+		games = new LongAdder();
+		connectErrors = new LongAdder();
+		disconnects = new LongAdder();
+		rejectedMoves = new LongAdder();
+		fullErrors = new LongAdder();
+	}
+
+	/**
+	 * main() method for running the load generator.
+	 *
+	 * @param args
+	 *            options --host H (127.0.0.1), --port P (2396), --players N
+	 *            (400), --rate R moves per second (0, i.e. as fast as the
+	 *            server answers), --duration S seconds (60), --interval S
+	 *            seconds between reports (5), --chat P (0.05) and --quit P
+	 *            (0.01). The server needs room for players / 4 tables, e.g.
+	 *            BigTwoServer --nio --tables 100
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		String host = "127.0.0.1";
+		int port = 2396;
+		int numOfPlayers = 400;
+		double rate = 0;
+		int duration = 60;
+		int interval = 5;
+		double chat = 0.05;
+		double quit = 0.01;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			if (args[i].equals("--host")) {
+				host = value;
+			} else if (args[i].equals("--port")) {
+				port = Integer.parseInt(value);
+			} else if (args[i].equals("--players")) {
+				numOfPlayers = Integer.parseInt(value);
+			} else if (args[i].equals("--rate")) {
+				rate = java.lang.Double.parseDouble(value);
+			} else if (args[i].equals("--duration")) {
+				duration = Integer.parseInt(value);
+			} else if (args[i].equals("--interval")) {
+				interval = Integer.parseInt(value);
+			} else if (args[i].equals("--chat")) {
+				chat = java.lang.Double.parseDouble(value);
+			} else if (args[i].equals("--quit")) {
+				quit = java.lang.Double.parseDouble(value);
+			} else {
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+		}
+		LoadGenerator generator = new LoadGenerator(host, port, numOfPlayers, rate, chat, quit);
+		generator.run(duration, interval);
+		System.exit(generator.getNumOfErrors() == 0 ? 0 : 1);
+	}
+
+	/**
+	 * A method for running the load for a period of time, printing a report
+	 * every interval and a summary at the end.
+	 * @param duration number of seconds to run for
+	 * @param interval number of seconds between reports
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void run(int duration, int interval) throws InterruptedException {
+		running = true;
+		ArrayList<Bot> bots = new ArrayList<Bot>();
+		for (int i = 0; i < numOfPlayers; i++) {
+			bots.add(connect("bot" + i));
+		}
+		LatencyHistogram total = new LatencyHistogram();
+		long totalMoves = 0;
+		long startTime = System.nanoTime();
+		long lastTime = startTime;
+		for (int elapsed = 0; elapsed < duration; elapsed += interval) {
+			Thread.sleep(Math.min(interval, duration - elapsed) * 1000L);
+			long now = System.nanoTime();
+			long numOfMoves = moves.sumThenReset();
+			LatencyHistogram current = latencies;
+			latencies = new LatencyHistogram();
+			total.add(current);
+			totalMoves += numOfMoves;
+			System.out.printf("t=%3ds games=%d moves/s=%.0f rtt %s errors=%d%n",
+					(now - startTime) / 1000000000L, games.sum(), numOfMoves * 1e9 / (now - lastTime),
+					current, getNumOfErrors());
+			lastTime = now;
+		}
+		running = false;
+		scheduler.shutdownNow();
+		for (Bot bot : bots) {
+			bot.client.disconnect();
+		}
+		System.out.printf("total: games=%d moves=%d moves/s=%.0f rtt %s%n", games.sum(), totalMoves,
+				totalMoves * 1e9 / (System.nanoTime() - startTime), total);
+		System.out.printf("errors: connect=%d disconnect=%d rejected=%d full=%d%n", connectErrors.sum(),
+				disconnects.sum(), rejectedMoves.sum(), fullErrors.sum());
+	}
+
+	/**
+	 * A method for getting the number of errors so far.
+	 * @return number of failed or lost connections, rejected moves and FULL answers
+	 */
+	public long getNumOfErrors() {
+		return connectErrors.sum() + disconnects.sum() + rejectedMoves.sum() + fullErrors.sum();
+	}
+
+	private Bot connect(String name) {
+		Bot bot = new Bot(name);
+		bot.client.makeConnection();
+		return bot;
+	}
+
+	/**
+	 * A method for choosing a scripted move: the lowest card to start a
+	 * round, the lowest single that beats the last single, or a pass.
+	 * @param hand cards in the player's hand
+	 * @param lastHand cards of the last hand on table, 0 to start a round
+	 * @return the positions of the cards to play in the hand, empty to pass
+	 */
+	static int[] chooseMove(long hand, long lastHand) {
+		if (lastHand == CardSet.EMPTY) {
+			return new int[] {0};
+		}
+		if (CardSet.size(lastHand) == 1) {
+			long higher = hand & -(Long.lowestOneBit(lastHand) << 1);
+			if (higher != CardSet.EMPTY) {
+				return new int[] {CardSet.indexOf(hand, CardSet.lowest(higher))};
+			}
+		}
+		return new int[0];
+	}
+
+	/**
+	 * An inner class for a scripted player.
+	 */
+	private class Bot implements BigTwoClientListener {
+		private String name;					// the name of the player
+		private BigTwoClient client;			// the headless client of the player
+		private Random random;					// the source of chat and quit decisions
+		private volatile long moveSentTime;		// when the pending MOVE was sent, or 0 if none
+		private boolean isLeaving;				// whether the player has chosen to leave
+
+		Bot(String name) {
+			this.name = name;
+			random = new Random();
+			client = new BigTwoClient(name);
+			client.setServerIP(serverIP);
+			client.setServerPort(serverPort);
+			client.addListener(this);
+		}
+
+		@Override
+		public void gameMessage(String msg) {
+			if (msg.startsWith("Server is full")) {
+				fullErrors.increment();
+			}
+			else if (msg.startsWith("Cannot connect")) {
+				connectErrors.increment();
+			}
+		}
+
+		@Override
+		public void chatMessage(String msg) {
+		}
+
+		@Override
+		public void gameStarted(int currentIdx) {
+		}
+
+		@Override
+		public void turnChanged(int currentIdx, boolean isLocalTurn) {
+			moveDone();
+			if (!isLocalTurn || !running) {
+				return;
+			}
+			ArrayList<Hand> handsOnTable = client.getHandsOnTable();
+			Hand lastHandOnTable = handsOnTable.isEmpty() ? null : handsOnTable.get(handsOnTable.size() - 1);
+			long lastHand = (lastHandOnTable == null
+					|| lastHandOnTable.getPlayer() == client.getPlayerList().get(currentIdx))
+					? CardSet.EMPTY : CardSet.of(lastHandOnTable);
+			final int[] cardIdx = chooseMove(client.getHand(currentIdx), lastHand);
+			final int playerID = currentIdx;
+			Runnable move = new Runnable() {
+				public void run() {
+					moveSentTime = System.nanoTime();
+					client.makeMove(playerID, cardIdx);
+					if (random.nextDouble() < chatProbability) {
+						client.sendChatMessage("gl hf from " + name);
+					}
+				}
+			};
+			if (targetRate > 0) {
+				// one player moves at a time at each table
+				double thinkSeconds = numOfPlayers / 4.0 / targetRate;
+				scheduler.schedule(move, (long) (thinkSeconds * 1e6), TimeUnit.MICROSECONDS);
+			}
+			else {
+				move.run();
+			}
+		}
+
+		@Override
+		public void moveRejected(String reason) {
+			moveSentTime = 0;
+			rejectedMoves.increment();
+		}
+
+		@Override
+		public void stateChanged() {
+		}
+
+		@Override
+		public void gameEnded(String result) {
+			moveDone();
+			if (client.getPlayerID() == 0) {
+				games.increment();
+			}
+			if (running && random.nextDouble() < quitProbability) {
+				isLeaving = true;
+				client.disconnect();
+			}
+		}
+
+		@Override
+		public void disconnected() {
+			if (!running) {
+				return;
+			}
+			if (!isLeaving) {
+				disconnects.increment();
+			}
+			else {
+				// a new player takes the seat that has been left
+				scheduler.execute(new Runnable() {
+					public void run() {
+						connect(name);
+					}
+				});
+			}
+		}
+
+		private void moveDone() {
+			long sentTime = moveSentTime;
+			if (sentTime != 0) {
+				moveSentTime = 0;
+				latencies.record(System.nanoTime() - sentTime);
+				moves.increment();
+			}
+		}
+	}
+
+	/**
+	 * An inner class for a histogram of latencies with buckets that are
+	 * about 3% wide, which can be recorded into from many threads.
+	 */
+	static class LatencyHistogram {
+		private static final int SUB_BUCKETS = 32;				// buckets per power of two
+		private AtomicLongArray counts;							// the count of each bucket
+		private LongAdder total;								// number of latencies recorded
+
+		LatencyHistogram() {
+			counts = new AtomicLongArray(64 * SUB_BUCKETS);
+			total = new LongAdder();
+		}
+
+		void record(long nanos) {
+			counts.incrementAndGet(bucketOf(Math.max(1, nanos)));
+			total.increment();
+		}
+
+		void add(LatencyHistogram other) {
+			for (int i = 0; i < counts.length(); i++) {
+				counts.addAndGet(i, other.counts.get(i));
+			}
+			total.add(other.total.sum());
+		}
+
+		long percentile(double p) {
+			long target = (long) Math.ceil(total.sum() * p);
+			long seen = 0;
+			for (int i = 0; i < counts.length(); i++) {
+				seen += counts.get(i);
+				if (seen >= Math.max(1, target)) {
+					return upperBoundOf(i);
+				}
+			}
+			return 0;
+		}
+
+		private static int bucketOf(long nanos) {
+			int exponent = 63 - Long.numberOfLeadingZeros(nanos);
+			if (exponent < 5) {
+				return (int) nanos;
+			}
+			int sub = (int) (nanos >>> (exponent - 5)) & (SUB_BUCKETS - 1);
+			return (exponent - 4) * SUB_BUCKETS + sub;
+		}
+
+		private static long upperBoundOf(int bucket) {
+			if (bucket < SUB_BUCKETS) {
+				return bucket;
+			}
+			int exponent = bucket / SUB_BUCKETS + 4;
+			long sub = bucket % SUB_BUCKETS;
+			return ((SUB_BUCKETS + sub + 1) << (exponent - 5)) - 1;
+		}
+
+		@Override
+		public String toString() {
+			if (total.sum() == 0) {
+				return "n/a";
+			}
+			return String.format("p50=%.2fms p90=%.2fms p99=%.2fms p999=%.2fms", percentile(0.5) / 1e6,
+					percentile(0.9) / 1e6, percentile(0.99) / 1e6, percentile(0.999) / 1e6);
+		}
+	}
+}
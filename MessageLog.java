@@ -0,0 +1,271 @@
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.JScrollBar;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+/**
+ * The MessageLog class keeps the text of a JTextArea to a bounded number
+ * of lines, so that a client left open all day uses the same memory as one
+ * just started. A line is one message appended, however it wraps.
+ * <p>
+ * The text area shows a window of the lines of the log. New lines are
+ * appended in batches, one document change per batch. When the window
+ * holds more than the line cap, its oldest lines are removed and spilled
+ * to a transcript on disk, whose entries are written with writeUTF(). When
+ * the user scrolls to the top, older lines are paged back in from the
+ * transcript, up to another line cap, and they are removed again by the
+ * first batch appended while the user is back at the bottom.
+ * <p>
+ * Apart from append(), the methods must be called on the Event Dispatch
+ * Thread.
+ * @author michael
+ *
+ */
+public class MessageLog {
+	public static final int DEFAULT_MAX_LINES = 500;	// default line cap
+	private static final int PAGE_LINES = 100;			// number of lines paged in at a time, and between indexed offsets
+	private static final int MAX_UTF_CHARS = 20000;		// longest line spilled in full (writeUTF takes up to 65535 bytes)
+
+	private JTextArea textArea;				// the text area showing the window of lines
+	private JScrollBar scrollBar;			// the vertical scroll bar of the text area
+	private int maxLines;					// the line cap of the window, not counting lines paged back in
+	private int[] lengths;					// a ring buffer of the lengths of the lines in the window, with the newline
+	private int ringStart;					// the index in lengths of the oldest line in the window
+	private int windowSize;					// the number of lines in the window
+	private long firstShown;				// the index in the log of the oldest line in the window
+	private long numOfLines;				// the number of lines in the log
+	private long numOfSpilled;				// the number of lines in the transcript, i.e. the oldest lines of the log
+	private RandomAccessFile transcript;	// the lines spilled to disk, or null if it cannot be written
+	private long transcriptLength;			// the number of bytes written to the transcript
+	private long[] pageOffsets;				// the offset in the transcript of every PAGE_LINES-th line
+	private ConcurrentLinkedQueue<String> pending;	// the lines appended and not yet shown
+	private AtomicBoolean isFlushScheduled;	// whether showing the pending lines has been scheduled
+	private int lastScrollValue;			// the position of the scroll bar before it last moved
+
+	/**
+	 * A constructor for creating a log for a text area in a scroll pane.
+	 * @param textArea text area showing the log
+	 * @param scroller scroll pane of the text area
+	 * @param maxLines line cap of the text area
+	 */
+	public MessageLog(JTextArea textArea, JScrollPane scroller, int maxLines) {
+		this.textArea = textArea;
+		this.scrollBar = scroller.getVerticalScrollBar();
+		this.maxLines = Math.max(1, maxLines);
+		lengths = new int[2 * this.maxLines];
+		pageOffsets = new long[16];
+		pending = new ConcurrentLinkedQueue<String>();
+		isFlushScheduled = new AtomicBoolean();
+		try {
+			File file = File.createTempFile("bigtwo-log", ".transcript");
+			file.deleteOnExit();
+			transcript = new RandomAccessFile(file, "rw");
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		scrollBar.addAdjustmentListener(event -> {
+			if (!event.getValueIsAdjusting() && event.getValue() == scrollBar.getMinimum()
+					&& lastScrollValue > scrollBar.getMinimum()) {
+				pageBack();
+			}
+			lastScrollValue = event.getValue();
+		});
+	}
+
+	/**
+	 * A method for appending a line. It may be called on any thread; the
+	 * line is shown with the other lines appended in the same batch.
+	 * @param line line to be appended
+	 */
+	public void append(String line) {
+		pending.add(line);
+		if (isFlushScheduled.compareAndSet(false, true)) {
+			SwingUtilities.invokeLater(this::flush);
+		}
+	}
+
+	/**
+	 * A method for clearing the text area. The lines shown are spilled to
+	 * the transcript first, so they can still be paged back in.
+	 */
+	public void clear() {
+		flush();
+		removeOldest(windowSize);
+	}
+
+	/**
+	 * A method for getting the number of lines shown in the text area.
+	 * @return number of lines in the window
+	 */
+	public int getNumOfLinesShown() {
+		return windowSize;
+	}
+
+	/**
+	 * A method for getting the number of lines in the transcript.
+	 * @return number of lines spilled to disk
+	 */
+	public long getNumOfLinesSpilled() {
+		return numOfSpilled;
+	}
+
+	/**
+	 * A method for showing the pending lines in one change of the document
+	 * and removing the oldest lines beyond the line cap in another. Lines
+	 * of a batch too old to be shown go straight to the transcript. Lines
+	 * paged back in are kept while the user is not at the bottom of the log.
+	 */
+	private void flush() {
+		isFlushScheduled.set(false);
+		ArrayList<String> lines = new ArrayList<String>();
+		String line;
+		while ((line = pending.poll()) != null) {
+			lines.add(line);
+		}
+		if (lines.isEmpty()) {
+			return;
+		}
+		boolean isAtBottom = scrollBar.getValue() + scrollBar.getVisibleAmount() >= scrollBar.getMaximum();
+		int cap = isAtBottom ? maxLines : lengths.length;
+		int numOfHidden = Math.max(0, lines.size() - cap);
+		removeOldest(Math.min(windowSize, windowSize + lines.size() - numOfHidden - cap));
+		if (numOfHidden > 0) {
+			spill(lines.subList(0, numOfHidden));
+			numOfLines += numOfHidden;
+			firstShown = numOfLines;
+		}
+		StringBuilder text = new StringBuilder();
+		for (String shown : lines.subList(numOfHidden, lines.size())) {
+			text.append(shown).append('\n');
+			lengths[(ringStart + windowSize) % lengths.length] = shown.length() + 1;
+			windowSize++;
+			numOfLines++;
+		}
+		textArea.append(text.toString());
+	}
+
+	/**
+	 * A method for removing the oldest lines of the window from the text
+	 * area, spilling those not there yet to the transcript.
+	 * @param count number of lines to be removed
+	 */
+	private void removeOldest(int count) {
+		if (count <= 0) {
+			return;
+		}
+		int length = 0;
+		int[] lineLengths = new int[count];
+		for (int i = 0; i < count; i++) {
+			lineLengths[i] = lengths[(ringStart + i) % lengths.length];
+			length += lineLengths[i];
+		}
+		Document document = textArea.getDocument();
+		try {
+			String text = document.getText(0, Math.min(length, document.getLength()));
+			ArrayList<String> unspilled = new ArrayList<String>();
+			int offset = 0;
+			for (int i = 0; i < count; i++) {
+				if (firstShown + i >= numOfSpilled) {
+					unspilled.add(text.substring(offset, Math.min(text.length(), offset + lineLengths[i] - 1)));
+				}
+				offset += lineLengths[i];
+			}
+			spill(unspilled);
+			document.remove(0, text.length());
+		} catch (BadLocationException e) {
+			e.printStackTrace();
+		}
+		ringStart = (ringStart + count) % lengths.length;
+		windowSize -= count;
+		firstShown += count;
+	}
+
+	/**
+	 * A method for appending lines to the transcript with one write, and
+	 * indexing every PAGE_LINES-th line.
+	 */
+	private void spill(List<String> lines) {
+		if (transcript != null && !lines.isEmpty()) {
+			try {
+				ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				DataOutputStream out = new DataOutputStream(bytes);
+				for (int i = 0; i < lines.size(); i++) {
+					long index = numOfSpilled + i;
+					if (index % PAGE_LINES == 0) {
+						int page = (int) (index / PAGE_LINES);
+						if (page == pageOffsets.length) {
+							pageOffsets = Arrays.copyOf(pageOffsets, 2 * page);
+						}
+						pageOffsets[page] = transcriptLength + bytes.size();
+					}
+					String line = lines.get(i);
+					out.writeUTF(line.length() > MAX_UTF_CHARS ? line.substring(0, MAX_UTF_CHARS) : line);
+				}
+				transcript.seek(transcriptLength);
+				transcript.write(bytes.toByteArray());
+				transcriptLength += bytes.size();
+			} catch (IOException e) {
+				e.printStackTrace();
+				transcript = null;
+			}
+		}
+		numOfSpilled += lines.size();
+	}
+
+	/**
+	 * A method for paging back in the PAGE_LINES lines before the window,
+	 * if there is room for them, keeping the lines the user was reading in
+	 * view.
+	 */
+	private void pageBack() {
+		int room = lengths.length - windowSize;
+		int count = (int) Math.min(Math.min(PAGE_LINES, room), firstShown);
+		if (transcript == null || count <= 0) {
+			return;
+		}
+		ArrayList<String> lines = new ArrayList<String>(count);
+		long from = firstShown - count;
+		try {
+			transcript.seek(pageOffsets[(int) (from / PAGE_LINES)]);
+			DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(transcript.getChannel())));
+			for (long i = from - from % PAGE_LINES; i < firstShown; i++) {
+				String line = in.readUTF();
+				if (i >= from) {
+					lines.add(line);
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+			return;
+		}
+		StringBuilder text = new StringBuilder();
+		for (int i = count - 1; i >= 0; i--) {
+			ringStart = (ringStart - 1 + lengths.length) % lengths.length;
+			lengths[ringStart] = lines.get(i).length() + 1;
+		}
+		for (String line : lines) {
+			text.append(line).append('\n');
+		}
+		windowSize += count;
+		firstShown = from;
+		int oldMaximum = scrollBar.getMaximum();
+		textArea.insert(text.toString(), 0);
+		SwingUtilities.invokeLater(() -> scrollBar.setValue(scrollBar.getMaximum() - oldMaximum));
+	}
+}
@@ -0,0 +1,426 @@
+import java.util.Arrays;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * The MonteCarloBot class is a computer player for Big Two. To choose a
+ * move, it deals the cards it cannot see (those neither in its hand nor
+ * played) to the other players at random, as many as each of them holds,
+ * and plays the game out with random moves (see MoveGenerator), over and
+ * over until its time budget is spent. Each playout tries one of its legal
+ * moves, picked by UCB1 from the results so far, and the move tried most
+ * is played. Once few cards are left, the deals are solved exactly by an
+ * EndgameSolver instead, unless it cannot solve enough of them in half the
+ * time budget.
+ * <p>
+ * The playouts are run by a ForkJoinPool: the task splits into one leaf per
+ * worker, each with its own random numbers and results, and the results
+ * are added up as the tasks are joined, so the workers share nothing while
+ * they play. main() connects bots to a server to fill the empty seats of a
+ * table, each a headless BigTwoClient speaking the real protocol.
+ * @author michael
+ *
+ */
+public class MonteCarloBot {
+	public static final int DEFAULT_BUDGET_MILLIS = 500;	// default time to choose a move
+
+	private static final long ALL_CARDS = (1L << 52) - 1;	// every card of the deck as a CardSet
+	private static final double EXPLORATION = 0.7;			// the weight of the exploration term of UCB1
+	private static final int ENDGAME_CARDS = 16;			// number of cards left from which the endgame is solved
+	private static final int ENDGAME_DEALS = 32;			// maximum number of deals solved in the endgame
+
+	private ForkJoinPool pool;				// the workers running the playouts
+	private long budgetNanos;				// time to choose a move
+	private SplittableRandom random;		// the source of the random numbers of the workers
+	private long numOfPlayouts;				// number of playouts run for the last move chosen
+	private EndgameSolver solver;			// the solver of the endgame, created when first needed
+
+	/**
+	 * Creates and returns an instance of the MonteCarloBot class.
+	 * @param pool the workers to run the playouts, which may be shared by bots
+	 * @param budgetMillis time to choose a move in milliseconds
+	 * @param seed seed of the random numbers
+	 */
+	public MonteCarloBot(ForkJoinPool pool, long budgetMillis, long seed) {
+		this.pool = pool;
+		this.budgetNanos = budgetMillis * 1000000L;
+		random = new SplittableRandom(seed);
+	}
+
+	/**
+	 * main() method for filling the empty seats of a table with bots.
+	 *
+	 * @param args
+	 *            options --host H (127.0.0.1), --port P (2396), --bots N (3)
+	 *            and --budget MS milliseconds to choose a move (500). It
+	 *            returns when every bot has been disconnected
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		String host = "127.0.0.1";
+		int port = 2396;
+		int numOfBots = 3;
+		long budget = DEFAULT_BUDGET_MILLIS;
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			if (args[i].equals("--host")) {
+				host = value;
+			} else if (args[i].equals("--port")) {
+				port = Integer.parseInt(value);
+			} else if (args[i].equals("--bots")) {
+				numOfBots = Integer.parseInt(value);
+			} else if (args[i].equals("--budget")) {
+				budget = Long.parseLong(value);
+			} else {
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+		}
+		ForkJoinPool pool = new ForkJoinPool();
+		// the bots of a table move one at a time, so one thread hands their moves to the pool
+		ExecutorService decisions = Executors.newSingleThreadExecutor();
+		CountDownLatch connected = new CountDownLatch(numOfBots);
+		for (int i = 0; i < numOfBots; i++) {
+			Seat seat = new Seat("bot" + i, new MonteCarloBot(pool, budget, System.nanoTime() + i), decisions,
+					connected);
+			seat.client.setServerIP(host);
+			seat.client.setServerPort(port);
+			seat.client.makeConnection();
+		}
+		connected.await();
+		decisions.shutdownNow();
+		pool.shutdownNow();
+	}
+
+	/**
+	 * A method for choosing a move.
+	 * @param view what the player knows about the game, with the player to move as current player
+	 * @param playedCards every card played so far in the game
+	 * @return cards to play as a CardSet, or 0 to pass
+	 */
+	public long chooseMove(BigTwoSnapshot view, long playedCards) {
+		return chooseMove(view, playedCards, null);
+	}
+
+	/**
+	 * A method for choosing a move, dealing each other player only the
+	 * cards he/she may hold (see CardTracker.getPossibleCards()) as far as
+	 * the cards go round.
+	 * @param view what the player knows about the game, with the player to move as current player
+	 * @param playedCards every card played so far in the game
+	 * @param possibleCards the cards each player may hold, or null if any of the unseen cards
+	 * @return cards to play as a CardSet, or 0 to pass
+	 */
+	public long chooseMove(BigTwoSnapshot view, long playedCards, long[] possibleCards) {
+		int seat = view.getCurrentIdx();
+		boolean isNewRound = view.getLastHandPlayer() < 0 || view.getLastHandPlayer() == seat;
+		long[] moves = new long[MoveGenerator.MAX_MOVES + 1];
+		int n = MoveGenerator.generate(view.getHand(), isNewRound ? 0 : view.getLastHand(),
+				(view.getLastHandPlayer() < 0) ? CardSet.THREE_OF_DIAMONDS : 0, moves);
+		if (!isNewRound) {
+			moves[n++] = 0;						// passing
+		}
+		numOfPlayouts = 0;
+		if (n <= 1) {
+			return (n == 0) ? 0 : moves[0];
+		}
+		long deadline = System.nanoTime() + budgetNanos;
+		int numOfCardsLeft = 0;
+		for (int i = 0; i < BigTwoGameState.NUM_OF_PLAYERS; i++) {
+			numOfCardsLeft += view.getNumOfCards(i);
+		}
+		if (numOfCardsLeft <= ENDGAME_CARDS) {
+			if (solver == null) {
+				solver = new EndgameSolver(ENDGAME_CARDS, 18);
+			}
+			// the solver gets half the budget, about 4000 positions a millisecond
+			long move = solver.chooseMove(view, playedCards, ENDGAME_DEALS, budgetNanos / 500, random);
+			if (solver.getNumOfDeals() >= ENDGAME_DEALS / 4) {
+				return move;
+			}
+			// too few deals have been solved to trust the move, so the rest of the budget goes to playouts
+		}
+		long[] candidates = Arrays.copyOf(moves, n);
+		long unseen = ALL_CARDS & ~view.getHand() & ~playedCards;
+		long[] results = pool.invoke(new Playouts(view, candidates, unseen, possibleCards, deadline,
+				pool.getParallelism(), random.split()));
+		int best = 0;
+		for (int c = 0; c < n; c++) {
+			numOfPlayouts += results[2 * c];
+			if (results[2 * c] > results[2 * best]) {
+				best = c;
+			}
+		}
+		return candidates[best];
+	}
+
+	/**
+	 * A method for getting the number of playouts run for the last move
+	 * chosen.
+	 * @return number of playouts, 0 if the move was the only one allowed
+	 */
+	public long getNumOfPlayouts() {
+		return numOfPlayouts;
+	}
+
+	/**
+	 * A method for playing a game out with random moves: any legal hand or,
+	 * unless starting a new round, a pass.
+	 * @param state the game, which is changed
+	 * @param moves array for the legal hands, of at least MoveGenerator.MAX_MOVES elements
+	 * @param random the source of random numbers
+	 * @return index of the winner
+	 */
+	static int playOut(BigTwoGameState state, long[] moves, SplittableRandom random) {
+		while (!state.isGameOver()) {
+			int n = state.generateMoves(moves);
+			int choice = random.nextInt(state.isNewRound() ? n : n + 1);
+			state.apply(state.getCurrentIdx(), (choice < n) ? moves[choice] : 0);
+		}
+		return state.getLastHandPlayer();
+	}
+
+	/**
+	 * An inner class for the task running playouts until a deadline. It
+	 * splits until there is one leaf per worker, and returns the number of
+	 * playouts and wins of each candidate move, interleaved.
+	 */
+	private static class Playouts extends RecursiveTask<long[]> {
+		private static final long serialVersionUID = 1L;
+		private BigTwoSnapshot view;			// what the player knows about the game
+		private long[] candidates;				// the moves the player may make
+		private long unseen;					// the cards held by the other players or not dealt
+		private long[] possibleCards;			// the cards each player may hold, or null if any unseen card
+		private long deadline;					// when to stop, as System.nanoTime()
+		private int numOfWorkers;				// number of leaves this task splits into
+		private SplittableRandom random;		// the source of random numbers of this task
+
+		Playouts(BigTwoSnapshot view, long[] candidates, long unseen, long[] possibleCards, long deadline,
+				int numOfWorkers, SplittableRandom random) {
+			this.view = view;
+			this.candidates = candidates;
+			this.unseen = unseen;
+			this.possibleCards = possibleCards;
+			this.deadline = deadline;
+			this.numOfWorkers = numOfWorkers;
+			this.random = random;
+		}
+
+		@Override
+		protected long[] compute() {
+			if (numOfWorkers > 1) {
+				int half = numOfWorkers / 2;
+				Playouts left = new Playouts(view, candidates, unseen, possibleCards, deadline, half,
+						random.split());
+				Playouts right = new Playouts(view, candidates, unseen, possibleCards, deadline,
+						numOfWorkers - half, random);
+				left.fork();
+				long[] results = right.compute();
+				long[] leftResults = left.join();
+				for (int i = 0; i < results.length; i++) {
+					results[i] += leftResults[i];
+				}
+				return results;
+			}
+
+			int seat = view.getCurrentIdx();
+			long[] results = new long[2 * candidates.length];
+			long[] moves = new long[MoveGenerator.MAX_MOVES];
+			long[] hands = new long[BigTwoGameState.NUM_OF_PLAYERS];
+			int[] unseenBits = new int[CardSet.size(unseen)];
+			int u = 0;
+			for (long s = unseen; s != 0; s &= s - 1) {
+				unseenBits[u++] = Long.numberOfTrailingZeros(s);
+			}
+			int[] order = (possibleCards == null) ? null : mostConstrainedFirst(seat);
+			int total = 0;
+			do {
+				if (order == null) {
+					deal(hands, seat, unseenBits);
+				}
+				else {
+					dealPossible(hands, seat, order);
+				}
+				int c = select(results, total);
+				BigTwoGameState state = new BigTwoGameState(hands, seat, view.getLastHand(),
+						view.getLastHandPlayer(), 0);
+				state.apply(seat, candidates[c]);
+				results[2 * c]++;
+				if (playOut(state, moves, random) == seat) {
+					results[2 * c + 1]++;
+				}
+				total++;
+			} while (System.nanoTime() < deadline);
+			return results;
+		}
+
+		/**
+		 * A method for dealing the unseen cards to the other players at
+		 * random, as many as each of them holds.
+		 */
+		private void deal(long[] hands, int seat, int[] unseenBits) {
+			int next = 0;
+			for (int i = 0; i < hands.length; i++) {
+				if (i == seat) {
+					hands[i] = view.getHand();
+					continue;
+				}
+				hands[i] = CardSet.EMPTY;
+				int numOfCards = Math.min(view.getNumOfCards(i), unseenBits.length - next);
+				for (int k = 0; k < numOfCards; k++, next++) {
+					int j = next + random.nextInt(unseenBits.length - next);
+					int bit = unseenBits[j];
+					unseenBits[j] = unseenBits[next];
+					unseenBits[next] = bit;
+					hands[i] |= 1L << bit;
+				}
+			}
+		}
+
+		/**
+		 * A method for dealing the unseen cards to the other players at
+		 * random, giving each the cards he/she may hold while there are
+		 * enough of them and any others after that.
+		 */
+		private void dealPossible(long[] hands, int seat, int[] order) {
+			hands[seat] = view.getHand();
+			long remaining = unseen;
+			for (int i : order) {
+				long allowed = remaining & possibleCards[i];
+				hands[i] = CardSet.EMPTY;
+				for (int k = 0; k < view.getNumOfCards(i) && remaining != 0; k++) {
+					if (allowed == 0) {
+						allowed = remaining;
+					}
+					long card = 1L << CardSet.bitAt(allowed, random.nextInt(CardSet.size(allowed)));
+					hands[i] |= card;
+					allowed &= ~card;
+					remaining &= ~card;
+				}
+			}
+		}
+
+		/**
+		 * A method for ordering the other players from the one who may hold
+		 * the fewest unseen cards to the one who may hold the most.
+		 */
+		private int[] mostConstrainedFirst(int seat) {
+			int[] order = new int[BigTwoGameState.NUM_OF_PLAYERS - 1];
+			int n = 0;
+			for (int i = 0; i < BigTwoGameState.NUM_OF_PLAYERS; i++) {
+				if (i == seat) {
+					continue;
+				}
+				int numOfPossible = CardSet.size(unseen & possibleCards[i]);
+				int j = n++;
+				while (j > 0 && CardSet.size(unseen & possibleCards[order[j - 1]]) > numOfPossible) {
+					order[j] = order[j - 1];
+					j--;
+				}
+				order[j] = i;
+			}
+			return order;
+		}
+
+		/**
+		 * A method for picking the candidate move to try next by UCB1, each
+		 * being tried once first.
+		 */
+		private int select(long[] results, int total) {
+			if (total < candidates.length) {
+				return total;
+			}
+			double logTotal = Math.log(total);
+			int best = 0;
+			double bestScore = -1;
+			for (int c = 0; c < candidates.length; c++) {
+				double playouts = results[2 * c];
+				double score = results[2 * c + 1] / playouts + EXPLORATION * Math.sqrt(logTotal / playouts);
+				if (score > bestScore) {
+					best = c;
+					bestScore = score;
+				}
+			}
+			return best;
+		}
+	}
+
+	/**
+	 * An inner class for a bot taking a seat at a server as a headless
+	 * BigTwoClient. Moves are chosen on another thread so that the client
+	 * keeps reading messages meanwhile.
+	 */
+	static class Seat implements BigTwoClientListener {
+		private BigTwoClient client;			// the headless client of the player
+		private MonteCarloBot bot;				// the chooser of the moves
+		private ExecutorService decisions;		// the thread choosing the moves
+		private CountDownLatch connected;		// counted down when the connection is lost
+
+		Seat(String name, MonteCarloBot bot, ExecutorService decisions, CountDownLatch connected) {
+			this.bot = bot;
+			this.decisions = decisions;
+			this.connected = connected;
+			client = new BigTwoClient(name);
+			client.addListener(this);
+		}
+
+		@Override
+		public void gameMessage(String msg) {
+		}
+
+		@Override
+		public void chatMessage(String msg) {
+		}
+
+		@Override
+		public void gameStarted(int currentIdx) {
+		}
+
+		@Override
+		public void turnChanged(int currentIdx, boolean isLocalTurn) {
+			if (!isLocalTurn) {
+				return;
+			}
+			// the view is taken here, on the thread applying the messages to the client
+			final BigTwoSnapshot view = client.snapshot(currentIdx);
+			final long played = client.getPlayedCards();
+			final long[] possibleCards = new long[BigTwoGameState.NUM_OF_PLAYERS];
+			for (int i = 0; i < possibleCards.length; i++) {
+				possibleCards[i] = client.getCardTracker().getPossibleCards(i);
+			}
+			final long hand = view.getHand();
+			final int playerID = currentIdx;
+			decisions.execute(new Runnable() {
+				public void run() {
+					long move = bot.chooseMove(view, played, possibleCards);
+					int[] cardIdx = new int[CardSet.size(move)];
+					int k = 0;
+					for (long s = move; s != 0; s &= s - 1) {
+						cardIdx[k++] = CardSet.indexOf(hand, Long.numberOfTrailingZeros(s));
+					}
+					client.makeMove(playerID, cardIdx);
+				}
+			});
+		}
+
+		@Override
+		public void moveRejected(String reason) {
+		}
+
+		@Override
+		public void stateChanged() {
+		}
+
+		@Override
+		public void gameEnded(String result) {
+		}
+
+		@Override
+		public void disconnected() {
+			connected.countDown();
+		}
+	}
+}
@@ -0,0 +1,100 @@
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * The MonteCarloBotBenchmark class measures how long a MonteCarloBot takes
+ * to choose a move and how often it wins. Games are dealt at random and
+ * played out locally between one MonteCarloBot and three greedy players
+ * (see Tournament.GREEDY), which play the hand with the most cards they can, the weakest of those,
+ * and pass only if they cannot beat the last hand. The seat of the bot
+ * goes round the table from game to game. The win rate of the bot is
+ * reported with that of a greedy player in its seat (25% if it were no
+ * better than the others), and the percentiles of its decision time with
+ * the number of playouts per move. The bot keeps count of the cards with
+ * a CardTracker, so that it only deals the other players cards they may
+ * hold.
+ * @author michael
+ *
+ */
+public class MonteCarloBotBenchmark {
+	/**
+	 * main() method for running the benchmark.
+	 *
+	 * @param args
+	 *            the number of games and the time budget of a move in
+	 *            milliseconds. 100 games and 50 ms are used if no arguments
+	 *            has been supplied
+	 */
+	public static void main(String[] args) {
+		int numOfGames = (args.length > 0) ? Integer.parseInt(args[0]) : 100;
+		long budget = (args.length > 1) ? Long.parseLong(args[1]) : 50;
+
+		ForkJoinPool pool = new ForkJoinPool();
+		MonteCarloBot bot = new MonteCarloBot(pool, budget, 2396);
+		LoadGenerator.LatencyHistogram latencies = new LoadGenerator.LatencyHistogram();
+		long[] moves = new long[MoveGenerator.MAX_MOVES];
+		CardTracker tracker = new CardTracker();
+		long[] possibleCards = new long[BigTwoGameState.NUM_OF_PLAYERS];
+		Random random = new Random(2396);
+		int wins = 0;
+		long numOfDecisions = 0;
+		long numOfPlayouts = 0;
+		long startTime = System.nanoTime();
+		for (int g = 0; g < numOfGames; g++) {
+			int botSeat = g % BigTwoGameState.NUM_OF_PLAYERS;
+			BigTwoGameState state = new BigTwoGameState(deal(random));
+			tracker.start(botSeat, state.getHand(botSeat), CardSet.EMPTY, CardSet.EMPTY, -1);
+			while (!state.isGameOver()) {
+				int playerIdx = state.getCurrentIdx();
+				long cards;
+				if (playerIdx == botSeat) {
+					long decisionStart = System.nanoTime();
+					for (int i = 0; i < possibleCards.length; i++) {
+						possibleCards[i] = tracker.getPossibleCards(i);
+					}
+					cards = bot.chooseMove(state.snapshot(playerIdx), tracker.getPlayedCards(), possibleCards);
+					latencies.record(System.nanoTime() - decisionStart);
+					numOfDecisions++;
+					numOfPlayouts += bot.getNumOfPlayouts();
+				}
+				else {
+					cards = Tournament.greedyMove(state, moves);
+				}
+				if (state.play(playerIdx, cards) != BigTwoGameState.ACCEPTED) {
+					throw new IllegalStateException("Illegal move " + CardSet.toString(cards) + " by " + playerIdx);
+				}
+				tracker.update(playerIdx, cards);
+			}
+			if (state.getLastHandPlayer() == botSeat) {
+				wins++;
+			}
+		}
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		pool.shutdown();
+
+		System.out.printf("games=%d budget=%d ms workers=%d in %.1f s%n", numOfGames, budget,
+				pool.getParallelism(), seconds);
+		System.out.printf("win rate=%.1f%% (greedy 25.0%%) decisions=%d playouts/move=%d%n",
+				100.0 * wins / numOfGames, numOfDecisions, numOfPlayouts / Math.max(1, numOfDecisions));
+		System.out.printf("decision %s%n", latencies);
+	}
+
+	/**
+	 * A method for dealing a shuffled deck to the four players.
+	 */
+	private static long[] deal(Random random) {
+		int[] deck = new int[52];
+		for (int i = 0; i < deck.length; i++) {
+			deck[i] = i;
+		}
+		long[] hands = new long[BigTwoGameState.NUM_OF_PLAYERS];
+		for (int i = deck.length - 1; i >= 0; i--) {
+			int j = random.nextInt(i + 1);
+			int bit = deck[j];
+			deck[j] = deck[i];
+			deck[i] = bit;
+			hands[i / 13] |= 1L << bit;
+		}
+		return hands;
+	}
+}
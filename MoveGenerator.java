@@ -0,0 +1,232 @@
+import java.util.Arrays;
+
+/**
+ * The MoveGenerator class lists the hands a player may legally play (see
+ * CardSet) without building any Hand objects. The cards of each rank are a
+ * 4-bit nibble of the hand, so pairs and triples are the 2- and 3-card
+ * subsets of a nibble (looked up in a table), straights are one card from
+ * each of five consecutive non-empty nibbles, flushes are 5-card subsets
+ * of one suit, and full houses and quads combine the subsets of two ranks.
+ * The strength of each hand (see HandClassifier) is worked out as it is
+ * built, and only the hands that beat the last hand on table are kept, so
+ * that whole types that cannot beat it are skipped.
+ * @author michael
+ *
+ */
+public final class MoveGenerator {
+	public static final int MAX_MOVES = 1664;		// the number of 1, 2, 3 and 5-card subsets of 13 cards, more than any hand has
+
+	private static final int[][] PAIRS = subsets(2);		// the 2-card subsets of each nibble
+	private static final int[][] TRIPLES = subsets(3);		// the 3-card subsets of each nibble
+
+	private MoveGenerator() {
+	}
+
+	/**
+	 * A method for listing the hands that may be played.
+	 * @param hand cards in the player's hand
+	 * @param lastHand cards of the last hand on table, or 0 if the player starts a new round
+	 * @param required cards every hand must contain, e.g. CardSet.THREE_OF_DIAMONDS for
+	 *            the first hand of a game, or 0 if none
+	 * @param moves array to be filled with the hands, of at least MAX_MOVES elements
+	 * @return the number of hands, grouped by type; passing is not counted
+	 */
+	public static int generate(long hand, long lastHand, long required, long[] moves) {
+		int size = Long.bitCount(lastHand);
+		int last = (size == 0) ? HandClassifier.INVALID : HandClassifier.classify(lastHand);
+		int[] nibbles = new int[13];
+		int ranks = 0;							// a bit for each rank present
+		for (int r = 0; r < 13; r++) {
+			nibbles[r] = (int) (hand >>> (r * 4)) & 0xF;
+			if (nibbles[r] != 0) {
+				ranks |= 1 << r;
+			}
+		}
+
+		int n = 0;
+		if (size == 0 || size == 1) {
+			for (long s = hand; s != 0; s &= s - 1) {
+				int bit = Long.numberOfTrailingZeros(s);
+				n = add(moves, n, 1L << bit, HandClassifier.strength(HandClassifier.SINGLE, bit), last, required);
+			}
+		}
+		if (size == 0 || size == 2 || size == 3) {
+			int[][] subsets = (size == 3) ? TRIPLES : PAIRS;
+			int type = (size == 3) ? HandClassifier.TRIPLE : HandClassifier.PAIR;
+			for (int pass = (size == 0) ? 0 : 1; pass < 2; pass++) {
+				for (int r = 0; r < 13; r++) {
+					for (int sub : subsets[nibbles[r]]) {
+						int top = r * 4 + 31 - Integer.numberOfLeadingZeros(sub);
+						n = add(moves, n, (long) sub << (r * 4), HandClassifier.strength(type, top), last, required);
+					}
+				}
+				// with no last hand, the triples follow the pairs
+				subsets = TRIPLES;
+				type = HandClassifier.TRIPLE;
+			}
+		}
+		if (size == 0 || size == 5) {
+			// a straight flush may beat any hand, so the straights are always listed
+			n = straights(nibbles, ranks, last, required, moves, n);
+			if (canBeat(HandClassifier.FLUSH, last)) {
+				n = flushes(hand, last, required, moves, n);
+			}
+			if (canBeat(HandClassifier.FULL_HOUSE, last)) {
+				n = fullHouses(nibbles, last, required, moves, n);
+			}
+			if (canBeat(HandClassifier.QUAD, last)) {
+				n = quads(hand, nibbles, last, required, moves, n);
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * A method for listing the straights and straight flushes: one card of
+	 * each of five consecutive ranks.
+	 */
+	private static int straights(int[] nibbles, int ranks, int last, long required, long[] moves, int n) {
+		for (int low = 0; low + 4 < 13; low++) {
+			if (((ranks >>> low) & 0x1F) != 0x1F) {
+				continue;
+			}
+			for (int a = nibbles[low]; a != 0; a &= a - 1) {
+				int ca = a & -a;
+				for (int b = nibbles[low + 1]; b != 0; b &= b - 1) {
+					int cb = b & -b;
+					for (int c = nibbles[low + 2]; c != 0; c &= c - 1) {
+						int cc = c & -c;
+						for (int d = nibbles[low + 3]; d != 0; d &= d - 1) {
+							int cd = d & -d;
+							for (int e = nibbles[low + 4]; e != 0; e &= e - 1) {
+								int ce = e & -e;
+								long cards = ((long) (ca | cb << 4 | cc << 8 | cd << 12 | ce << 16)) << (low * 4);
+								int top = (low + 4) * 4 + Integer.numberOfTrailingZeros(ce);
+								boolean isFlush = (ca & cb & cc & cd & ce) != 0;
+								int type = isFlush ? HandClassifier.STRAIGHT_FLUSH : HandClassifier.STRAIGHT;
+								n = add(moves, n, cards, HandClassifier.strength(type, top), last, required);
+							}
+						}
+					}
+				}
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * A method for listing the flushes: five cards of one suit that are not
+	 * also a straight (those are straight flushes, listed by straights()).
+	 */
+	private static int flushes(long hand, int last, long required, long[] moves, int n) {
+		int[] bits = new int[13];
+		for (int suit = 0; suit < 4; suit++) {
+			int count = 0;
+			for (long s = hand & CardSet.suitMask(suit); s != 0; s &= s - 1) {
+				bits[count++] = Long.numberOfTrailingZeros(s);
+			}
+			for (int i = 0; i < count; i++) {
+				for (int j = i + 1; j < count; j++) {
+					for (int k = j + 1; k < count; k++) {
+						for (int l = k + 1; l < count; l++) {
+							for (int m = l + 1; m < count; m++) {
+								if ((bits[m] >> 2) - (bits[i] >> 2) == 4) {
+									continue;
+								}
+								long cards = 1L << bits[i] | 1L << bits[j] | 1L << bits[k] | 1L << bits[l] | 1L << bits[m];
+								int key = suit * 13 + (bits[m] >> 2);
+								n = add(moves, n, cards, HandClassifier.strength(HandClassifier.FLUSH, key), last, required);
+							}
+						}
+					}
+				}
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * A method for listing the full houses: a triple of one rank and a pair
+	 * of another.
+	 */
+	private static int fullHouses(int[] nibbles, int last, long required, long[] moves, int n) {
+		for (int t = 0; t < 13; t++) {
+			for (int triple : TRIPLES[nibbles[t]]) {
+				int top = t * 4 + 31 - Integer.numberOfLeadingZeros(triple);
+				int strength = HandClassifier.strength(HandClassifier.FULL_HOUSE, top);
+				if (strength <= last) {
+					continue;
+				}
+				for (int p = 0; p < 13; p++) {
+					if (p == t) {
+						continue;
+					}
+					for (int pair : PAIRS[nibbles[p]]) {
+						long cards = (long) triple << (t * 4) | (long) pair << (p * 4);
+						n = add(moves, n, cards, strength, last, required);
+					}
+				}
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * A method for listing the quads: the four cards of one rank and any
+	 * other card.
+	 */
+	private static int quads(long hand, int[] nibbles, int last, long required, long[] moves, int n) {
+		for (int q = 0; q < 13; q++) {
+			if (nibbles[q] != 0xF) {
+				continue;
+			}
+			int strength = HandClassifier.strength(HandClassifier.QUAD, q * 4 + 3);
+			if (strength <= last) {
+				continue;
+			}
+			long quad = CardSet.rankMask(q);
+			for (long s = hand & ~quad; s != 0; s &= s - 1) {
+				n = add(moves, n, quad | Long.lowestOneBit(s), strength, last, required);
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * A method for adding a hand to the list if it beats the last hand and
+	 * contains the required cards.
+	 * @return the new number of hands
+	 */
+	private static int add(long[] moves, int n, long cards, int strength, int last, long required) {
+		if (strength > last && (cards & required) == required) {
+			moves[n++] = cards;
+		}
+		return n;
+	}
+
+	/**
+	 * A method for checking whether some hand of a type can beat the last
+	 * hand, i.e. the last hand is weaker than the strongest hand of the type.
+	 */
+	private static boolean canBeat(int type, int last) {
+		return last < HandClassifier.strength(type + 1, 0);
+	}
+
+	/**
+	 * A method for building the table of the k-card subsets of each nibble.
+	 */
+	private static int[][] subsets(int k) {
+		int[][] table = new int[16][];
+		for (int nibble = 0; nibble < 16; nibble++) {
+			int count = 0;
+			int[] list = new int[6];
+			for (int sub = nibble; sub != 0; sub = (sub - 1) & nibble) {
+				if (Integer.bitCount(sub) == k) {
+					list[count++] = sub;
+				}
+			}
+			table[nibble] = Arrays.copyOf(list, count);
+		}
+		return table;
+	}
+}
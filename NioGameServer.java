@@ -0,0 +1,363 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The NioGameServer class is a non-blocking transport for BigTwoServer.
+ * A single selector thread accepts connections, reads and decodes frames
+ * of the binary protocol (see CardGameMessageCodec) and hands them to the
+ * TableHost, which runs the games on its own event loops. Each connection
+ * has its own direct read and write buffers, and messages that do not fit
+ * in the write buffer are queued and sent with it in one gathering write.
+ * <p>
+ * A client is seated at the first table with a free seat as soon as it
+ * connects, unless it sets LOBBY_FLAG in the handshake, in which case it
+ * creates, joins and leaves tables itself (see BigTwoMessage), or resumes
+ * the session of a connection it has lost. A connection that closes
+ * without a TABLE_LEAVE is reported to the TableHost as lost, so that the
+ * seat can be held.
+ * @author michael
+ *
+ */
+public class NioGameServer implements Runnable {
+	public static final int BUFFER_SIZE = 8192;				// size of the read and write buffer of each connection
+	public static final int MAX_PENDING_BYTES = 1 << 20;	// queued bytes after which a slow client is dropped
+
+	private TableHost host;									// the host running the tables
+	private ConcurrentLinkedQueue<Connection> readyConnections;	// connections with messages waiting to be written
+	private AtomicBoolean wakeupPending;					// whether the selector has been woken up already
+	private Selector selector;								// the selector for all channels
+	private ServerSocketChannel serverChannel;				// the channel accepting new connections
+	private volatile boolean running;						// whether the server is running
+
+	/**
+	 * Creates and returns an instance of the NioGameServer class.
+	 * @param host the host running the tables
+	 */
+	public NioGameServer(TableHost host) {
+		this.host = host;
+		readyConnections = new ConcurrentLinkedQueue<Connection>();
+		wakeupPending = new AtomicBoolean();
+	}
+
+	/**
+	 * A method for starting the server on the specified port. The selector
+	 * loop runs on a new thread.
+	 * @param port port to listen on
+	 * @throws IOException if the port cannot be bound
+	 */
+	public void start(int port) throws IOException {
+		selector = Selector.open();
+		serverChannel = ServerSocketChannel.open();
+		serverChannel.configureBlocking(false);
+		serverChannel.bind(new InetSocketAddress(port), 1024);
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+		running = true;
+		Thread loopThread = new Thread(this, "nio-game-server");
+		loopThread.start();
+		System.out.println("Big Two Server (NIO) started on port " + port + " with "
+				+ host.getNumOfLoops() + " table loops");
+	}
+
+	/**
+	 * A method for stopping the server. Open connections are closed by
+	 * the selector thread before it exits.
+	 */
+	public void stop() {
+		running = false;
+		if (selector != null) {
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * The selector loop.
+	 */
+	@Override
+	public void run() {
+		try {
+			while (running) {
+				selector.select();
+				wakeupPending.set(false);
+				Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+				while (it.hasNext()) {
+					SelectionKey key = it.next();
+					it.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+					}
+					else {
+						Connection connection = (Connection) key.attachment();
+						if (key.isReadable()) {
+							connection.read();
+						}
+						if (key.isValid() && key.isWritable()) {
+							connection.flush();
+						}
+					}
+				}
+				Connection connection;
+				while ((connection = readyConnections.poll()) != null) {
+					connection.queued.set(false);
+					connection.drainOutbound();
+					connection.flush();
+					if (connection.isClosing) {
+						connection.closeNow();
+					}
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		} finally {
+			for (SelectionKey key : selector.keys()) {
+				if (key.attachment() instanceof Connection) {
+					((Connection) key.attachment()).closeNow();
+				}
+			}
+			try {
+				serverChannel.close();
+				selector.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		SocketChannel channel;
+		while ((channel = serverChannel.accept()) != null) {
+			channel.configureBlocking(false);
+			channel.socket().setTcpNoDelay(true);
+			Connection connection = new Connection(channel);
+			connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+			CardGameMessageCodec.writeServerHandshake(connection.writeBuffer, CardGameMessageCodec.VERSION);
+			connection.flush();
+		}
+	}
+
+	/**
+	 * An inner class for the state of one client connection. Messages may
+	 * be sent and the connection closed from any thread, as both are handed
+	 * to the selector thread; everything else runs on the selector thread.
+	 */
+	private class Connection implements ClientConnection {
+		private SocketChannel channel;					// the channel of the connection
+		private SelectionKey key;						// the key of the channel in the selector
+		private ByteBuffer readBuffer;					// received bytes not yet decoded, in write mode
+		private ByteBuffer writeBuffer;					// encoded bytes not yet sent, in write mode
+		private ConcurrentLinkedQueue<byte[]> outbound;	// frames sent from other threads, not yet buffered
+		private AtomicBoolean queued;					// whether the connection is in readyConnections
+		private volatile boolean isClosing;				// whether close() has been called, to be done by the selector thread
+		private ArrayDeque<ByteBuffer> pending;			// frames that did not fit in the write buffer
+		private int pendingBytes;						// number of bytes in pending
+		private int protocolVersion;					// the version chosen by the client, or -1 before the handshake
+		private String tableId;							// the id of the table of the client, or null
+		private String address;							// the address of the client
+
+		Connection(SocketChannel channel) throws IOException {
+			this.channel = channel;
+			readBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+			writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+			outbound = new ConcurrentLinkedQueue<byte[]>();
+			queued = new AtomicBoolean();
+			pending = new ArrayDeque<ByteBuffer>();
+			protocolVersion = -1;
+			address = channel.getRemoteAddress().toString();
+		}
+
+		void read() {
+			try {
+				int n = channel.read(readBuffer);
+				if (n < 0) {
+					closeNow();
+					return;
+				}
+				readBuffer.flip();
+				if (protocolVersion < 0 && readBuffer.hasRemaining()) {
+					int versionByte = readBuffer.get() & 0xFF;
+					protocolVersion = versionByte & ~CardGameMessageCodec.LOBBY_FLAG;
+					if (protocolVersion <= CardGameMessageCodec.SERIALIZATION
+							|| protocolVersion > CardGameMessageCodec.VERSION) {
+						closeNow();
+						return;
+					}
+					if ((versionByte & CardGameMessageCodec.LOBBY_FLAG) == 0) {
+						tableId = host.autoJoin(this);
+					}
+				}
+				CardGameMessage message;
+				while (channel.isOpen() && (message = CardGameMessageCodec.decode(readBuffer)) != null) {
+					handle(message);
+				}
+				readBuffer.compact();
+				if (!readBuffer.hasRemaining()) {
+					// a frame larger than the buffer is being received
+					ByteBuffer larger = ByteBuffer.allocateDirect(readBuffer.capacity() * 2);
+					readBuffer.flip();
+					larger.put(readBuffer);
+					readBuffer = larger;
+				}
+			} catch (IOException e) {
+				closeNow();
+			}
+		}
+
+		private void handle(CardGameMessage message) {
+			switch (message.getType()) {
+				case BigTwoMessage.TABLE_CREATE:
+					leaveTable();
+					tableId = host.createTable(this);
+					break;
+				case BigTwoMessage.TABLE_JOIN:
+					leaveTable();
+					tableId = (String) message.getData();
+					host.joinTable(tableId, this);
+					break;
+				case BigTwoMessage.TABLE_LEAVE:
+					leaveTable();
+					break;
+				case BigTwoMessage.RESUME:
+					leaveTable();
+					tableId = host.resume((String) message.getData(), this);
+					break;
+				default:
+					if (tableId != null) {
+						host.receive(tableId, this, message);
+					}
+					break;
+			}
+		}
+
+		private void leaveTable() {
+			if (tableId != null) {
+				host.leaveTable(tableId, this);
+				tableId = null;
+			}
+		}
+
+		private void loseTable() {
+			if (tableId != null) {
+				host.loseConnection(tableId, this);
+				tableId = null;
+			}
+		}
+
+		@Override
+		public void send(CardGameMessage message) {
+			if (!channel.isOpen()) {
+				return;
+			}
+			outbound.add(CardGameMessageCodec.encode(message));
+			ready();
+		}
+
+		/**
+		 * A method for handing the connection to the selector thread, which
+		 * sends the messages queued and closes it if asked to.
+		 */
+		private void ready() {
+			if (queued.compareAndSet(false, true)) {
+				readyConnections.add(this);
+				if (wakeupPending.compareAndSet(false, true)) {
+					selector.wakeup();
+				}
+			}
+		}
+
+		void drainOutbound() {
+			byte[] frame;
+			while ((frame = outbound.poll()) != null) {
+				if (pending.isEmpty() && writeBuffer.remaining() >= frame.length) {
+					writeBuffer.put(frame);
+				}
+				else {
+					pending.add(ByteBuffer.wrap(frame));
+					pendingBytes += frame.length;
+				}
+			}
+			if (pendingBytes > MAX_PENDING_BYTES) {
+				closeNow();
+			}
+		}
+
+		void flush() {
+			if (!channel.isOpen()) {
+				return;
+			}
+			ByteBuffer[] buffers = new ByteBuffer[pending.size() + 1];
+			writeBuffer.flip();
+			buffers[0] = writeBuffer;
+			int i = 1;
+			for (ByteBuffer frame : pending) {
+				buffers[i++] = frame;
+			}
+			try {
+				channel.write(buffers);
+			} catch (IOException e) {
+				writeBuffer.compact();
+				closeNow();
+				return;
+			}
+			writeBuffer.compact();
+			while (!pending.isEmpty() && !pending.peek().hasRemaining()) {
+				pendingBytes -= pending.poll().capacity();
+			}
+			while (!pending.isEmpty() && writeBuffer.remaining() >= pending.peek().remaining()) {
+				ByteBuffer frame = pending.poll();
+				pendingBytes -= frame.capacity();
+				writeBuffer.put(frame);
+			}
+			boolean hasMore = writeBuffer.position() > 0 || !pending.isEmpty();
+			key.interestOps(hasMore ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+		}
+
+		/**
+		 * A method for closing the connection from any thread. The messages
+		 * sent before are flushed as far as the channel takes them, and the
+		 * connection is closed by the selector thread.
+		 */
+		@Override
+		public void close() {
+			isClosing = true;
+			ready();
+		}
+
+		/**
+		 * A method for closing the connection on the selector thread and
+		 * reporting its table as lost.
+		 */
+		void closeNow() {
+			if (!channel.isOpen()) {
+				return;
+			}
+			key.cancel();
+			try {
+				channel.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			loseTable();
+		}
+
+		@Override
+		public int getProtocolVersion() {
+			return protocolVersion;
+		}
+
+		@Override
+		public String getAddress() {
+			return address;
+		}
+	}
+}
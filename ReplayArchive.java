@@ -0,0 +1,136 @@
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The ReplayArchive class is a file of the replays (see GameReplay) of the
+ * games played on the server, for reviewing disputed games. A replay is
+ * appended when its game ends, whether finished or abandoned, framed as
+ * <pre>
+ *   int length | replay
+ * </pre>
+ * When the archive is opened, the lengths are read to index the offset of
+ * every replay, so that get() reads any replay with one positional read
+ * however many games come before it. A replay torn by a crash is cut off.
+ * <p>
+ * The methods of this class may be called from any thread.
+ * @author michael
+ *
+ */
+public class ReplayArchive implements Closeable {
+	private FileChannel channel;			// the file of the archive
+	private long[] offsets;					// the offset of the length of each replay
+	private int numOfReplays;				// the number of replays in the archive
+	private long length;					// the number of bytes of whole replays in the file
+
+	/**
+	 * Creates and returns an instance of the ReplayArchive class for a
+	 * file, which is created if it does not exist.
+	 * @param file the file of the archive
+	 * @throws IOException if the file cannot be opened or read
+	 */
+	public ReplayArchive(File file) throws IOException {
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		offsets = new long[64];
+		long size = channel.size();
+		ByteBuffer header = ByteBuffer.allocate(4);
+		while (length + 4 <= size) {
+			header.clear();
+			readFully(header, length);
+			int replayLength = header.getInt(0);
+			if (replayLength <= 0 || length + 4 + replayLength > size) {
+				break;
+			}
+			addOffset(length);
+			length += 4 + replayLength;
+		}
+		if (length < size) {
+			channel.truncate(length);
+		}
+	}
+
+	/**
+	 * A method for appending the replay of a game that has ended.
+	 * @param replay the replay
+	 * @throws IOException if the replay cannot be written
+	 */
+	public void append(GameReplay replay) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0);
+		replay.write(out);
+		ByteBuffer record = ByteBuffer.wrap(bytes.toByteArray());
+		record.putInt(0, record.remaining() - 4);
+		synchronized (this) {
+			long offset = length;
+			while (record.hasRemaining()) {
+				offset += channel.write(record, offset);
+			}
+			addOffset(length);
+			length = offset;
+		}
+	}
+
+	/**
+	 * A method for getting the number of replays in the archive.
+	 * @return number of replays
+	 */
+	public synchronized int size() {
+		return numOfReplays;
+	}
+
+	/**
+	 * A method for reading a replay.
+	 * @param index index of the replay, from 0 for the oldest
+	 * @return the replay
+	 * @throws IOException if the replay cannot be read
+	 */
+	public GameReplay get(int index) throws IOException {
+		long offset;
+		long end;
+		synchronized (this) {
+			if (index < 0 || index >= numOfReplays) {
+				throw new IndexOutOfBoundsException("Replay " + index + " of " + numOfReplays);
+			}
+			offset = offsets[index];
+			end = (index + 1 < numOfReplays) ? offsets[index + 1] : length;
+		}
+		ByteBuffer record = ByteBuffer.allocate((int) (end - offset - 4));
+		readFully(record, offset + 4);
+		return GameReplay.read(new DataInputStream(new ByteArrayInputStream(record.array())));
+	}
+
+	/**
+	 * A method for closing the file of the archive.
+	 * @throws IOException if the file cannot be closed
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private void addOffset(long offset) {
+		if (numOfReplays == offsets.length) {
+			offsets = Arrays.copyOf(offsets, 2 * numOfReplays);
+		}
+		offsets[numOfReplays++] = offset;
+	}
+
+	private void readFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new EOFException();
+			}
+		}
+	}
+}
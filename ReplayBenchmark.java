@@ -0,0 +1,143 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * The ReplayBenchmark class measures how fast the viewer of BigTwoClient
+ * --replay can seek in a ReplayArchive. An archive of scripted games is
+ * written, then reopened, and random moves of random games are shown: the
+ * time to open the archive, to read a game and to seek to a move from its
+ * nearest keyframe are reported, with the time to replay the same moves
+ * from the deal for comparison. Every state seeked is checked against the
+ * one replayed.
+ * @author michael
+ *
+ */
+public class ReplayBenchmark {
+	/**
+	 * main() method for running the benchmark.
+	 *
+	 * @param args
+	 *            the number of games archived and the number of seeks. 1000
+	 *            games and 100000 seeks are used if no arguments has been
+	 *            supplied
+	 * @throws IOException if the archive cannot be written or read
+	 */
+	public static void main(String[] args) throws IOException {
+		int numOfGames = (args.length > 0) ? Integer.parseInt(args[0]) : 1000;
+		int numOfSeeks = (args.length > 1) ? Integer.parseInt(args[1]) : 100000;
+
+		File file = File.createTempFile("replay-benchmark", ".archive");
+		try {
+			ReplayArchive archive = new ReplayArchive(file);
+			String[] names = {"a", "b", "c", "d"};
+			for (int g = 0; g < numOfGames; g++) {
+				BigTwoDeck deck = new BigTwoDeck();
+				deck.shuffle();
+				long[] hands = BigTwoGameState.deal(deck);
+				GameReplay replay = new GameReplay(names, hands);
+				BigTwoGameState state = new BigTwoGameState(hands);
+				while (!state.isGameOver()) {
+					int playerIdx = state.getCurrentIdx();
+					long hand = state.getHand(playerIdx);
+					long cards = CardSet.select(hand, LoadGenerator.chooseMove(hand, state.isNewRound() ? 0 : state.getLastHand()));
+					state.apply(playerIdx, cards);
+					replay.addMove(playerIdx, cards);
+				}
+				archive.append(replay);
+			}
+			archive.close();
+
+			for (int run = 0; run < 3; run++) {		// the first runs warm up the JIT
+				measure(file, numOfSeeks, run == 2);
+			}
+		} finally {
+			file.delete();
+		}
+	}
+
+	private static void measure(File file, int numOfSeeks, boolean isReported) throws IOException {
+		long startTime = System.nanoTime();
+		ReplayArchive archive = new ReplayArchive(file);
+		double openSeconds = (System.nanoTime() - startTime) / 1e9;
+		int numOfGames = archive.size();
+
+		Random random = new Random(2396);
+		int[] games = new int[numOfSeeks];
+		double[] positions = new double[numOfSeeks];
+		for (int i = 0; i < numOfSeeks; i++) {
+			games[i] = random.nextInt(numOfGames);
+			positions[i] = random.nextDouble();
+		}
+
+		long checksum = 0;
+		startTime = System.nanoTime();
+		for (int i = 0; i < numOfSeeks; i++) {
+			checksum += archive.get(games[i]).getNumOfMoves();
+		}
+		double readSeconds = (System.nanoTime() - startTime) / 1e9;
+
+		// the seeks are timed on games already read, as the viewer does while a slider is dragged
+		GameReplay[] replays = new GameReplay[numOfSeeks];
+		GameReplay[] gamesRead = new GameReplay[numOfGames];
+		for (int i = 0; i < numOfSeeks; i++) {
+			if (gamesRead[games[i]] == null) {
+				gamesRead[games[i]] = archive.get(games[i]);
+			}
+			replays[i] = gamesRead[games[i]];
+			checksum -= replays[i].getNumOfMoves();
+		}
+		startTime = System.nanoTime();
+		for (int i = 0; i < numOfSeeks; i++) {
+			BigTwoGameState state = replays[i].seek(moveOf(replays[i], positions[i]));
+			checksum += state.getHand(state.getCurrentIdx());
+		}
+		double seekSeconds = (System.nanoTime() - startTime) / 1e9;
+
+		startTime = System.nanoTime();
+		for (int i = 0; i < numOfSeeks; i++) {
+			BigTwoGameState state = replayFromDeal(replays[i], moveOf(replays[i], positions[i]));
+			checksum -= state.getHand(state.getCurrentIdx());
+		}
+		double replaySeconds = (System.nanoTime() - startTime) / 1e9;
+
+		for (int i = 0; i < numOfSeeks; i++) {
+			int move = moveOf(replays[i], positions[i]);
+			if (!isSameState(replays[i].seek(move), replayFromDeal(replays[i], move))) {
+				throw new IllegalStateException("Seek to move " + move + " of game " + games[i] + " differs");
+			}
+		}
+		archive.close();
+
+		if (isReported && checksum == 0) {
+			System.out.printf("games=%d bytes=%d opened in %.2f ms%n", numOfGames, file.length(), openSeconds * 1e3);
+			System.out.printf("seeks=%d read game=%.2f us seek from keyframe=%.2f us replay from deal=%.2f us%n",
+					numOfSeeks, readSeconds * 1e6 / numOfSeeks, seekSeconds * 1e6 / numOfSeeks,
+					replaySeconds * 1e6 / numOfSeeks);
+		}
+	}
+
+	private static int moveOf(GameReplay replay, double position) {
+		return (int) (position * (replay.getNumOfMoves() + 1));
+	}
+
+	private static BigTwoGameState replayFromDeal(GameReplay replay, int numOfMovesMade) {
+		BigTwoGameState state = replay.seek(0);
+		for (int m = 0; m < numOfMovesMade; m++) {
+			state.apply(replay.getSeat(m), replay.getCards(m));
+		}
+		return state;
+	}
+
+	private static boolean isSameState(BigTwoGameState state, BigTwoGameState other) {
+		for (int i = 0; i < BigTwoGameState.NUM_OF_PLAYERS; i++) {
+			if (state.getHand(i) != other.getHand(i)) {
+				return false;
+			}
+		}
+		return state.getCurrentIdx() == other.getCurrentIdx() && state.getLastHand() == other.getLastHand()
+				&& state.getLastHandPlayer() == other.getLastHandPlayer()
+				&& state.getLastHandStrength() == other.getLastHandStrength()
+				&& state.getNumOfMoves() == other.getNumOfMoves();
+	}
+}
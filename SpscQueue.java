@@ -0,0 +1,126 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * The SpscQueue class is a bounded queue for passing elements from exactly
+ * one producer thread to exactly one consumer thread, e.g. from the thread
+ * reading from the server to the Event Dispatch Thread. It is a ring buffer
+ * whose head is only written by the consumer and whose tail is only written
+ * by the producer, so neither side takes a lock. Each side keeps a copy of
+ * the other side's index and only reads the shared one when the copy says
+ * the queue is full (or empty).
+ * @author michael
+ *
+ * @param <E> the type of the elements
+ */
+public class SpscQueue<E> {
+	private static final long FULL_WAIT_NANOS = 100_000;	// how long put() waits before trying again when full
+
+	private final Object[] buffer;			// the ring buffer of elements
+	private final int mask;					// capacity - 1, for wrapping an index into the buffer
+	private final AtomicLong head;			// the index of the next element to be taken (written by the consumer)
+	private final AtomicLong tail;			// the index of the next element to be added (written by the producer)
+	private long cachedHead;				// the head as last read by the producer
+	private long cachedTail;				// the tail as last read by the consumer
+
+	/**
+	 * A constructor for creating an empty queue.
+	 * @param capacity maximum number of elements, rounded up to a power of two
+	 */
+	public SpscQueue(int capacity) {
+		int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+		buffer = new Object[size];
+		mask = size - 1;
+		head = new AtomicLong();
+		tail = new AtomicLong();
+	}
+
+	/**
+	 * A method for adding an element, called by the producer only.
+	 * @param element element to be added, not null
+	 * @return whether the element has been added, i.e. the queue was not full
+	 */
+	public boolean offer(E element) {
+		long t = tail.get();
+		if (t - cachedHead >= buffer.length) {
+			cachedHead = head.get();
+			if (t - cachedHead >= buffer.length) {
+				return false;
+			}
+		}
+		buffer[(int) t & mask] = element;
+		tail.lazySet(t + 1);	// publishes the element to the consumer
+		return true;
+	}
+
+	/**
+	 * A method for adding an element, waiting while the queue is full,
+	 * called by the producer only. A full queue slows the producer down to
+	 * the pace of the consumer.
+	 * @param element element to be added, not null
+	 * @throws InterruptedException if the producer is interrupted while waiting
+	 */
+	public void put(E element) throws InterruptedException {
+		while (!offer(element)) {
+			LockSupport.parkNanos(FULL_WAIT_NANOS);
+			if (Thread.interrupted()) {
+				throw new InterruptedException();
+			}
+		}
+	}
+
+	/**
+	 * A method for taking the oldest element, called by the consumer only.
+	 * @return the element, or null if the queue is empty
+	 */
+	@SuppressWarnings("unchecked")
+	public E poll() {
+		long h = head.get();
+		if (h >= cachedTail) {
+			cachedTail = tail.get();
+			if (h >= cachedTail) {
+				return null;
+			}
+		}
+		int i = (int) h & mask;
+		E element = (E) buffer[i];
+		buffer[i] = null;
+		head.lazySet(h + 1);	// gives the slot back to the producer
+		return element;
+	}
+
+	/**
+	 * A method for taking up to a number of elements in order and passing
+	 * them to an action, called by the consumer only.
+	 * @param action action applied to each element
+	 * @param maxElements maximum number of elements to be taken
+	 * @return number of elements taken
+	 */
+	public int drain(Consumer<? super E> action, int maxElements) {
+		int n = 0;
+		E element;
+		while (n < maxElements && (element = poll()) != null) {
+			action.accept(element);
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * A method for checking whether the queue is empty. The answer may be
+	 * out of date by the time it is returned if the other side is active.
+	 * @return whether the queue is empty
+	 */
+	public boolean isEmpty() {
+		return head.get() >= tail.get();
+	}
+
+	/**
+	 * A method for getting the maximum number of elements.
+	 * @return capacity of the queue
+	 */
+	public int getCapacity() {
+		return buffer.length;
+	}
+}
@@ -0,0 +1,43 @@
+/**
+ * The StartupTrace class prints the time of each step of the start of the
+ * client, when enabled with the option --trace-startup of BigTwoClient.
+ * The times are measured from the start of the process where the platform
+ * reports it (so that the start of the JVM is included), or else from the
+ * loading of this class, and each step is printed with its thread since the
+ * frame, the connection and the images are set up in parallel.
+ * @author michael
+ *
+ */
+public class StartupTrace {
+	private static final long START_MILLIS = ProcessHandle.current().info().startInstant()
+			.map(instant -> instant.toEpochMilli()).orElse(System.currentTimeMillis());	// the time the process started
+	private static volatile boolean isEnabled;		// whether the steps are printed
+
+	/**
+	 * A method for enabling the trace.
+	 */
+	public static void enable() {
+		isEnabled = true;
+		mark("trace enabled");
+	}
+
+	/**
+	 * A method for checking whether the trace is enabled.
+	 * @return whether the steps are printed
+	 */
+	public static boolean isEnabled() {
+		return isEnabled;
+	}
+
+	/**
+	 * A method for printing a step of the start of the client, if the
+	 * trace is enabled.
+	 * @param step description of the step
+	 */
+	public static void mark(String step) {
+		if (isEnabled) {
+			System.err.printf("[startup] %6d ms  %-20s %s%n", System.currentTimeMillis() - START_MILLIS,
+					Thread.currentThread().getName(), step);
+		}
+	}
+}
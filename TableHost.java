@@ -0,0 +1,506 @@
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The TableHost class hosts many independent Big Two tables in one
+ * process. Each table is pinned to one of a fixed number of single-threaded
+ * event loops, chosen by a ConsistentHashRing over its table id, and every
+ * call for a table runs as a task on its loop. All the state of a table is
+ * therefore touched by one thread only and needs no locks, and tables are
+ * spread evenly over the loops (normally one per core).
+ * <p>
+ * With a GameJournal, the games of every table are journaled, and the
+ * games that had not ended when the server stopped are restored by
+ * recover() before clients connect, with every seat held for its player
+ * to resume. With a ReplayArchive (see
+ * setArchive()), the replay of every game is archived when it ends.
+ * <p>
+ * A player who loses the connection in the middle of a game keeps the
+ * seat for a grace period (see loseConnection()), during which the game
+ * waits for the player to resume() the session from a new connection.
+ * <p>
+ * The methods of this class may be called from any thread. Calls for the
+ * same table from one thread run in the order they were made.
+ * @author michael
+ *
+ */
+public class TableHost {
+	public static final int DEFAULT_GRACE_SECONDS = 30;		// default time a seat is held for a player who has lost the connection
+
+	private BigTwoServer server;							// the server for creating decks
+	private EventLoop[] loops;								// the single-threaded event loops
+	private ConsistentHashRing ring;						// the ring mapping table ids to loops
+	private int maxTables;									// maximum number of tables
+	private AtomicInteger numOfTables;						// number of open tables
+	private AtomicInteger nextTableId;						// a counter for creating table ids
+	private String autoTableId;								// the table new players are seated at by autoJoin()
+	private int autoSeatsTaken;								// number of players seated at the auto table
+	private ConcurrentLinkedQueue<String> vacatedSeats;		// the tables a player has left while others stayed, once per seat
+	private GameJournal journal;							// the journal of the games, or null if not journaled
+	private volatile ReplayArchive archive;					// the archive of the replays of the games, or null if not archived
+	private volatile int graceSeconds;						// the time a seat is held for a player who has lost the connection
+	private ConcurrentHashMap<String, String> heldSessions;	// the table of each session whose seat is held
+	private ConcurrentHashMap<String, ScheduledFuture<?>> expiries;	// the expiry of each held seat, only touched by the loop of its table
+
+	/**
+	 * Creates and returns an instance of the TableHost class.
+	 * @param server the server for creating decks
+	 * @param numOfLoops number of event loops, normally the number of cores
+	 * @param maxTables maximum number of tables hosted at the same time
+	 */
+	public TableHost(BigTwoServer server, int numOfLoops, int maxTables) {
+		this(server, numOfLoops, maxTables, null);
+	}
+
+	/**
+	 * Creates and returns an instance of the TableHost class that records
+	 * the games of its tables in a journal.
+	 * @param server the server for creating decks
+	 * @param numOfLoops number of event loops, normally the number of cores
+	 * @param maxTables maximum number of tables hosted at the same time
+	 * @param journal the journal of the games, or null if not journaled
+	 */
+	public TableHost(BigTwoServer server, int numOfLoops, int maxTables, GameJournal journal) {
+		this.server = server;
+		this.journal = journal;
+		this.maxTables = maxTables;
+		loops = new EventLoop[numOfLoops];
+		for (int i = 0; i < numOfLoops; i++) {
+			loops[i] = new EventLoop(i);
+		}
+		ring = new ConsistentHashRing(numOfLoops);
+		numOfTables = new AtomicInteger();
+		nextTableId = new AtomicInteger();
+		vacatedSeats = new ConcurrentLinkedQueue<String>();
+		graceSeconds = DEFAULT_GRACE_SECONDS;
+		heldSessions = new ConcurrentHashMap<String, String>();
+		expiries = new ConcurrentHashMap<String, ScheduledFuture<?>>();
+	}
+
+	/**
+	 * A method for getting the number of event loops.
+	 * @return number of event loops
+	 */
+	public int getNumOfLoops() {
+		return loops.length;
+	}
+
+	/**
+	 * A method for setting the archive the replays of the games are
+	 * appended to. It must be set before any table is opened or recovered.
+	 * @param archive the archive of the replays, or null if not archived
+	 */
+	public void setArchive(ReplayArchive archive) {
+		this.archive = archive;
+	}
+
+	/**
+	 * A method for setting how long the seat of a player who has lost the
+	 * connection in the middle of a game is held.
+	 * @param seconds the grace period in seconds, 0 to give up seats at once
+	 */
+	public void setGracePeriod(int seconds) {
+		graceSeconds = seconds;
+	}
+
+	/**
+	 * A method for getting the number of open tables.
+	 * @return number of open tables
+	 */
+	public int getNumOfTables() {
+		return numOfTables.get();
+	}
+
+	/**
+	 * A method for getting the index of the event loop that owns a table.
+	 * @param tableId id of the table
+	 * @return index of the event loop
+	 */
+	public int loopOf(String tableId) {
+		return ring.shardOf(tableId);
+	}
+
+	/**
+	 * A method for running a task on the event loop that owns a table.
+	 * @param tableId id of the table
+	 * @param task task to be run
+	 */
+	public void execute(String tableId, Runnable task) {
+		loops[loopOf(tableId)].execute(task);
+	}
+
+	/**
+	 * A method for opening a new table and seating a client at it. The
+	 * client is sent TABLE_INFO and the PLAYER_LIST.
+	 * @param connection connection of the client
+	 * @return id of the new table
+	 */
+	public String createTable(ClientConnection connection) {
+		String tableId = "t" + nextTableId.incrementAndGet();
+		join(tableId, connection, true, true);
+		return tableId;
+	}
+
+	/**
+	 * A method for seating a client at an existing table. The client is
+	 * sent TABLE_INFO and the PLAYER_LIST, or FULL if the table is full or
+	 * does not exist.
+	 * @param tableId id of the table
+	 * @param connection connection of the client
+	 */
+	public void joinTable(String tableId, ClientConnection connection) {
+		join(tableId, connection, false, true);
+	}
+
+	/**
+	 * A method for seating a client at the next table with a free seat,
+	 * as CardGameServer does for its only table. Seats left by players
+	 * at tables still in use are filled first, if they are still free by
+	 * the time the client gets there. It waits for the loop of each such
+	 * table, so it must not be called from a loop.
+	 * @param connection connection of the client
+	 * @return id of the table
+	 */
+	public synchronized String autoJoin(ClientConnection connection) {
+		String vacatedTableId;
+		while ((vacatedTableId = vacatedSeats.poll()) != null) {
+			if (joinVacated(vacatedTableId, connection)) {
+				return vacatedTableId;
+			}
+		}
+		if (autoTableId == null || autoSeatsTaken == BigTwoGameRoom.NUM_OF_PLAYERS) {
+			autoTableId = "t" + nextTableId.incrementAndGet();
+			autoSeatsTaken = 0;
+		}
+		autoSeatsTaken++;
+		join(autoTableId, connection, true, false);
+		return autoTableId;
+	}
+
+	/**
+	 * A method for removing a client from its table. The table is closed
+	 * once its last player has left.
+	 * @param tableId id of the table
+	 * @param connection connection of the client
+	 */
+	public void leaveTable(final String tableId, final ClientConnection connection) {
+		final HashMap<String, BigTwoGameRoom> tables = loops[loopOf(tableId)].tables;
+		execute(tableId, new Runnable() {
+			public void run() {
+				BigTwoGameRoom room = tables.get(tableId);
+				int seat = (room == null) ? -1 : room.seatOf(connection);
+				if (seat >= 0 && !room.isAway(seat)) {
+					room.leave(seat);
+					closeSeat(tables, tableId, room);
+				}
+			}
+		});
+	}
+
+	/**
+	 * A method for handling a client whose connection has been lost. If
+	 * the client can resume its session and a game is in progress, its
+	 * seat is held for the grace period; otherwise it leaves the table as
+	 * with leaveTable().
+	 * @param tableId id of the table
+	 * @param connection connection of the client
+	 */
+	public void loseConnection(final String tableId, final ClientConnection connection) {
+		final HashMap<String, BigTwoGameRoom> tables = loops[loopOf(tableId)].tables;
+		final int seconds = graceSeconds;
+		execute(tableId, new Runnable() {
+			public void run() {
+				BigTwoGameRoom room = tables.get(tableId);
+				int seat = (room == null) ? -1 : room.seatOf(connection);
+				if (seat < 0 || room.isAway(seat)) {
+					return;
+				}
+				final String token = (seconds > 0) ? room.hold(seat, seconds) : null;
+				if (token == null) {
+					room.leave(seat);
+					closeSeat(tables, tableId, room);
+					return;
+				}
+				heldSessions.put(token, tableId);
+				scheduleExpiry(tables, tableId, token, seconds);
+			}
+		});
+	}
+
+	/**
+	 * A method for seating a client back at the seat held for its session.
+	 * If the session is unknown or its grace period is over, the client is
+	 * seated as by autoJoin().
+	 * @param token the session token sent to the client
+	 * @param connection the new connection of the client
+	 * @return id of the table
+	 */
+	public String resume(final String token, final ClientConnection connection) {
+		final String tableId = (token == null) ? null : heldSessions.remove(token);
+		if (tableId == null) {
+			return autoJoin(connection);
+		}
+		final HashMap<String, BigTwoGameRoom> tables = loops[loopOf(tableId)].tables;
+		execute(tableId, new Runnable() {
+			public void run() {
+				// the hold was made by an earlier task of this loop, so its expiry is known here
+				ScheduledFuture<?> expiry = expiries.remove(token);
+				if (expiry != null) {
+					expiry.cancel(false);
+				}
+				BigTwoGameRoom room = tables.get(tableId);
+				if (room == null || room.resume(token, connection) < 0) {
+					connection.send(new CardGameMessage(CardGameMessage.FULL, -1, null));
+				}
+			}
+		});
+		return tableId;
+	}
+
+	/**
+	 * A method for handling a message received from a client at a table.
+	 * @param tableId id of the table
+	 * @param connection connection of the client
+	 * @param message message received
+	 */
+	public void receive(final String tableId, final ClientConnection connection, final CardGameMessage message) {
+		final HashMap<String, BigTwoGameRoom> tables = loops[loopOf(tableId)].tables;
+		execute(tableId, new Runnable() {
+			public void run() {
+				BigTwoGameRoom room = tables.get(tableId);
+				int seat = (room == null) ? -1 : room.seatOf(connection);
+				if (seat >= 0) {
+					room.receive(seat, message);
+				}
+			}
+		});
+	}
+
+	/**
+	 * A method for reopening the tables whose games had not ended, as read
+	 * from the journal by GameJournal.recover(). Every seat is held for the
+	 * grace period (see setGracePeriod()), for its player to resume() the
+	 * session as after losing the connection. A game that some player
+	 * cannot resume could never go on, so it is ended in the journal
+	 * instead. New table ids follow the recovered ones.
+	 * @param games the games recovered, by table id
+	 * @return number of tables reopened
+	 */
+	public synchronized int recover(Map<String, GameJournal.RecoveredGame> games) {
+		final int seconds = graceSeconds;
+		int numOfRecovered = 0;
+		for (final GameJournal.RecoveredGame game : games.values()) {
+			final String tableId = game.getTableId();
+			if (tableId.matches("t\\d+")) {
+				int id = Integer.parseInt(tableId.substring(1));
+				if (id > nextTableId.get()) {
+					nextTableId.set(id);
+				}
+			}
+			boolean canGoOn = game.isResumable() && seconds > 0;
+			if (canGoOn && numOfTables.incrementAndGet() > maxTables) {
+				numOfTables.decrementAndGet();
+				canGoOn = false;
+			}
+			if (!canGoOn) {
+				if (journal != null) {
+					journal.end(tableId);
+				}
+				continue;
+			}
+			final String[] sessions = game.getSessions();
+			for (int i = 0; i < sessions.length; i++) {
+				heldSessions.put(sessions[i], tableId);
+			}
+			final HashMap<String, BigTwoGameRoom> tables = loops[loopOf(tableId)].tables;
+			execute(tableId, new Runnable() {
+				public void run() {
+					BigTwoGameRoom room = new BigTwoGameRoom(server, tableId, journal);
+					room.setArchive(archive);
+					room.restore(game);
+					tables.put(tableId, room);
+					for (int i = 0; i < sessions.length; i++) {
+						scheduleExpiry(tables, tableId, sessions[i], seconds);
+					}
+				}
+			});
+			numOfRecovered++;
+		}
+		return numOfRecovered;
+	}
+
+	/**
+	 * A method for stopping all event loops after their queued tasks have run.
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public void shutdown() throws InterruptedException {
+		for (int i = 0; i < loops.length; i++) {
+			loops[i].shutdown();
+		}
+		for (int i = 0; i < loops.length; i++) {
+			loops[i].awaitTermination(10, TimeUnit.SECONDS);
+		}
+	}
+
+	/**
+	 * A method for closing a table once its last player has left, or else
+	 * offering the seat just left to autoJoin(). It must run on the loop
+	 * of the table.
+	 */
+	private void closeSeat(HashMap<String, BigTwoGameRoom> tables, String tableId, BigTwoGameRoom room) {
+		if (room.isEmpty()) {
+			tables.remove(tableId);
+			numOfTables.decrementAndGet();
+			vacatedSeats.removeIf(tableId::equals);
+		}
+		else {
+			vacatedSeats.add(tableId);
+		}
+	}
+
+	/**
+	 * A method for giving up a held seat once its grace period is over,
+	 * unless its player has resumed the session by then. It must run on
+	 * the loop of the table.
+	 */
+	private void scheduleExpiry(final HashMap<String, BigTwoGameRoom> tables, final String tableId,
+			final String token, int seconds) {
+		// the token is the same every time the seat is held, so each hold has its own expiry
+		expiries.put(token, loops[loopOf(tableId)].schedule(new Runnable() {
+			public void run() {
+				expiries.remove(token);
+				BigTwoGameRoom room = tables.get(tableId);
+				if (heldSessions.remove(token, tableId) && room != null && room.expire(token)) {
+					closeSeat(tables, tableId, room);
+				}
+			}
+		}, seconds, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * A method for seating a client at a table a player has left, if the
+	 * table is still open and the seat has not been filled since. It
+	 * waits for the loop of the table.
+	 * @return true if the client has been seated, otherwise false
+	 */
+	private boolean joinVacated(final String tableId, final ClientConnection connection) {
+		final HashMap<String, BigTwoGameRoom> tables = loops[loopOf(tableId)].tables;
+		Future<Boolean> seated = loops[loopOf(tableId)].submit(new Callable<Boolean>() {
+			public Boolean call() {
+				BigTwoGameRoom room = tables.get(tableId);
+				if (room == null || !room.hasEmptySeat()) {
+					return false;
+				}
+				room.join(connection);
+				return true;
+			}
+		});
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return seated.get();
+				} catch (InterruptedException e) {
+					interrupted = true;			// the task may seat the client all the same, so its answer is needed
+				} catch (ExecutionException e) {
+					return false;
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private void join(final String tableId, final ClientConnection connection, final boolean create,
+			final boolean sendInfo) {
+		final HashMap<String, BigTwoGameRoom> tables = loops[loopOf(tableId)].tables;
+		execute(tableId, new Runnable() {
+			public void run() {
+				BigTwoGameRoom room = tables.get(tableId);
+				if (room == null && create && numOfTables.incrementAndGet() <= maxTables) {
+					room = new BigTwoGameRoom(server, tableId, journal);
+					room.setArchive(archive);
+					tables.put(tableId, room);
+				}
+				else if (room == null && create) {
+					numOfTables.decrementAndGet();
+				}
+				if (room == null || !room.hasEmptySeat()) {
+					connection.send(new CardGameMessage(CardGameMessage.FULL, -1, null));
+					return;
+				}
+				if (sendInfo) {
+					connection.send(new CardGameMessage(BigTwoMessage.TABLE_INFO, -1, tableId));
+				}
+				room.join(connection);
+			}
+		});
+	}
+
+	/**
+	 * An inner class for an event loop and the tables pinned to it. A task
+	 * that throws is logged, as otherwise the exception would be kept in
+	 * a future nobody reads and the table left half-updated without a trace.
+	 */
+	private static class EventLoop extends ScheduledThreadPoolExecutor {
+		private HashMap<String, BigTwoGameRoom> tables;		// the tables of the loop, only touched by the loop
+
+		EventLoop(int index) {
+			super(1, new LoopThreadFactory(index));
+			setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+			setRemoveOnCancelPolicy(true);
+			tables = new HashMap<String, BigTwoGameRoom>();
+		}
+
+		@Override
+		protected void afterExecute(Runnable r, Throwable t) {
+			super.afterExecute(r, t);
+			if (t == null && r instanceof Future<?> && ((Future<?>) r).isDone()) {
+				try {
+					((Future<?>) r).get();
+				} catch (CancellationException e) {
+					// cancelled, not failed
+				} catch (ExecutionException e) {
+					t = e.getCause();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if (t != null) {
+				System.err.println(Thread.currentThread().getName() + ": table task failed");
+				t.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * An inner class for naming the threads of the event loops.
+	 */
+	private static class LoopThreadFactory implements ThreadFactory {
+		private int index;				// index of the event loop
+
+		LoopThreadFactory(int index) {
+			this.index = index;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "table-loop-" + index);
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,133 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The TableHostBenchmark class measures how the throughput of a TableHost
+ * scales with its number of event loops. It opens many tables of four
+ * in-memory players, drives a stream of MOVE and MSG messages into every
+ * table from several threads and reports the number of messages handled
+ * per second for 1, 2, 4, ... loops up to the number of cores.
+ * @author michael
+ *
+ */
+public class TableHostBenchmark {
+	/**
+	 * main() method for running the benchmark.
+	 *
+	 * @param args
+	 *            the number of tables and the number of messages sent to
+	 *            each table. 4096 tables and 500 messages are used if no
+	 *            arguments has been supplied
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int numOfTables = (args.length > 0) ? Integer.parseInt(args[0]) : 4096;
+		int numOfMessages = (args.length > 1) ? Integer.parseInt(args[1]) : 500;
+		int numOfCores = Runtime.getRuntime().availableProcessors();
+		BigTwoServer server = new BigTwoServer();
+
+		double baseline = 0;
+		for (int numOfLoops = 1; numOfLoops <= numOfCores; numOfLoops *= 2) {
+			for (int run = 0; run < 2; run++) {		// the first run warms up the JIT
+				double rate = measure(server, numOfLoops, numOfTables, numOfMessages);
+				if (run == 1) {
+					if (numOfLoops == 1) {
+						baseline = rate;
+					}
+					System.out.printf("loops=%d tables=%d messages/s=%.0f speedup=%.2f%n",
+							numOfLoops, numOfTables, rate, rate / baseline);
+				}
+			}
+		}
+	}
+
+	private static double measure(BigTwoServer server, int numOfLoops, int numOfTables, final int numOfMessages)
+			throws InterruptedException {
+		final TableHost host = new TableHost(server, numOfLoops, numOfTables);
+		final LongAdder delivered = new LongAdder();
+		final String[] tableIds = new String[numOfTables];
+		final CountingConnection[][] players = new CountingConnection[numOfTables][BigTwoGameRoom.NUM_OF_PLAYERS];
+		for (int t = 0; t < numOfTables; t++) {
+			for (int p = 0; p < BigTwoGameRoom.NUM_OF_PLAYERS; p++) {
+				players[t][p] = new CountingConnection(delivered);
+			}
+			tableIds[t] = host.createTable(players[t][0]);
+			for (int p = 1; p < BigTwoGameRoom.NUM_OF_PLAYERS; p++) {
+				host.joinTable(tableIds[t], players[t][p]);
+			}
+			for (int p = 0; p < BigTwoGameRoom.NUM_OF_PLAYERS; p++) {
+				host.receive(tableIds[t], players[t][p], new CardGameMessage(CardGameMessage.JOIN, -1, "p" + p));
+			}
+		}
+		waitUntil(delivered, numOfTables * 24L);	// TABLE_INFO, PLAYER_LIST and 4 JOINs to 4 players
+		delivered.reset();
+
+		final int numOfDrivers = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+		Thread[] drivers = new Thread[numOfDrivers];
+		long startTime = System.nanoTime();
+		for (int d = 0; d < numOfDrivers; d++) {
+			final int driver = d;
+			drivers[d] = new Thread() {
+				public void run() {
+					int[] cardIdx = {0, 1};
+					for (int m = 0; m < numOfMessages; m++) {
+						for (int t = driver; t < tableIds.length; t += numOfDrivers) {
+							int seat = m % BigTwoGameRoom.NUM_OF_PLAYERS;
+							CardGameMessage message = (m % 8 == 7)
+									? new CardGameMessage(CardGameMessage.MSG, -1, "good game")
+									: new CardGameMessage(CardGameMessage.MOVE, -1, cardIdx);
+							host.receive(tableIds[t], players[t][seat], message);
+						}
+					}
+				}
+			};
+			drivers[d].start();
+		}
+		for (int d = 0; d < numOfDrivers; d++) {
+			drivers[d].join();
+		}
+		long total = (long) numOfTables * numOfMessages;
+		waitUntil(delivered, total * BigTwoGameRoom.NUM_OF_PLAYERS);
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		host.shutdown();
+		return total / seconds;
+	}
+
+	private static void waitUntil(LongAdder counter, long target) throws InterruptedException {
+		while (counter.sum() < target) {
+			Thread.sleep(1);
+		}
+	}
+
+	/**
+	 * An inner class for an in-memory player that encodes every message it
+	 * is sent, as a network transport would, and counts it.
+	 */
+	private static class CountingConnection implements ClientConnection {
+		private LongAdder delivered;		// the shared count of delivered messages
+		private long bytes;					// number of bytes encoded for this player
+
+		CountingConnection(LongAdder delivered) {
+			this.delivered = delivered;
+		}
+
+		@Override
+		public void send(CardGameMessage message) {
+			bytes += CardGameMessageCodec.encode(message).length;
+			delivered.increment();
+		}
+
+		@Override
+		public void close() {
+		}
+
+		@Override
+		public int getProtocolVersion() {
+			return CardGameMessageCodec.VERSION;
+		}
+
+		@Override
+		public String getAddress() {
+			return "/127.0.0.1:0";
+		}
+	}
+}
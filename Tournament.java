@@ -0,0 +1,392 @@
+import java.util.ArrayList;
+import java.util.SplittableRandom;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The Tournament class plays games of Big Two between computer players
+ * entirely in-process, on BigTwoGameState without any client, table or
+ * socket, e.g. for tuning the players or checking a change to the rules
+ * over millions of games. Every move is checked by BigTwoGameState.play(),
+ * so a player making an illegal move stops the tournament.
+ * <p>
+ * The games are cut into shards of SHARD_SIZE games, which are played in
+ * parallel by a pool of threads. Each shard has its own random numbers,
+ * split from the seed in shard order before any is played, and the
+ * results of the shards are added up in the same order, so the results
+ * only depend on the seed and not on the number of threads. The seats of
+ * the players go round the table from game to game.
+ * @author michael
+ *
+ */
+public class Tournament {
+	public static final int SHARD_SIZE = 4096;				// number of games in a shard
+	public static final int MAX_LENGTH = 256;				// the longest game length counted on its own
+
+	private static final String[] TYPE_NAMES = { "", "single", "pair", "triple", "straight", "flush",
+			"fullhouse", "quad", "straightflush" };		// the name of each hand type, as printed
+
+	private String[] names;					// the name of each player
+	private Strategy[] strategies;			// the strategy of each player
+	private int numOfThreads;				// number of threads playing the shards
+
+	/**
+	 * An interface for a computer player's strategy. A strategy should only
+	 * look at what the current player may know: his/her own hand, the
+	 * number of cards of the others and the last hand on table.
+	 */
+	public interface Strategy {
+		/**
+		 * A method for choosing a move for the current player.
+		 * @param state the game, which must not be changed
+		 * @param moves array for the legal hands, of at least MoveGenerator.MAX_MOVES elements
+		 * @param random the source of random numbers
+		 * @return cards to play as a CardSet, or 0 to pass
+		 */
+		long chooseMove(BigTwoGameState state, long[] moves, SplittableRandom random);
+	}
+
+	/**
+	 * Any legal hand or, unless starting a new round, a pass, at random.
+	 */
+	public static final Strategy RANDOM = new Strategy() {
+		public long chooseMove(BigTwoGameState state, long[] moves, SplittableRandom random) {
+			int n = state.generateMoves(moves);
+			int choice = random.nextInt(state.isNewRound() ? n : n + 1);
+			return (choice < n) ? moves[choice] : CardSet.EMPTY;
+		}
+	};
+
+	/**
+	 * The legal hand with the most cards, the weakest of those, or a pass
+	 * if there is none (see greedyMove()).
+	 */
+	public static final Strategy GREEDY = new Strategy() {
+		public long chooseMove(BigTwoGameState state, long[] moves, SplittableRandom random) {
+			return greedyMove(state, moves);
+		}
+	};
+
+	/**
+	 * The scripted move of LoadGenerator: singles only, the lowest card
+	 * that will do.
+	 */
+	public static final Strategy SCRIPTED = new Strategy() {
+		public long chooseMove(BigTwoGameState state, long[] moves, SplittableRandom random) {
+			long hand = state.getHand(state.getCurrentIdx());
+			return CardSet.select(hand, LoadGenerator.chooseMove(hand, state.isNewRound() ? 0 : state.getLastHand()));
+		}
+	};
+
+	/**
+	 * Creates and returns an instance of the Tournament class.
+	 * @param names the name of each of the 4 players
+	 * @param strategies the strategy of each of the 4 players
+	 * @param numOfThreads number of threads playing the games
+	 */
+	public Tournament(String[] names, Strategy[] strategies, int numOfThreads) {
+		if (strategies.length != BigTwoGameState.NUM_OF_PLAYERS || names.length != strategies.length) {
+			throw new IllegalArgumentException("A tournament needs " + BigTwoGameState.NUM_OF_PLAYERS + " players");
+		}
+		this.names = names;
+		this.strategies = strategies;
+		this.numOfThreads = numOfThreads;
+	}
+
+	/**
+	 * main() method for running a tournament.
+	 *
+	 * @param args
+	 *            options --games N (100000), --seed S (2396), --threads T
+	 *            (the number of processors) and --players A,B,C,D, each of
+	 *            random, greedy and scripted (greedy,greedy,scripted,random)
+	 * @throws InterruptedException if interrupted while waiting for the games
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		int numOfGames = 100000;
+		long seed = 2396;
+		int numOfThreads = Runtime.getRuntime().availableProcessors();
+		String[] names = { "greedy", "greedy", "scripted", "random" };
+		for (int i = 0; i + 1 < args.length; i += 2) {
+			String value = args[i + 1];
+			if (args[i].equals("--games")) {
+				numOfGames = Integer.parseInt(value);
+			} else if (args[i].equals("--seed")) {
+				seed = Long.parseLong(value);
+			} else if (args[i].equals("--threads")) {
+				numOfThreads = Integer.parseInt(value);
+			} else if (args[i].equals("--players")) {
+				names = value.split(",");
+			} else {
+				throw new IllegalArgumentException("Unknown option: " + args[i]);
+			}
+		}
+		Strategy[] strategies = new Strategy[names.length];
+		for (int i = 0; i < names.length; i++) {
+			strategies[i] = strategy(names[i]);
+		}
+
+		Tournament tournament = new Tournament(names, strategies, numOfThreads);
+		long startTime = System.nanoTime();
+		Results results = tournament.play(numOfGames, seed);
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+
+		System.out.printf("games=%d seed=%d threads=%d in %.1f s (%.0f games/min)%n", numOfGames, seed,
+				numOfThreads, seconds, numOfGames / seconds * 60);
+		for (int i = 0; i < names.length; i++) {
+			System.out.printf("player %d %-9s win rate=%.2f%%%n", i, names[i],
+					100.0 * results.getNumOfWins(i) / numOfGames);
+		}
+		System.out.printf("moves per game mean=%.1f p50=%d p90=%d p99=%d%n", results.getMeanLength(),
+				results.getLengthPercentile(0.5), results.getLengthPercentile(0.9),
+				results.getLengthPercentile(0.99));
+		long numOfMoves = results.getNumOfPasses();
+		for (int type = HandClassifier.SINGLE; type <= HandClassifier.STRAIGHT_FLUSH; type++) {
+			numOfMoves += results.getNumOfHands(type);
+		}
+		StringBuilder hands = new StringBuilder("hands");
+		for (int type = HandClassifier.SINGLE; type <= HandClassifier.STRAIGHT_FLUSH; type++) {
+			hands.append(String.format(" %s=%.2f%%", TYPE_NAMES[type], 100.0 * results.getNumOfHands(type) / numOfMoves));
+		}
+		hands.append(String.format(" pass=%.2f%%", 100.0 * results.getNumOfPasses() / numOfMoves));
+		System.out.println(hands);
+	}
+
+	/**
+	 * A method for getting a strategy by its name.
+	 * @param name random, greedy or scripted
+	 * @return the strategy
+	 */
+	public static Strategy strategy(String name) {
+		if (name.equals("random")) {
+			return RANDOM;
+		} else if (name.equals("greedy")) {
+			return GREEDY;
+		} else if (name.equals("scripted")) {
+			return SCRIPTED;
+		}
+		throw new IllegalArgumentException("Unknown player: " + name);
+	}
+
+	/**
+	 * A method for playing the games of the tournament.
+	 * @param numOfGames number of games
+	 * @param seed seed of the random numbers, from which the results can be reproduced
+	 * @return the results of the games
+	 * @throws InterruptedException if interrupted while waiting for the games
+	 */
+	public Results play(int numOfGames, long seed) throws InterruptedException {
+		SplittableRandom random = new SplittableRandom(seed);
+		ArrayList<Shard> shards = new ArrayList<Shard>();
+		for (int first = 0; first < numOfGames; first += SHARD_SIZE) {
+			shards.add(new Shard(first, Math.min(SHARD_SIZE, numOfGames - first), random.split()));
+		}
+		ExecutorService threads = Executors.newFixedThreadPool(numOfThreads);
+		try {
+			Results results = new Results();
+			for (Future<Results> shard : threads.invokeAll(shards)) {
+				results.add(shard.get());
+			}
+			return results;
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IllegalStateException(e.getCause());
+		} finally {
+			threads.shutdownNow();
+		}
+	}
+
+	/**
+	 * A method for choosing a greedy move: the legal hand with the most
+	 * cards, the weakest of those, or a pass if there is none.
+	 * @param state the game
+	 * @param moves array for the legal hands, of at least MoveGenerator.MAX_MOVES elements
+	 * @return cards to play as a CardSet, or 0 to pass
+	 */
+	static long greedyMove(BigTwoGameState state, long[] moves) {
+		int n = state.generateMoves(moves);
+		long best = CardSet.EMPTY;
+		int bestSize = 0;
+		int bestStrength = 0;
+		for (int i = 0; i < n; i++) {
+			int size = CardSet.size(moves[i]);
+			int strength = HandClassifier.classify(moves[i]);
+			if (size > bestSize || (size == bestSize && strength < bestStrength)) {
+				best = moves[i];
+				bestSize = size;
+				bestStrength = strength;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * A method for dealing a shuffled deck to the four players.
+	 */
+	private static long[] deal(SplittableRandom random) {
+		int[] deck = new int[CardSet.NUM_OF_CARDS];
+		for (int i = 0; i < deck.length; i++) {
+			deck[i] = i;
+		}
+		long[] hands = new long[BigTwoGameState.NUM_OF_PLAYERS];
+		for (int i = deck.length - 1; i >= 0; i--) {
+			int j = random.nextInt(i + 1);
+			int bit = deck[j];
+			deck[j] = deck[i];
+			deck[i] = bit;
+			hands[i / 13] |= 1L << bit;
+		}
+		return hands;
+	}
+
+	/**
+	 * An inner class for a shard of the games, played on one thread with
+	 * its own random numbers.
+	 */
+	private class Shard implements Callable<Results> {
+		private int first;						// the number of the first game of the shard
+		private int numOfGames;					// number of games in the shard
+		private SplittableRandom random;		// the source of random numbers of the shard
+
+		Shard(int first, int numOfGames, SplittableRandom random) {
+			this.first = first;
+			this.numOfGames = numOfGames;
+			this.random = random;
+		}
+
+		@Override
+		public Results call() {
+			Results results = new Results();
+			long[] moves = new long[MoveGenerator.MAX_MOVES];
+			for (int g = first; g < first + numOfGames; g++) {
+				int rotation = g % BigTwoGameState.NUM_OF_PLAYERS;		// the seat of player 0
+				BigTwoGameState state = new BigTwoGameState(deal(random));
+				while (!state.isGameOver()) {
+					int seat = state.getCurrentIdx();
+					int player = (seat - rotation + BigTwoGameState.NUM_OF_PLAYERS) % BigTwoGameState.NUM_OF_PLAYERS;
+					long cards = strategies[player].chooseMove(state, moves, random);
+					int result = state.play(seat, cards);
+					if (result != BigTwoGameState.ACCEPTED) {
+						throw new IllegalStateException(names[player] + " played " + CardSet.toString(cards)
+								+ " in game " + g + ": " + BigTwoGameState.describe(result));
+					}
+					if (cards == CardSet.EMPTY) {
+						results.numOfPasses++;
+					}
+					else {
+						results.numOfHands[HandClassifier.typeOf(HandClassifier.classify(cards))]++;
+					}
+				}
+				int winner = state.getLastHandPlayer();
+				results.numOfWins[(winner - rotation + BigTwoGameState.NUM_OF_PLAYERS) % BigTwoGameState.NUM_OF_PLAYERS]++;
+				results.lengths[Math.min(state.getNumOfMoves(), MAX_LENGTH)]++;
+				results.numOfGames++;
+			}
+			return results;
+		}
+	}
+
+	/**
+	 * An inner class for the results of a number of games: the wins of each
+	 * player, the number of hands played of each type and of passes, and
+	 * the number of games of each length in moves.
+	 */
+	public static class Results {
+		private long numOfGames;				// number of games played
+		private long[] numOfWins;				// number of games won by each player
+		private long[] numOfHands;				// number of hands played of each type (see HandClassifier)
+		private long numOfPasses;				// number of passes
+		private long[] lengths;					// number of games of each length, MAX_LENGTH or more counted last
+
+		Results() {
+			numOfWins = new long[BigTwoGameState.NUM_OF_PLAYERS];
+			numOfHands = new long[HandClassifier.STRAIGHT_FLUSH + 1];
+			lengths = new long[MAX_LENGTH + 1];
+		}
+
+		/**
+		 * A method for adding the results of other games to these.
+		 */
+		void add(Results other) {
+			numOfGames += other.numOfGames;
+			numOfPasses += other.numOfPasses;
+			for (int i = 0; i < numOfWins.length; i++) {
+				numOfWins[i] += other.numOfWins[i];
+			}
+			for (int i = 0; i < numOfHands.length; i++) {
+				numOfHands[i] += other.numOfHands[i];
+			}
+			for (int i = 0; i < lengths.length; i++) {
+				lengths[i] += other.lengths[i];
+			}
+		}
+
+		/**
+		 * A method for getting the number of games played.
+		 * @return number of games
+		 */
+		public long getNumOfGames() {
+			return numOfGames;
+		}
+
+		/**
+		 * A method for getting the number of games won by a player.
+		 * @param player index of the player in the tournament
+		 * @return number of games won
+		 */
+		public long getNumOfWins(int player) {
+			return numOfWins[player];
+		}
+
+		/**
+		 * A method for getting the number of hands of a type played.
+		 * @param type type of the hands (see HandClassifier)
+		 * @return number of hands
+		 */
+		public long getNumOfHands(int type) {
+			return numOfHands[type];
+		}
+
+		/**
+		 * A method for getting the number of passes.
+		 * @return number of passes
+		 */
+		public long getNumOfPasses() {
+			return numOfPasses;
+		}
+
+		/**
+		 * A method for getting the mean length of the games.
+		 * @return mean number of moves, passes included
+		 */
+		public double getMeanLength() {
+			long numOfMoves = 0;
+			for (int i = 0; i < lengths.length; i++) {
+				numOfMoves += i * lengths[i];
+			}
+			return (numOfGames == 0) ? 0 : (double) numOfMoves / numOfGames;
+		}
+
+		/**
+		 * A method for getting a percentile of the length of the games.
+		 * @param p the percentile, between 0 and 1
+		 * @return the number of moves, passes included, MAX_LENGTH for longer games
+		 */
+		public int getLengthPercentile(double p) {
+			long rank = (long) Math.ceil(p * numOfGames);
+			long count = 0;
+			for (int i = 0; i < lengths.length; i++) {
+				count += lengths[i];
+				if (count >= rank && count > 0) {
+					return i;
+				}
+			}
+			return MAX_LENGTH;
+		}
+	}
+}
@@ -0,0 +1,139 @@
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * The BenchmarkFixtures class builds the inputs shared by the JMH
+ * benchmarks in this directory: random 13-card hands, every selection of 5
+ * positions out of 13, and whole games recorded as sequences of plays and
+ * passes. A fixed seed makes every run measure the same inputs.
+ * <p>
+ * The benchmarks need the JMH jars (jmh-core, jmh-generator-annprocess and
+ * their dependency jopt-simple) and the course library on the class path;
+ * run.sh compiles them together with the game and runs them with the gc
+ * profiler, which reports the allocation rate of each benchmark.
+ * @author michael
+ *
+ */
+public final class BenchmarkFixtures {
+	public static final long SEED = 2396;					// seed of all random fixtures
+	public static final int NUM_OF_HANDS = 1024;			// number of random hands in a fixture
+
+	private BenchmarkFixtures() {
+	}
+
+	/**
+	 * A method for creating shuffled decks.
+	 * @param numOfDecks number of decks
+	 * @return shuffled decks
+	 */
+	public static BigTwoDeck[] decks(int numOfDecks) {
+		Random random = new Random(SEED);
+		BigTwoDeck[] decks = new BigTwoDeck[numOfDecks];
+		for (int i = 0; i < numOfDecks; i++) {
+			long[] order = shuffledCards(random);
+			decks[i] = new BigTwoDeck();
+			decks[i].removeAllCards();
+			for (int j = 0; j < order.length; j++) {
+				decks[i].addCard(CardSet.cardOf(Long.numberOfTrailingZeros(order[j])));
+			}
+		}
+		return decks;
+	}
+
+	/**
+	 * A method for creating random 13-card hands.
+	 * @param numOfHands number of hands
+	 * @return the hands as CardSet bitmasks
+	 */
+	public static long[] hands(int numOfHands) {
+		Random random = new Random(SEED);
+		long[] hands = new long[numOfHands];
+		for (int i = 0; i < numOfHands; i++) {
+			long[] order = shuffledCards(random);
+			for (int j = 0; j < 13; j++) {
+				hands[i] |= order[j];
+			}
+		}
+		return hands;
+	}
+
+	/**
+	 * A method for creating random 13-card hands in the order they were
+	 * dealt, i.e. not sorted.
+	 * @param numOfHands number of hands
+	 * @return the cards of each hand in the order dealt
+	 */
+	public static Card[][] unsortedHands(int numOfHands) {
+		Random random = new Random(SEED);
+		Card[][] hands = new Card[numOfHands][13];
+		for (int i = 0; i < numOfHands; i++) {
+			long[] order = shuffledCards(random);
+			for (int j = 0; j < 13; j++) {
+				hands[i][j] = CardSet.cardOf(Long.numberOfTrailingZeros(order[j]));
+			}
+		}
+		return hands;
+	}
+
+	/**
+	 * A method for listing every selection of 5 positions out of a 13-card
+	 * hand, in lexicographic order.
+	 * @return the 1287 selections
+	 */
+	public static int[][] fiveCardSelections() {
+		ArrayList<int[]> selections = new ArrayList<int[]>();
+		for (int a = 0; a < 13; a++) {
+			for (int b = a + 1; b < 13; b++) {
+				for (int c = b + 1; c < 13; c++) {
+					for (int d = c + 1; d < 13; d++) {
+						for (int e = d + 1; e < 13; e++) {
+							selections.add(new int[] {a, b, c, d, e});
+						}
+					}
+				}
+			}
+		}
+		return selections.toArray(new int[selections.size()][]);
+	}
+
+	/**
+	 * A method for recording whole games played by LoadGenerator's
+	 * scripted players. Each move is the player and the positions of the
+	 * cards played in his/her hand, empty for a pass.
+	 * @param decks the decks dealt for the games
+	 * @return the moves of each game, as {playerID, position...}
+	 */
+	public static int[][][] games(BigTwoDeck[] decks) {
+		int[][][] games = new int[decks.length][][];
+		for (int g = 0; g < decks.length; g++) {
+			BigTwoGameState state = new BigTwoGameState(BigTwoGameState.deal(decks[g]));
+			ArrayList<int[]> moves = new ArrayList<int[]>();
+			while (!state.isGameOver()) {
+				int playerIdx = state.getCurrentIdx();
+				long hand = state.getHand(playerIdx);
+				int[] positions = LoadGenerator.chooseMove(hand, state.isNewRound() ? 0 : state.getLastHand());
+				int[] move = new int[positions.length + 1];
+				move[0] = playerIdx;
+				System.arraycopy(positions, 0, move, 1, positions.length);
+				moves.add(move);
+				state.apply(playerIdx, CardSet.select(hand, positions));
+			}
+			games[g] = moves.toArray(new int[moves.size()][]);
+		}
+		return games;
+	}
+
+	private static long[] shuffledCards(Random random) {
+		long[] cards = new long[CardSet.NUM_OF_CARDS];
+		for (int i = 0; i < cards.length; i++) {
+			cards[i] = 1L << i;
+		}
+		for (int i = cards.length - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			long card = cards[i];
+			cards[i] = cards[j];
+			cards[j] = card;
+		}
+		return cards;
+	}
+}
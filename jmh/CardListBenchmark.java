@@ -0,0 +1,90 @@
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The CardListBenchmark class measures sorting a freshly dealt 13-card
+ * hand with CardList.sort() against building the sorted hand from a
+ * CardSet bitmask, as BigTwoClient.sortPlayersCards() does. Building the
+ * unsorted CardList is measured on its own so that it can be subtracted.
+ * @author michael
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CardListBenchmark {
+	private Card[][] unsortedHands;			// random hands in the order dealt
+	private long[] handMasks;				// the same hands as CardSet bitmasks
+	private int next;						// the index of the next hand
+
+	/**
+	 * A method for building the fixtures.
+	 */
+	@Setup
+	public void setUp() {
+		unsortedHands = BenchmarkFixtures.unsortedHands(BenchmarkFixtures.NUM_OF_HANDS);
+		handMasks = new long[unsortedHands.length];
+		for (int i = 0; i < unsortedHands.length; i++) {
+			for (int j = 0; j < unsortedHands[i].length; j++) {
+				handMasks[i] |= CardSet.of(unsortedHands[i][j]);
+			}
+		}
+	}
+
+	/**
+	 * Builds an unsorted 13-card CardList.
+	 * @return the hand
+	 */
+	@Benchmark
+	public CardList build() {
+		return buildHand(unsortedHands[nextHand()]);
+	}
+
+	/**
+	 * Builds an unsorted 13-card CardList and sorts it with CardList.sort().
+	 * @return the sorted hand
+	 */
+	@Benchmark
+	public CardList buildAndSort() {
+		CardList hand = buildHand(unsortedHands[nextHand()]);
+		hand.sort();
+		return hand;
+	}
+
+	/**
+	 * Builds the sorted 13-card CardList from a bitmask.
+	 * @return the sorted hand
+	 */
+	@Benchmark
+	public CardList fromCardSet() {
+		return CardSet.toCardList(handMasks[nextHand()]);
+	}
+
+	private static CardList buildHand(Card[] cards) {
+		CardList hand = new CardList();
+		for (int i = 0; i < cards.length; i++) {
+			hand.addCard(cards[i]);
+		}
+		return hand;
+	}
+
+	private int nextHand() {
+		if (++next >= unsortedHands.length) {
+			next = 0;
+		}
+		return next;
+	}
+}
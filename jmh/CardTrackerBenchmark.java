@@ -0,0 +1,119 @@
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The CardTrackerBenchmark class measures keeping count of the cards over
+ * whole recorded games, asking after every move which cards are unseen
+ * and whether the last hand is the boss of its size: with a CardTracker
+ * updated once per move, and by going through the moves so far each time,
+ * which is what a bot would have to do without it.
+ * @author michael
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CardTrackerBenchmark {
+	private static final int NUM_OF_GAMES = 64;		// number of recorded games
+
+	private long[][] hands;					// the hands dealt in each game
+	private int[][] players;				// the player of each move of each game
+	private long[][] moves;					// the cards of each move of each game, 0 for a pass
+	private CardTracker tracker;			// the tracker updated by trackGame()
+	private int nextGame;					// the index of the next game
+
+	/**
+	 * A method for building the fixtures.
+	 */
+	@Setup
+	public void setUp() {
+		BigTwoDeck[] decks = BenchmarkFixtures.decks(NUM_OF_GAMES);
+		int[][][] games = BenchmarkFixtures.games(decks);
+		hands = new long[NUM_OF_GAMES][];
+		players = new int[NUM_OF_GAMES][];
+		moves = new long[NUM_OF_GAMES][];
+		for (int g = 0; g < NUM_OF_GAMES; g++) {
+			hands[g] = BigTwoGameState.deal(decks[g]);
+			long[] state = hands[g].clone();
+			players[g] = new int[games[g].length];
+			moves[g] = new long[games[g].length];
+			for (int m = 0; m < games[g].length; m++) {
+				int playerIdx = games[g][m][0];
+				int[] positions = Arrays.copyOfRange(games[g][m], 1, games[g][m].length);
+				players[g][m] = playerIdx;
+				moves[g][m] = CardSet.select(state[playerIdx], positions);
+				state[playerIdx] &= ~moves[g][m];
+			}
+		}
+		tracker = new CardTracker();
+	}
+
+	/**
+	 * Follows a game with a CardTracker.
+	 * @return the number of moves after which the last hand was the boss
+	 */
+	@Benchmark
+	public int trackGame() {
+		int g = nextGame();
+		tracker.start(0, hands[g][0], CardSet.EMPTY, CardSet.EMPTY, -1);
+		int numOfBosses = 0;
+		long lastHand = CardSet.EMPTY;
+		for (int m = 0; m < moves[g].length; m++) {
+			tracker.update(players[g][m], moves[g][m]);
+			if (moves[g][m] != CardSet.EMPTY) {
+				lastHand = moves[g][m];
+			}
+			if (tracker.getUnseenCards() != 0 && tracker.isBoss(lastHand)) {
+				numOfBosses++;
+			}
+		}
+		return numOfBosses;
+	}
+
+	/**
+	 * Follows a game by going through the moves so far after every move.
+	 * @return the number of moves after which the last hand was the boss
+	 */
+	@Benchmark
+	public int recomputeGame() {
+		int g = nextGame();
+		int numOfBosses = 0;
+		for (int m = 0; m < moves[g].length; m++) {
+			long playedCards = CardSet.EMPTY;
+			long lastHand = CardSet.EMPTY;
+			for (int k = 0; k <= m; k++) {
+				playedCards |= moves[g][k];
+				if (moves[g][k] != CardSet.EMPTY) {
+					lastHand = moves[g][k];
+				}
+			}
+			long unseen = CardSet.ALL & ~playedCards & ~hands[g][0];
+			if (unseen != 0 && CardTracker.strongest(unseen, Long.bitCount(lastHand))
+					<= HandClassifier.classify(lastHand)) {
+				numOfBosses++;
+			}
+		}
+		return numOfBosses;
+	}
+
+	private int nextGame() {
+		if (++nextGame >= NUM_OF_GAMES) {
+			nextGame = 0;
+		}
+		return nextGame;
+	}
+}
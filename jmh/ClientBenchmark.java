@@ -0,0 +1,132 @@
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The ClientBenchmark class measures the per-move and per-game work of a
+ * headless BigTwoClient: dealing a deck (divideCards() and the sorting of
+ * the hands, through start()), selecting cards by position as
+ * getSelectedCards() does, endOfGame(), replaying whole recorded games of
+ * plays and passes through checkMove(), and turning the selection flags
+ * of BigTwoTable into indices.
+ * @author michael
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClientBenchmark {
+	private static final int NUM_OF_GAMES = 256;		// number of recorded games
+
+	private BigTwoClient client;			// a client without a user interface or connection
+	private BigTwoDeck[] decks;				// shuffled decks
+	private int[][][] games;				// the moves of a game played with each deck
+	private long[] hands;					// random 13-card hands
+	private int[][] selections;				// every 5-card selection of positions
+	private boolean[][] selectedFlags;		// random selections of a 13-card hand, as BigTwoTable keeps them
+	private int nextGame;					// the index of the next game
+	private int nextSelection;				// the index of the next selection
+
+	/**
+	 * A method for building the fixtures.
+	 */
+	@Setup
+	public void setUp() {
+		client = new BigTwoClient("benchmark");
+		decks = BenchmarkFixtures.decks(NUM_OF_GAMES);
+		games = BenchmarkFixtures.games(decks);
+		hands = BenchmarkFixtures.hands(BenchmarkFixtures.NUM_OF_HANDS);
+		selections = BenchmarkFixtures.fiveCardSelections();
+		Random random = new Random(BenchmarkFixtures.SEED);
+		selectedFlags = new boolean[BenchmarkFixtures.NUM_OF_HANDS][13];
+		for (int i = 0; i < selectedFlags.length; i++) {
+			for (int j = 0; j < 13; j++) {
+				selectedFlags[i][j] = random.nextInt(4) == 0;
+			}
+		}
+		client.start(decks[0]);
+	}
+
+	/**
+	 * Starts a game with a shuffled deck: the cards are dealt and sorted.
+	 * @return the client
+	 */
+	@Benchmark
+	public BigTwoClient start() {
+		client.start(decks[nextGame()]);
+		return client;
+	}
+
+	/**
+	 * Replays a whole recorded game of plays and passes, each checked by
+	 * checkMove() as a client talking to CardGameServer does.
+	 * @return the client
+	 */
+	@Benchmark
+	public BigTwoClient replayGame() {
+		int g = nextGame();
+		client.start(decks[g]);
+		int[][] moves = games[g];
+		for (int m = 0; m < moves.length; m++) {
+			int[] cardIdx = new int[moves[m].length - 1];
+			System.arraycopy(moves[m], 1, cardIdx, 0, cardIdx.length);
+			client.checkMove(moves[m][0], cardIdx);
+		}
+		return client;
+	}
+
+	/**
+	 * Selects 5 cards of a hand by their positions, as getSelectedCards() does.
+	 * @return the cards selected
+	 */
+	@Benchmark
+	public long getSelectedCards() {
+		int i = nextSelection();
+		return CardSet.select(hands[i & (hands.length - 1)], selections[i]);
+	}
+
+	/**
+	 * Checks whether the game has ended.
+	 * @return whether the game has ended
+	 */
+	@Benchmark
+	public boolean endOfGame() {
+		return client.endOfGame();
+	}
+
+	/**
+	 * Turns the selection flags of a hand into the indices sent in a MOVE.
+	 * @return the indices of the cards selected
+	 */
+	@Benchmark
+	public int[] tableGetSelected() {
+		return BigTwoTable.getSelected(selectedFlags[nextSelection() & (selectedFlags.length - 1)]);
+	}
+
+	private int nextGame() {
+		if (++nextGame >= NUM_OF_GAMES) {
+			nextGame = 0;
+		}
+		return nextGame;
+	}
+
+	private int nextSelection() {
+		if (++nextSelection >= selections.length) {
+			nextSelection = 0;
+		}
+		return nextSelection;
+	}
+}
@@ -0,0 +1,131 @@
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The HandBenchmark class measures composing and comparing hands: the
+ * BigTwoClient.composeHand() and HandClassifier.classify() of every 5-card
+ * selection of random hands, and Hand.beats() against the comparisons by
+ * strength and by the hand rank table on pairs of valid 5-card hands.
+ * @author michael
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HandBenchmark {
+	private static final int NUM_OF_HANDS = 16;		// number of random hands whose selections are used
+
+	private CardGamePlayer player;			// the player of the hands
+	private CardList[] selections;			// every 5-card selection of each hand
+	private long[] selectionMasks;			// the same selections as CardSet bitmasks
+	private Hand[] hands;					// valid 5-card hands
+	private int[] strengths;				// the HandClassifier strengths of the hands
+	private int nextSelection;				// the index of the next selection
+	private int nextHand;					// the index of the next hand
+
+	/**
+	 * A method for building the fixtures.
+	 */
+	@Setup
+	public void setUp() {
+		player = new CardGamePlayer();
+		int[][] positions = BenchmarkFixtures.fiveCardSelections();
+		long[] randomHands = BenchmarkFixtures.hands(NUM_OF_HANDS);
+		selections = new CardList[NUM_OF_HANDS * positions.length];
+		selectionMasks = new long[selections.length];
+		ArrayList<Hand> validHands = new ArrayList<Hand>();
+		for (int h = 0; h < NUM_OF_HANDS; h++) {
+			for (int s = 0; s < positions.length; s++) {
+				int i = h * positions.length + s;
+				selectionMasks[i] = CardSet.select(randomHands[h], positions[s]);
+				selections[i] = CardSet.toCardList(selectionMasks[i]);
+				Hand hand = HandClassifier.compose(player, selectionMasks[i]);
+				if (hand != null) {
+					validHands.add(hand);
+				}
+			}
+		}
+		hands = validHands.toArray(new Hand[validHands.size()]);
+		strengths = new int[hands.length];
+		for (int i = 0; i < hands.length; i++) {
+			strengths[i] = HandClassifier.classify(CardSet.of(hands[i]));
+		}
+	}
+
+	/**
+	 * Composes a hand from a CardList with BigTwoClient.composeHand().
+	 * @return the hand, or null if not valid
+	 */
+	@Benchmark
+	public Hand composeHand() {
+		return BigTwoClient.composeHand(player, selections[nextSelection()]);
+	}
+
+	/**
+	 * Classifies the same selections as composeHand() from their bitmasks.
+	 * @return the HandClassifier strength
+	 */
+	@Benchmark
+	public int classify() {
+		return HandClassifier.classify(selectionMasks[nextSelection()]);
+	}
+
+	/**
+	 * Compares two valid 5-card hands with Hand.beats().
+	 * @return whether the first hand beats the second
+	 */
+	@Benchmark
+	public boolean handBeats() {
+		int i = nextHand();
+		return hands[i].beats(hands[(i * 7 + 1) % hands.length]);
+	}
+
+	/**
+	 * Compares two valid 5-card hands with BigTwoClient.beats(), i.e. with
+	 * the hand rank table if it has been generated.
+	 * @return whether the first hand beats the second
+	 */
+	@Benchmark
+	public boolean clientBeats() {
+		int i = nextHand();
+		return BigTwoClient.beats(hands[i], hands[(i * 7 + 1) % hands.length]);
+	}
+
+	/**
+	 * Compares two valid 5-card hands by their HandClassifier strengths.
+	 * @return whether the first hand beats the second
+	 */
+	@Benchmark
+	public boolean strengthBeats() {
+		int i = nextHand();
+		return HandClassifier.beats(strengths[i], strengths[(i * 7 + 1) % hands.length]);
+	}
+
+	private int nextSelection() {
+		if (++nextSelection >= selections.length) {
+			nextSelection = 0;
+		}
+		return nextSelection;
+	}
+
+	private int nextHand() {
+		if (++nextHand >= hands.length) {
+			nextHand = 0;
+		}
+		return nextHand;
+	}
+}
@@ -0,0 +1,17 @@
+#!/bin/sh
+# Compiles the JMH benchmarks together with the game and runs them with the
+# gc profiler. Any arguments are passed to JMH, e.g. a benchmark name regex:
+#
+#   JMH_CLASSPATH=jmh-core.jar:jmh-generator-annprocess.jar:jopt-simple.jar \
+#   COURSE_CLASSPATH=comp2396.jar jmh/run.sh HandBenchmark
+#
+# Run HandRankTableGenerator first to include the hand rank table in the
+# numbers of HandBenchmark.clientBeats.
+set -e
+cd "$(dirname "$0")/.."
+: "${JMH_CLASSPATH:?set JMH_CLASSPATH to the jmh-core, jmh-generator-annprocess and jopt-simple jars}"
+CLASSPATH="$JMH_CLASSPATH${COURSE_CLASSPATH:+:$COURSE_CLASSPATH}"
+OUT=target/jmh-classes
+rm -rf "$OUT" && mkdir -p "$OUT"
+javac -encoding windows-1252 -cp "$CLASSPATH" -d "$OUT" *.java jmh/*.java
+java -cp "$OUT:$CLASSPATH" org.openjdk.jmh.Main -prof gc "$@"